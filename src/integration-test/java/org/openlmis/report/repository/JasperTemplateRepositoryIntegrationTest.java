@@ -18,10 +18,13 @@ package org.openlmis.report.repository;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
 import org.junit.Test;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.domain.JasperTemplateParameter;
@@ -35,6 +38,9 @@ public class JasperTemplateRepositoryIntegrationTest extends
   @Autowired
   private JasperTemplateRepository jasperTemplateRepository;
 
+  @Autowired
+  private EntityManager entityManager;
+
   @Override
   JasperTemplateRepository getRepository() {
     return this.jasperTemplateRepository;
@@ -94,4 +100,42 @@ public class JasperTemplateRepositoryIntegrationTest extends
         jasperTemplateRepository.findByVisible(false),
         hasItem(hasProperty("id", is(hiddenTemplate.getId()))));
   }
+
+  @Test
+  public void shouldFindMetadataByVisibilityFlag() {
+    JasperTemplate visibleTemplate = generateInstance();
+    visibleTemplate.setDescription("description");
+    JasperTemplate hiddenTemplate = generateInstance();
+    hiddenTemplate.setVisible(false);
+
+    jasperTemplateRepository.save(visibleTemplate);
+    jasperTemplateRepository.save(hiddenTemplate);
+
+    List<JasperTemplateMetadata> result = jasperTemplateRepository.findMetadataByVisible(true);
+
+    assertThat(result, hasItem(hasProperty("description", is("description"))));
+    assertThat(result, not(hasItem(hasProperty("id", is(hiddenTemplate.getId())))));
+    assertEquals(visibleTemplate.getName(), jasperTemplateRepository
+        .findMetadataById(visibleTemplate.getId()).get().getName());
+  }
+
+  @Test
+  public void shouldFindParametersByTemplateId() {
+    JasperTemplateParameter templateParameter = new JasperTemplateParameter();
+    templateParameter.setName("parameter");
+    templateParameter.setRequired(true);
+
+    JasperTemplate template = generateInstance();
+    template.setTemplateParameters(Collections.singletonList(templateParameter));
+    jasperTemplateRepository.save(template);
+    entityManager.flush();
+    entityManager.clear();
+
+    List<JasperTemplateParameter> result = jasperTemplateRepository
+        .findParametersByTemplateIdIn(Collections.singleton(template.getId()));
+
+    assertEquals(1, result.size());
+    assertEquals(template.getId(), result.get(0).getTemplateId());
+    assertEquals("parameter", result.get(0).getName());
+  }
 }
@@ -15,6 +15,7 @@
 
 package org.openlmis.report.web;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
@@ -37,8 +38,11 @@ import org.junit.Test;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.dto.JasperTemplateDto;
 import org.openlmis.report.exception.PermissionMessageException;
+import org.openlmis.report.repository.JasperTemplateMetadata;
 import org.openlmis.report.repository.JasperTemplateRepository;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -49,8 +53,11 @@ public class JasperTemplateControllerIntegrationTest extends BaseWebIntegrationT
   private static final String ID_URL = RESOURCE_URL + "/{id}";
   private static final String FORMAT_PARAM = "format";
   private static final String REPORT_URL = ID_URL + "/{" + FORMAT_PARAM + "}";
+  private static final String DATA_URL = ID_URL + "/data";
   private static final String PDF_FORMAT = "pdf";
 
+  private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
+
   @MockBean
   private JasperTemplateRepository jasperTemplateRepository;
 
@@ -64,8 +71,10 @@ public class JasperTemplateControllerIntegrationTest extends BaseWebIntegrationT
   @Test
   public void shouldGetVisibleTemplates() {
     // given
-    JasperTemplate[] templates = { generateExistentTemplate(), generateExistentTemplate() };
-    given(jasperTemplateRepository.findByVisible(true)).willReturn(Arrays.asList(templates));
+    JasperTemplateMetadata[] templates = { toMetadata(generateExistentTemplate()),
+        toMetadata(generateExistentTemplate()) };
+    given(jasperTemplateRepository.findMetadataByVisible(true))
+        .willReturn(Arrays.asList(templates));
 
     // when
     JasperTemplateDto[] result = restAssured.given()
@@ -150,7 +159,7 @@ public class JasperTemplateControllerIntegrationTest extends BaseWebIntegrationT
   @Test
   public void shouldNotGetNonExistentTemplate() {
     // given
-    given(jasperTemplateRepository.findById(anyUuid())).willReturn(Optional.empty());
+    given(jasperTemplateRepository.findMetadataById(anyUuid())).willReturn(Optional.empty());
 
     // when
     restAssured.given()
@@ -166,6 +175,29 @@ public class JasperTemplateControllerIntegrationTest extends BaseWebIntegrationT
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  // GET /api/reports/templates/{id}/data
+
+  @Test
+  public void shouldGetDataOfExistentTemplate() {
+    // given
+    JasperTemplate template = generateExistentTemplate();
+    template.setData(new byte[]{1, 2, 3});
+
+    // when
+    byte[] result = restAssured.given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam("id", template.getId())
+        .when()
+        .get(DATA_URL)
+        .then()
+        .statusCode(200)
+        .extract().asByteArray();
+
+    // then
+    assertArrayEquals(template.getData(), result);
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   // GET /api/reports/templates/{id}/{format}
 
   @Test
@@ -250,7 +282,13 @@ public class JasperTemplateControllerIntegrationTest extends BaseWebIntegrationT
     template.setRequiredRights(new ArrayList<>());
 
     given(jasperTemplateRepository.findById(id)).willReturn(Optional.of(template));
+    given(jasperTemplateRepository.findMetadataById(id))
+        .willReturn(Optional.of(toMetadata(template)));
 
     return template;
   }
+
+  private JasperTemplateMetadata toMetadata(JasperTemplate template) {
+    return projectionFactory.createProjection(JasperTemplateMetadata.class, template);
+  }
 }
@@ -42,12 +42,14 @@ import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.i18n.CookieLocaleResolver;
 
 @SpringBootApplication(scanBasePackages = "org.openlmis.report")
 @EntityScan(basePackageClasses = BaseEntity.class)
+@EnableScheduling
 public class Application {
   private static Logger LOGGER = LoggerFactory.getLogger(Application.class);
 
@@ -37,6 +37,7 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
 
@@ -54,9 +55,12 @@ public class JasperTemplate extends BaseEntity {
 
   @Column
   @Getter
-  @Setter
   private byte[] data;
 
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION)
+  @Getter
+  private String dataDigest;
+
   @Column(columnDefinition = TEXT_COLUMN_DEFINITION)
   @Getter
   @Setter
@@ -101,16 +105,28 @@ public class JasperTemplate extends BaseEntity {
    * @param exporter exporter to export to
    */
   public void export(Exporter exporter) {
-    exporter.setData(data);
     exporter.setDescription(description);
     exporter.setId(id);
     exporter.setName(name);
     exporter.setType(type);
   }
 
+  /**
+   * Sets the compiled report data together with its SHA-256 digest, which identifies the
+   * version of the template without reading the data again.
+   *
+   * @param data serialized compiled report
+   */
+  public void setData(byte[] data) {
+    this.data = data;
+    this.dataDigest = digest(data);
+  }
+
   @PrePersist
   @PreUpdate
   private void preSave() {
+    dataDigest = digest(data);
+
     if (templateParameters != null) {
       templateParameters.forEach(line -> line.setTemplate(this));
     }
@@ -120,13 +136,15 @@ public class JasperTemplate extends BaseEntity {
     }
   }
 
+  private static String digest(byte[] data) {
+    return data == null ? null : DigestUtils.sha256Hex(data);
+  }
+
   public interface Exporter {
     void setId(UUID id);
 
     void setName(String name);
 
-    void setData(byte[] data);
-
     void setType(String type);
 
     void setDescription(String description);
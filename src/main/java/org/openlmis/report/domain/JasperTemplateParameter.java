@@ -33,6 +33,7 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Type;
 import org.openlmis.report.dto.JasperTemplateParameterDependencyDto;
 
 /**
@@ -49,12 +50,18 @@ import org.openlmis.report.dto.JasperTemplateParameterDependencyDto;
 @AllArgsConstructor
 public class JasperTemplateParameter extends BaseEntity {
 
-  @ManyToOne(cascade = CascadeType.REFRESH)
+  @ManyToOne(cascade = CascadeType.REFRESH, fetch = FetchType.LAZY)
   @JoinColumn(name = "templateId", nullable = false)
   @Getter
   @Setter
   private JasperTemplate template;
 
+  // read-only copy of the foreign key, so parameters can be loaded without their template
+  @Column(name = "templateId", insertable = false, updatable = false)
+  @Type(type = UUID_COLUMN_DEFINITION)
+  @Getter
+  private UUID templateId;
+
   @Column(columnDefinition = TEXT_COLUMN_DEFINITION)
   @Getter
   @Setter
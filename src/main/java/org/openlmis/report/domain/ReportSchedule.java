@@ -0,0 +1,172 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.domain;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Pre-generation of a report on a cron expression. Schedules refer to templates by name, so that
+ * they survive re-uploads of the template. Schedules created from the report properties of
+ * a template are replaced whenever the template is uploaded again. The report is generated in
+ * the locale of the schedule, kept as a language tag.
+ */
+@Entity
+@Table(name = "report_schedules")
+@NoArgsConstructor
+public class ReportSchedule extends BaseEntity {
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String templateName;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String cronExpression;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String format;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String locale;
+
+  @Column(nullable = false)
+  @Getter
+  @Setter
+  private boolean fromTemplate;
+
+  @Column(columnDefinition = "timestamp with time zone", nullable = false)
+  @Getter
+  @Setter
+  private ZonedDateTime nextRunDate;
+
+  @ElementCollection(fetch = FetchType.EAGER)
+  @CollectionTable(name = "report_schedule_parameters",
+      joinColumns = @JoinColumn(name = "scheduleid", nullable = false))
+  @MapKeyColumn(name = "name")
+  @Column(name = "value", columnDefinition = TEXT_COLUMN_DEFINITION)
+  @Getter
+  @Setter
+  private Map<String, String> parameters = new HashMap<>();
+
+  /**
+   * Create a new instance of ReportSchedule based on data from {@link Importer}.
+   *
+   * @param importer     instance of {@link Importer}
+   * @param templateName name of the scheduled template
+   * @param locale       language tag of the locale the report is generated in
+   * @param nextRunDate  date of the first run
+   * @return new instance of schedule.
+   */
+  public static ReportSchedule newInstance(Importer importer, String templateName,
+      String locale, ZonedDateTime nextRunDate) {
+    ReportSchedule schedule = new ReportSchedule();
+
+    schedule.setTemplateName(templateName);
+    schedule.setCronExpression(importer.getCronExpression());
+    schedule.setFormat(importer.getFormat());
+    schedule.setLocale(locale);
+    schedule.setNextRunDate(nextRunDate);
+    if (importer.getParameters() != null) {
+      schedule.getParameters().putAll(importer.getParameters());
+    }
+
+    return schedule;
+  }
+
+  /**
+   * Returns the parameters in the same shape as request parameters of a report generated
+   * synchronously.
+   *
+   * @return map of parameter names and values
+   */
+  public Map<String, String[]> getParameterMap() {
+    Map<String, String[]> parameterMap = new HashMap<>();
+    parameters.forEach((key, value) -> parameterMap.put(key, new String[]{value}));
+    return parameterMap;
+  }
+
+  /**
+   * Returns the locale the report is generated in.
+   *
+   * @return locale of the schedule
+   */
+  public Locale getReportLocale() {
+    return Locale.forLanguageTag(locale);
+  }
+
+  /**
+   * Export this object to the specified exporter (DTO).
+   *
+   * @param exporter exporter to export to
+   */
+  public void export(Exporter exporter) {
+    exporter.setId(id);
+    exporter.setTemplateName(templateName);
+    exporter.setCronExpression(cronExpression);
+    exporter.setFormat(format);
+    exporter.setLocale(locale);
+    exporter.setParameters(new HashMap<>(parameters));
+    exporter.setFromTemplate(fromTemplate);
+    exporter.setNextRunDate(nextRunDate);
+  }
+
+  public interface Exporter {
+    void setId(UUID id);
+
+    void setTemplateName(String templateName);
+
+    void setCronExpression(String cronExpression);
+
+    void setFormat(String format);
+
+    void setLocale(String locale);
+
+    void setParameters(Map<String, String> parameters);
+
+    void setFromTemplate(boolean fromTemplate);
+
+    void setNextRunDate(ZonedDateTime nextRunDate);
+  }
+
+  public interface Importer {
+    String getCronExpression();
+
+    String getFormat();
+
+    Map<String, String> getParameters();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.domain;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.Type;
+
+/**
+ * Report pre-generated by a schedule, served instead of filling the report again for requests
+ * with the same template, parameters, format and locale. Snapshots in compressible formats are
+ * stored compressed with gzip.
+ */
+@Entity
+@Table(name = "report_snapshots")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportSnapshot extends BaseEntity {
+
+  @Column(nullable = false)
+  @Type(type = UUID_COLUMN_DEFINITION)
+  @Getter
+  @Setter
+  private UUID templateId;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String parametersKey;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String format;
+
+  @Column(columnDefinition = TEXT_COLUMN_DEFINITION, nullable = false)
+  @Getter
+  @Setter
+  private String locale;
+
+  @Column(nullable = false)
+  @Getter
+  @Setter
+  private byte[] data;
+
+  @Column(nullable = false)
+  @Getter
+  @Setter
+  private boolean compressed;
+
+  @Column(columnDefinition = "timestamp with time zone", nullable = false)
+  @Getter
+  @Setter
+  private ZonedDateTime generatedDate;
+}
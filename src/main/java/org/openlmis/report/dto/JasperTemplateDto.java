@@ -25,6 +25,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.domain.JasperTemplateParameter;
+import org.openlmis.report.repository.JasperTemplateMetadata;
 
 @AllArgsConstructor
 @NoArgsConstructor
@@ -46,10 +47,6 @@ public class JasperTemplateDto implements JasperTemplate.Exporter {
   @Setter
   private String description;
 
-  @Getter
-  @Setter
-  private byte[] data;
-
   @Getter
   @Setter
   private List<String> requiredRights;
@@ -95,4 +92,27 @@ public class JasperTemplateDto implements JasperTemplate.Exporter {
 
     return jasperTemplateDto;
   }
+
+  /**
+   * Create new instance of JasperTemplateDto based on given {@link JasperTemplateMetadata} and
+   * parameters of the template. Compiled report data is not included.
+   *
+   * @param metadata   metadata of the template
+   * @param parameters parameters of the template
+   * @return new instance of JasperTemplateDto.
+   */
+  public static JasperTemplateDto newInstance(JasperTemplateMetadata metadata,
+      List<JasperTemplateParameter> parameters) {
+    JasperTemplateDto jasperTemplateDto = new JasperTemplateDto();
+    jasperTemplateDto.setId(metadata.getId());
+    jasperTemplateDto.setName(metadata.getName());
+    jasperTemplateDto.setType(metadata.getType());
+    jasperTemplateDto.setDescription(metadata.getDescription());
+    jasperTemplateDto.setTemplateParameters(parameters
+        .stream()
+        .map(JasperTemplateParameterDto::newInstance)
+        .collect(Collectors.toList()));
+
+    return jasperTemplateDto;
+  }
 }
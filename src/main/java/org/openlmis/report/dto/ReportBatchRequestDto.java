@@ -0,0 +1,56 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.dto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportBatchRequestDto {
+
+  private String format;
+  private boolean merge;
+  private List<Map<String, String>> parameters = new ArrayList<>();
+
+  /**
+   * Returns every set of report parameters in the same shape as request parameters of a report
+   * generated synchronously.
+   *
+   * @return list of maps of parameter names and values
+   */
+  public List<Map<String, String[]>> getParameterMaps() {
+    List<Map<String, String[]>> parameterMaps = new ArrayList<>();
+    if (parameters != null) {
+      for (Map<String, String> parameterSet : parameters) {
+        Map<String, String[]> parameterMap = new HashMap<>();
+        if (parameterSet != null) {
+          parameterSet.forEach((key, value) -> parameterMap.put(key, new String[]{value}));
+        }
+        parameterMaps.add(parameterMap);
+      }
+    }
+    return parameterMaps;
+  }
+}
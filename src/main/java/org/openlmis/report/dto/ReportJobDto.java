@@ -0,0 +1,51 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.dto;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.openlmis.report.service.ReportJob;
+import org.openlmis.report.service.ReportJobStatus;
+import org.openlmis.report.utils.Message;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReportJobDto implements ReportJob.Exporter {
+
+  private UUID id;
+  private UUID templateId;
+  private String format;
+  private ReportJobStatus status;
+  private ZonedDateTime createdDate;
+  private ZonedDateTime finishedDate;
+  private Message.LocalizedMessage error;
+
+  /**
+   * Create new instance of ReportJobDto based on given {@link ReportJob}.
+   *
+   * @param reportJob instance of ReportJob
+   * @return new instance of ReportJobDto.
+   */
+  public static ReportJobDto newInstance(ReportJob reportJob) {
+    ReportJobDto reportJobDto = new ReportJobDto();
+    reportJob.export(reportJobDto);
+    return reportJobDto;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.dto;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.openlmis.report.domain.ReportSchedule;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReportScheduleDto implements ReportSchedule.Importer, ReportSchedule.Exporter {
+
+  private UUID id;
+  private UUID templateId;
+  private String templateName;
+  private String cronExpression;
+  private String format;
+  private String locale;
+  private Map<String, String> parameters = new HashMap<>();
+  private boolean fromTemplate;
+  private ZonedDateTime nextRunDate;
+
+  /**
+   * Create new instance of ReportScheduleDto based on given {@link ReportSchedule}.
+   *
+   * @param schedule instance of ReportSchedule
+   * @return new instance of ReportScheduleDto.
+   */
+  public static ReportScheduleDto newInstance(ReportSchedule schedule) {
+    ReportScheduleDto dto = new ReportScheduleDto();
+    schedule.export(dto);
+    return dto;
+  }
+}
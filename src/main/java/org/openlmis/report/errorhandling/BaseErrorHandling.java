@@ -15,11 +15,13 @@
 
 package org.openlmis.report.errorhandling;
 
+import javax.servlet.http.HttpServletResponse;
 import org.openlmis.report.exception.AuthenticationMessageException;
 import org.openlmis.report.exception.BaseMessageException;
 import org.openlmis.report.exception.DataRetrievalException;
 import org.openlmis.report.exception.NotFoundMessageException;
 import org.openlmis.report.exception.PermissionMessageException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
 import org.openlmis.report.exception.ValidationMessageException;
 import org.openlmis.report.i18n.MessageService;
 import org.openlmis.report.utils.Message;
@@ -27,6 +29,7 @@ import org.openlmis.util.ErrorResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -85,6 +88,25 @@ public class BaseErrorHandling {
     return getLocalizedMessage(ex);
   }
 
+  /**
+   * Handles exceptions of exceeded capacity and returns status 429 Too Many Requests, with
+   * the Retry-After header if the exception knows when the request may be retried.
+   *
+   * @param ex       the TooManyRequestsMessageException to handle
+   * @param response the response to set the header on
+   * @return the error response for the user
+   */
+  @ExceptionHandler(TooManyRequestsMessageException.class)
+  @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+  @ResponseBody
+  public Message.LocalizedMessage handleTooManyRequestsMessageException(
+      TooManyRequestsMessageException ex, HttpServletResponse response) {
+    if (ex.getRetryAfter() != null) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter()));
+    }
+    return getLocalizedMessage(ex);
+  }
+
   /**
    * Logs an error message and returns an error response.
    *
@@ -17,10 +17,25 @@ package org.openlmis.report.i18n;
 
 public class JasperMessageKeys extends ReportingMessageKeys {
   private static final String ERROR = join(SERVICE_ERROR, "jasper");
+  private static final String REPORT = join(ERROR, "report");
+  private static final String REPORT_FILL = join(REPORT, "fill");
+  private static final String REPORT_LIMIT = join(REPORT, "limit");
+  private static final String REPORT_DATA = join(REPORT, "data");
 
   public static final String ERROR_JASPER_FILE_CREATION = join(ERROR, "file", "creation");
   public static final String ERROR_JASPER_TEMPLATE_NOT_FOUND = join(ERROR, "template", NOT_FOUND);
-  public static final String ERROR_JASPER_REPORT_GENERATION = join(ERROR, "report", "generation");
+  public static final String ERROR_JASPER_REPORT_GENERATION = join(REPORT, "generation");
   public static final String ERROR_JASPER_REPORT_FORMAT_UNKNOWN = 
-      join(ERROR, "report", "format", "unknown");
+      join(REPORT, "format", "unknown");
+  public static final String ERROR_JASPER_REPORT_FILL_NOT_FOUND = join(REPORT_FILL, NOT_FOUND);
+  public static final String ERROR_JASPER_REPORT_FILL_LIMIT = join(REPORT_FILL, "limit");
+  public static final String ERROR_JASPER_REPORT_FILL_TIMEOUT = join(REPORT_FILL, "timeout");
+  public static final String ERROR_JASPER_REPORT_FILL_CANCELLED = join(REPORT_FILL, "cancelled");
+  public static final String ERROR_JASPER_REPORT_PAGE_RANGE_INVALID =
+      join(REPORT, "pageRange", "invalid");
+  public static final String ERROR_JASPER_REPORT_LIMIT_RECORDS = join(REPORT_LIMIT, "records");
+  public static final String ERROR_JASPER_REPORT_LIMIT_PAGES = join(REPORT_LIMIT, "pages");
+  public static final String ERROR_JASPER_REPORT_LIMIT_OUTPUT = join(REPORT_LIMIT, "output");
+  public static final String ERROR_JASPER_REPORT_DATA_QUERY = join(REPORT_DATA, "query");
+  public static final String ERROR_JASPER_REPORT_DATA_PARAMETER = join(REPORT_DATA, "parameter");
 }
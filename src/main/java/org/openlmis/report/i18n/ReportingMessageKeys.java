@@ -42,4 +42,5 @@ public class ReportingMessageKeys extends MessageKeys {
       join(ERROR, PARAMETER, MISSING);
   public static final String ERROR_REPORTING_TEMPLATE_EXIST =
       join(ERROR, TEMPLATE, EXISTS);
+  public static final String ERROR_REPORTING_LIMIT_INVALID = join(ERROR, "limit", INVALID);
 }
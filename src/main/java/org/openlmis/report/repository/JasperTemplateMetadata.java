@@ -0,0 +1,33 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.repository;
+
+import java.util.UUID;
+
+/**
+ * Read-only view of a {@link org.openlmis.report.domain.JasperTemplate} that does not include
+ * the compiled report data, used to list and describe templates.
+ */
+public interface JasperTemplateMetadata {
+
+  UUID getId();
+
+  String getName();
+
+  String getType();
+
+  String getDescription();
+}
@@ -15,16 +15,32 @@
 
 package org.openlmis.report.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.JasperTemplateParameter;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
 public interface JasperTemplateRepository
     extends PagingAndSortingRepository<JasperTemplate, UUID> {
+  String SELECT_METADATA = "SELECT t.id AS id, t.name AS name, t.type AS type,"
+      + " t.description AS description FROM JasperTemplate t";
 
   JasperTemplate findByName(@Param("name") String name);
 
   List<JasperTemplate> findByVisible(boolean visible);
+
+  @Query(SELECT_METADATA + " WHERE t.visible = :visible")
+  List<JasperTemplateMetadata> findMetadataByVisible(@Param("visible") boolean visible);
+
+  @Query(SELECT_METADATA + " WHERE t.id = :id")
+  Optional<JasperTemplateMetadata> findMetadataById(@Param("id") UUID id);
+
+  @Query("SELECT p FROM JasperTemplateParameter p WHERE p.templateId IN :templateIds")
+  List<JasperTemplateParameter> findParametersByTemplateIdIn(
+      @Param("templateIds") Collection<UUID> templateIds);
 }
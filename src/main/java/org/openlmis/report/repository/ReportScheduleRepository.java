@@ -0,0 +1,47 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.repository;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.openlmis.report.domain.ReportSchedule;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface ReportScheduleRepository
+    extends PagingAndSortingRepository<ReportSchedule, UUID> {
+
+  List<ReportSchedule> findByTemplateName(@Param("templateName") String templateName);
+
+  List<ReportSchedule> findByNextRunDateLessThanEqual(@Param("date") ZonedDateTime date);
+
+  /**
+   * Moves the next run of the schedule, but only if it has not been moved by another instance
+   * of the service in the meantime.
+   *
+   * @return number of updated schedules, one if the run has been claimed
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE ReportSchedule s SET s.nextRunDate = :nextRunDate"
+      + " WHERE s.id = :id AND s.nextRunDate = :runDate")
+  int claimRun(@Param("id") UUID id, @Param("runDate") ZonedDateTime runDate,
+      @Param("nextRunDate") ZonedDateTime nextRunDate);
+}
@@ -20,11 +20,15 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.openlmis.report.service.ReportTracer;
+import org.openlmis.report.service.TracingRequestInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -37,6 +41,8 @@ import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.RemoteTokenServices;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 @Configuration
@@ -100,6 +106,7 @@ public class ResourceServerSecurityConfiguration implements ResourceServerConfig
    * @param checkTokenUrl url to check tokens against
    * @param clientId      client's id
    * @param clientSecret  client's secret
+   * @param reportTracer  tracer recording the token checks
    * @return token services
    */
   @Bean
@@ -107,12 +114,32 @@ public class ResourceServerSecurityConfiguration implements ResourceServerConfig
   public RemoteTokenServices remoteTokenServices(
       @Value("${auth.server.url}") String checkTokenUrl,
       @Value("${auth.server.clientId}") String clientId,
-      @Value("${auth.server.clientSecret}") String clientSecret) {
+      @Value("${auth.server.clientSecret}") String clientSecret,
+      ReportTracer reportTracer) {
     final RemoteTokenServices remoteTokenServices = new RemoteTokenServices();
     remoteTokenServices.setCheckTokenEndpointUrl(checkTokenUrl);
     remoteTokenServices.setClientId(clientId);
     remoteTokenServices.setClientSecret(clientSecret);
     remoteTokenServices.setAccessTokenConverter(accessTokenConverter());
+    remoteTokenServices.setRestTemplate(createTokenRestTemplate(reportTracer));
     return remoteTokenServices;
   }
+
+  /**
+   * Same as the default template of {@link RemoteTokenServices}, which lets invalid tokens
+   * (400 Bad Request) through to the token converter, with token checks traced.
+   */
+  private RestTemplate createTokenRestTemplate(ReportTracer reportTracer) {
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+      @Override
+      public void handleError(ClientHttpResponse response) throws IOException {
+        if (response.getRawStatusCode() != HttpStatus.BAD_REQUEST.value()) {
+          super.handleError(response);
+        }
+      }
+    });
+    restTemplate.getInterceptors().add(new TracingRequestInterceptor(reportTracer));
+    return restTemplate;
+  }
 }
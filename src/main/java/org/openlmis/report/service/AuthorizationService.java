@@ -20,6 +20,7 @@ import static org.openlmis.report.utils.RequestHelper.createUri;
 import java.util.Map;
 import org.apache.commons.codec.binary.Base64;
 import org.openlmis.report.utils.RequestParameters;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -71,6 +72,19 @@ public class AuthorizationService {
     return ((Map<String, String>) response.getBody()).get(ACCESS_TOKEN);
   }
 
+  /**
+   * Records token requests in client spans of the given tracer.
+   *
+   * @param reportTracer tracer of report requests
+   */
+  @Autowired
+  public void setReportTracer(ReportTracer reportTracer) {
+    if (restTemplate instanceof RestTemplate) {
+      ((RestTemplate) restTemplate).getInterceptors()
+          .add(new TracingRequestInterceptor(reportTracer));
+    }
+  }
+
   void setRestTemplate(RestOperations restTemplate) {
     this.restTemplate = restTemplate;
   }
@@ -60,6 +60,19 @@ public abstract class BaseCommunicationService<T> {
     this.authorizationService = authorizationService;
   }
 
+  /**
+   * Records calls to the service in client spans of the given tracer.
+   *
+   * @param reportTracer tracer of report requests
+   */
+  @Autowired
+  public void setReportTracer(ReportTracer reportTracer) {
+    if (restTemplate instanceof RestTemplate) {
+      ((RestTemplate) restTemplate).getInterceptors()
+          .add(new TracingRequestInterceptor(reportTracer));
+    }
+  }
+
   /**
    * Return one object from service.
    *
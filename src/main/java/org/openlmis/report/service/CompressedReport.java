@@ -0,0 +1,57 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.springframework.core.io.InputStreamSource;
+
+/**
+ * Report stored compressed with gzip. The report is written decompressed, while its compressed
+ * writer copies the stored data as it is.
+ */
+public class CompressedReport implements ReportWriter {
+  private final InputStreamSource source;
+
+  /**
+   * Creates a writer of the report stored in the given source.
+   *
+   * @param source source of the report compressed with gzip
+   */
+  public CompressedReport(InputStreamSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    try (InputStream inputStream = new GZIPInputStream(source.getInputStream())) {
+      IOUtils.copy(inputStream, outputStream);
+    }
+  }
+
+  @Override
+  public Optional<ReportWriter> getCompressedWriter() {
+    return Optional.of(outputStream -> {
+      try (InputStream inputStream = source.getInputStream()) {
+        IOUtils.copy(inputStream, outputStream);
+      }
+    });
+  }
+}
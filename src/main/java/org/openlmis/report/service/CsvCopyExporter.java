@@ -0,0 +1,204 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Pattern;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JRQuery;
+import net.sf.jasperreports.engine.JRQueryChunk;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.lang3.StringUtils;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes CSV reports straight from the main query of the template with the PostgreSQL COPY
+ * command, without filling the report layout. The rows are streamed by the database into the
+ * output, so the export takes hardly any memory. A template opts in with the
+ * {@value #DATA_ONLY_CSV_PROPERTY} report property; its CSV output then contains the columns of
+ * the query with a header row instead of the text fields of the layout.
+ * COPY can not take bind parameters, so the parameters of the query are rendered as escaped
+ * literals of the connection. Queries with {@code $X{}} clauses, collection or array parameter
+ * values, and parameters whose default value would have to be evaluated, are filled as usual.
+ * The record limit of the report is applied to the query, and a copy that returns more rows
+ * fails like a fill reading more records would.
+ */
+@Component
+public class CsvCopyExporter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CsvCopyExporter.class);
+
+  static final String DATA_ONLY_CSV_PROPERTY = "dataOnlyCsv";
+
+  private static final String SQL_LANGUAGE = "sql";
+  private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+  @Autowired
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Autowired
+  private ReportLimits reportLimits;
+
+  @Value("${reports.csvCopy.enabled}")
+  private boolean enabled;
+
+  /**
+   * Checks whether the report can be exported to CSV with its main query.
+   *
+   * @param report compiled report
+   * @param params report parameters
+   * @return true if the template opted in and its query can be copied
+   */
+  public boolean supports(JasperReport report, Map<String, Object> params) {
+    if (!enabled || report == null
+        || !Boolean.parseBoolean(report.getProperty(DATA_ONLY_CSV_PROPERTY))) {
+      return false;
+    }
+
+    JRQuery query = report.getQuery();
+    if (query == null || query.getChunks() == null
+        || !SQL_LANGUAGE.equalsIgnoreCase(query.getLanguage())) {
+      LOGGER.debug("Report {} has no SQL query to copy", report.getName());
+      return false;
+    }
+
+    for (JRQueryChunk chunk : query.getChunks()) {
+      if (!canCopy(report, params, chunk)) {
+        LOGGER.debug("Query of report {} can not be copied", report.getName());
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the rows of the main query of the report as CSV with a header row into the stream.
+   * The query runs on a read-only reporting connection and is cancelled by the database after
+   * the given timeout.
+   *
+   * @param report       compiled report
+   * @param params       report parameters
+   * @param timeout      maximum duration of the query in seconds, or zero if unlimited
+   * @param outputStream stream the rows are written to
+   * @return number of copied rows
+   * @throws SQLException if the query fails or returns more rows than the record limit
+   * @throws IOException if the rows can not be written
+   */
+  public long copy(JasperReport report, Map<String, Object> params, long timeout,
+      OutputStream outputStream) throws SQLException, IOException {
+    long maxRecords = reportLimits.getMaxRecords(report);
+    long rows;
+    try (ReportConnection connection = reportConnectionFactory.getConnection(report)) {
+      connection.setStatementTimeout(timeout);
+
+      String sql = getCopySql(report, params,
+          connection.unwrap(BaseConnection.class).getStandardConformingStrings(), maxRecords);
+      rows = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, outputStream);
+    }
+
+    if (maxRecords > 0 && rows > maxRecords) {
+      throw new SQLException("Report copy exceeds the limit of " + maxRecords + " records");
+    }
+    return rows;
+  }
+
+  /**
+   * The query is limited to one row above the record limit, so that exceeding the limit can be
+   * told apart from reaching it.
+   */
+  String getCopySql(JasperReport report, Map<String, Object> params,
+      boolean standardConformingStrings, long maxRecords) throws SQLException {
+    StringBuilder query = new StringBuilder();
+    for (JRQueryChunk chunk : report.getQuery().getChunks()) {
+      if (chunk.getType() == JRQueryChunk.TYPE_TEXT) {
+        query.append(chunk.getText());
+      } else if (chunk.getType() == JRQueryChunk.TYPE_PARAMETER_CLAUSE) {
+        query.append(params.get(chunk.getText()));
+      } else {
+        query.append(toLiteral(params.get(chunk.getText()), standardConformingStrings));
+      }
+    }
+
+    String sql = StringUtils.removeEnd(query.toString().trim(), ";");
+    if (maxRecords > 0) {
+      sql = "SELECT * FROM (" + sql + ") AS data LIMIT " + (maxRecords + 1);
+    }
+    return "COPY (" + sql + ") TO STDOUT WITH CSV HEADER";
+  }
+
+  private String toLiteral(Object value, boolean standardConformingStrings)
+      throws SQLException {
+    if (value == null) {
+      return "NULL";
+    }
+    if (value instanceof Boolean) {
+      return value.toString().toUpperCase();
+    }
+    if (value instanceof Number && NUMBER.matcher(value.toString()).matches()) {
+      return value.toString();
+    }
+
+    String text = value instanceof Date && !(value instanceof java.sql.Date)
+        ? new Timestamp(((Date) value).getTime()).toString()
+        : value.toString();
+
+    StringBuilder literal = new StringBuilder(standardConformingStrings ? "'" : "E'");
+    Utils.escapeLiteral(literal, text, standardConformingStrings);
+    return literal.append('\'').toString();
+  }
+
+  private boolean canCopy(JasperReport report, Map<String, Object> params, JRQueryChunk chunk) {
+    if (chunk.getType() == JRQueryChunk.TYPE_TEXT) {
+      return true;
+    }
+    if (chunk.getType() == JRQueryChunk.TYPE_CLAUSE_TOKENS) {
+      return false;
+    }
+    if (!params.containsKey(chunk.getText())) {
+      return !hasDefaultValue(report, chunk.getText());
+    }
+    return chunk.getType() != JRQueryChunk.TYPE_PARAMETER
+        || !isMultiValued(params.get(chunk.getText()));
+  }
+
+  private boolean isMultiValued(Object value) {
+    return value instanceof Collection || value != null && value.getClass().isArray();
+  }
+
+  private boolean hasDefaultValue(JasperReport report, String name) {
+    if (report.getParameters() != null) {
+      for (JRParameter parameter : report.getParameters()) {
+        if (name.equals(parameter.getName())) {
+          return parameter.getDefaultValueExpression() != null;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import lombok.Getter;
+
+/**
+ * Duration of a report fill together with the statements it has executed.
+ */
+@Getter
+public final class FillProfile {
+  private final String templateName;
+  private final ZonedDateTime startDate;
+  private final long durationMillis;
+  private final int pages;
+  private final boolean completed;
+  private final List<QueryProfile> queries;
+
+  FillProfile(String templateName, ZonedDateTime startDate, long durationMillis, int pages,
+      boolean completed, List<QueryProfile> queries) {
+    this.templateName = templateName;
+    this.startDate = startDate;
+    this.durationMillis = durationMillis;
+    this.pages = pages;
+    this.completed = completed;
+    this.queries = queries;
+  }
+
+  /**
+   * Returns the number of rows read by all statements.
+   *
+   * @return number of rows
+   */
+  public long getRows() {
+    return queries.stream().mapToLong(QueryProfile::getRows).sum();
+  }
+
+  /**
+   * Returns the time spent executing the statements, without fetching their rows.
+   *
+   * @return execution time in milliseconds
+   */
+  public double getExecutionMillis() {
+    return queries.stream().mapToDouble(QueryProfile::getExecutionMillis).sum();
+  }
+
+  /**
+   * Returns the time spent fetching rows of the statements.
+   *
+   * @return fetch time in milliseconds
+   */
+  public double getFetchMillis() {
+    return queries.stream().mapToDouble(QueryProfile::getFetchMillis).sum();
+  }
+}
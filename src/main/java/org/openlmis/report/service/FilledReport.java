@@ -0,0 +1,56 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.Getter;
+import net.sf.jasperreports.engine.JRVirtualizer;
+import net.sf.jasperreports.engine.JasperPrint;
+
+/**
+ * Filled report together with the virtualizer holding its pages and the profile of its fill.
+ * It has to be closed once the report is exported, so that virtualized pages are removed.
+ * Closing it more than once has no effect.
+ */
+public class FilledReport implements AutoCloseable {
+
+  @Getter
+  private final JasperPrint jasperPrint;
+
+  @Getter
+  private final FillProfile fillProfile;
+
+  private final JRVirtualizer virtualizer;
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  FilledReport(JasperPrint jasperPrint, JRVirtualizer virtualizer) {
+    this(jasperPrint, virtualizer, null);
+  }
+
+  FilledReport(JasperPrint jasperPrint, JRVirtualizer virtualizer, FillProfile fillProfile) {
+    this.jasperPrint = jasperPrint;
+    this.virtualizer = virtualizer;
+    this.fillProfile = fillProfile;
+  }
+
+  @Override
+  public void close() {
+    if (virtualizer != null && closed.compareAndSet(false, true)) {
+      virtualizer.cleanup();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.OutputStream;
+import java.util.List;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.export.JRPdfExporter;
+import net.sf.jasperreports.export.SimpleExporterInput;
+import net.sf.jasperreports.export.SimpleOutputStreamExporterOutput;
+
+/**
+ * Exports several filled reports as a single PDF document, with the same settings as the export
+ * of a single report. Images deduplicated by the exporter are shared by all of the reports.
+ */
+public class JasperBatchPdfExporter implements JasperExporter {
+
+  private final List<JasperPrint> jasperPrints;
+  private final PdfExportProfile profile;
+
+  JasperBatchPdfExporter(List<JasperPrint> jasperPrints, PdfExportProfile profile) {
+    this.jasperPrints = jasperPrints;
+    this.profile = profile;
+  }
+
+  @Override
+  public void exportReport(OutputStream outputStream) throws JRException {
+    JRPdfExporter exporter = JasperPdfExporter.createExporter(profile);
+    exporter.setExporterInput(SimpleExporterInput.getInstance(jasperPrints));
+    exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(outputStream));
+    exporter.exportReport();
+  }
+}
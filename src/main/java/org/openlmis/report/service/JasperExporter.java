@@ -15,9 +15,15 @@
 
 package org.openlmis.report.service;
 
+import java.io.OutputStream;
 import net.sf.jasperreports.engine.JRException;
 
 public interface JasperExporter {
 
-  byte[] exportReport() throws JRException;
+  /**
+   * Writes the report to the given stream. The stream is not closed.
+   *
+   * @param outputStream stream the report is written to
+   */
+  void exportReport(OutputStream outputStream) throws JRException;
 }
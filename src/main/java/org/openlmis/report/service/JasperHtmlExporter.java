@@ -15,28 +15,63 @@
 
 package org.openlmis.report.service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.export.HtmlExporter;
+import net.sf.jasperreports.engine.export.HtmlResourceHandler;
 import net.sf.jasperreports.export.SimpleExporterInput;
 import net.sf.jasperreports.export.SimpleHtmlExporterOutput;
+import net.sf.jasperreports.export.SimpleHtmlReportConfiguration;
 
 public class JasperHtmlExporter implements JasperExporter {
 
   private JasperPrint jasperPrint;
+  private ReportImageStore imageStore;
 
-  JasperHtmlExporter(JasperPrint jasperPrint) {
+  JasperHtmlExporter(JasperPrint jasperPrint, ReportImageStore imageStore) {
     this.jasperPrint = jasperPrint;
+    this.imageStore = imageStore;
   }
 
   @Override
-  public byte[] exportReport() throws JRException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+  public void exportReport(OutputStream outputStream) throws JRException {
     HtmlExporter exporter = new HtmlExporter();
     exporter.setExporterInput(new SimpleExporterInput(jasperPrint));
-    exporter.setExporterOutput(new SimpleHtmlExporterOutput(baos));
+    SimpleHtmlExporterOutput output = new SimpleHtmlExporterOutput(outputStream);
+
+    if (imageStore != null && imageStore.isEnabled()) {
+      SimpleHtmlReportConfiguration configuration = new SimpleHtmlReportConfiguration();
+      configuration.setEmbedImage(false);
+      exporter.setConfiguration(configuration);
+      output.setImageHandler(new StoredImageHandler(imageStore));
+    }
+
+    exporter.setExporterOutput(output);
     exporter.exportReport();
-    return baos.toByteArray();
+  }
+
+  /**
+   * Keeps the images of the report in the image store and refers to them by their URL.
+   */
+  private static final class StoredImageHandler implements HtmlResourceHandler {
+    private final Map<String, String> paths = new HashMap<>();
+    private final ReportImageStore imageStore;
+
+    StoredImageHandler(ReportImageStore imageStore) {
+      this.imageStore = imageStore;
+    }
+
+    @Override
+    public void handleResource(String id, byte[] data) {
+      paths.put(id, imageStore.getUrl(imageStore.put(data)));
+    }
+
+    @Override
+    public String getResourcePath(String id) {
+      return paths.get(id);
+    }
   }
 }
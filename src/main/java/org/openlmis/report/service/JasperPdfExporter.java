@@ -15,20 +15,117 @@
 
 package org.openlmis.report.service;
 
+import com.lowagie.text.DocumentException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import net.sf.jasperreports.engine.JRException;
-import net.sf.jasperreports.engine.JasperExportManager;
+import net.sf.jasperreports.engine.JRPrintImage;
 import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.export.JRPdfExporter;
+import net.sf.jasperreports.export.SimpleExporterInput;
+import net.sf.jasperreports.export.SimpleOutputStreamExporterOutput;
+import net.sf.jasperreports.export.SimplePdfExporterConfiguration;
+import net.sf.jasperreports.renderers.DataRenderable;
+import net.sf.jasperreports.renderers.Renderable;
 
 public class JasperPdfExporter implements JasperExporter {
 
   private final JasperPrint jasperPrint;
+  private final PdfExportProfile profile;
 
-  JasperPdfExporter(JasperPrint jasperPrint) {
+  JasperPdfExporter(JasperPrint jasperPrint, PdfExportProfile profile) {
     this.jasperPrint = jasperPrint;
+    this.profile = profile;
   }
 
   @Override
-  public byte[] exportReport() throws JRException {
-    return JasperExportManager.exportReportToPdf(jasperPrint);
+  public void exportReport(OutputStream outputStream) throws JRException {
+    JRPdfExporter exporter = createExporter(profile);
+    exporter.setExporterInput(new SimpleExporterInput(jasperPrint));
+    exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(outputStream));
+    exporter.exportReport();
+  }
+
+  /**
+   * Creates a PDF exporter configured with the given profile, without input and output.
+   */
+  static JRPdfExporter createExporter(PdfExportProfile profile) {
+    JRPdfExporter exporter = profile.isDeduplicatingImages()
+        ? new ImageDeduplicatingPdfExporter()
+        : new JRPdfExporter();
+
+    SimplePdfExporterConfiguration configuration = new SimplePdfExporterConfiguration();
+    configuration.setCompressed(profile.isCompressed());
+    exporter.setConfiguration(configuration);
+    return exporter;
+  }
+
+  /**
+   * Embeds images with the same data once. Images filled from report image parameters get a new
+   * renderer on every page, so the exporter would embed them again on each page. Here they are
+   * replaced by the first renderer with the same data, which the exporter keeps by its ID.
+   */
+  static class ImageDeduplicatingPdfExporter extends JRPdfExporter {
+    private final Map<ImageKey, Renderable> renderers = new HashMap<>();
+
+    @Override
+    public void exportImage(JRPrintImage printImage)
+        throws DocumentException, IOException, JRException {
+      Renderable renderer = printImage.getRenderer();
+      if (!(renderer instanceof DataRenderable)) {
+        super.exportImage(printImage);
+        return;
+      }
+
+      byte[] data = ((DataRenderable) renderer).getData(getJasperReportsContext());
+      Renderable shared = renderers.computeIfAbsent(new ImageKey(data), key -> renderer);
+      super.exportImage(withSharedRenderer(printImage, shared));
+    }
+
+    private static JRPrintImage withSharedRenderer(JRPrintImage printImage,
+        Renderable renderer) {
+      return (JRPrintImage) Proxy.newProxyInstance(JRPrintImage.class.getClassLoader(),
+          new Class<?>[] { JRPrintImage.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getRenderer":
+                return renderer;
+              case "isUsingCache":
+                return true;
+              case "getUsingCache":
+                return Boolean.TRUE;
+              default:
+                try {
+                  return method.invoke(printImage, args);
+                } catch (InvocationTargetException ex) {
+                  throw ex.getCause();
+                }
+            }
+          });
+    }
+  }
+
+  private static final class ImageKey {
+    private final byte[] data;
+    private final int hash;
+
+    ImageKey(byte[] data) {
+      this.data = data;
+      this.hash = Arrays.hashCode(data);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ImageKey && Arrays.equals(data, ((ImageKey) obj).data);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 }
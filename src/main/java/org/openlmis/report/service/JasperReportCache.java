@@ -0,0 +1,132 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.util.UUID;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openlmis.report.domain.JasperTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps deserialized {@link JasperReport} instances, so that concurrent fills of the same
+ * template share one compiled report instead of reading the template data every time.
+ * Entries are keyed by template ID and the digest of the template data stored when the template
+ * is saved, so a re-uploaded template never returns a stale report.
+ */
+@Component
+public class JasperReportCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(JasperReportCache.class);
+
+  private final Cache<TemplateKey, JasperReport> reports;
+  private final ReportMetrics reportMetrics;
+
+  /**
+   * Creates a cache that keeps at most the given number of compiled reports.
+   *
+   * @param maxSize       maximum number of cached reports
+   * @param reportMetrics metrics recording the time of deserialization
+   */
+  @Autowired
+  public JasperReportCache(@Value("${reports.templateCache.maxSize}") long maxSize,
+      ReportMetrics reportMetrics) {
+    this.reports = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .build();
+    this.reportMetrics = reportMetrics;
+  }
+
+  /**
+   * Returns the compiled report of the given template. The report is deserialized from the
+   * template data only if it has not been cached yet. Templates without ID are not cached.
+   *
+   * @param template template with compiled report data
+   * @return compiled report
+   */
+  public JasperReport getReport(JasperTemplate template) {
+    if (template.getId() == null) {
+      return readReport(template);
+    }
+
+    return reports.get(TemplateKey.of(template), key -> readReport(template));
+  }
+
+  /**
+   * Removes all versions of the given template from the cache.
+   *
+   * @param templateId ID of the changed or removed template
+   */
+  public void evict(UUID templateId) {
+    if (templateId != null) {
+      LOGGER.debug("Evicting compiled report of template with id: {}", templateId);
+      reports.asMap().keySet().removeIf(key -> templateId.equals(key.getTemplateId()));
+    }
+  }
+
+  long size() {
+    reports.cleanUp();
+    return reports.estimatedSize();
+  }
+
+  private JasperReport readReport(JasperTemplate template) {
+    long start = System.nanoTime();
+    try (ObjectInputStream inputStream =
+        new ObjectInputStream(new ByteArrayInputStream(template.getData()))) {
+      JasperReport report = (JasperReport) inputStream.readObject();
+      reportMetrics.templateDeserialized(template.getName(), System.nanoTime() - start);
+      return report;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } catch (ClassNotFoundException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @Getter
+  @EqualsAndHashCode
+  static final class TemplateKey {
+    private final UUID templateId;
+    private final String dataDigest;
+
+    private TemplateKey(UUID templateId, String dataDigest) {
+      this.templateId = templateId;
+      this.dataDigest = dataDigest;
+    }
+
+    /**
+     * The digest is computed from the data only for templates that do not have it yet.
+     */
+    static TemplateKey of(JasperTemplate template) {
+      String dataDigest = template.getDataDigest();
+      if (dataDigest == null && template.getData() != null) {
+        dataDigest = DigestUtils.sha256Hex(template.getData());
+      }
+      return new TemplateKey(template.getId(), dataDigest);
+    }
+  }
+}
@@ -17,30 +17,105 @@ package org.openlmis.report.service;
 
 import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FORMAT_UNKNOWN;
 import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_GENERATION;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_OUTPUT;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-import java.sql.Connection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import javax.sql.DataSource;
+import java.util.Optional;
+import java.util.UUID;
 import net.sf.jasperreports.engine.JRException;
-import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JRRuntimeException;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRAbstractLRUVirtualizer;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.OutputLimitExceededException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportFillLimiter.FillPermit;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.openlmis.report.service.ReportPrintCache.CachedPrint;
+import org.openlmis.report.service.ReportResultCache.CachingOutputStream;
+import org.openlmis.report.service.ReportResultCache.ResultKey;
+import org.openlmis.report.utils.ReportFormatHelper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
 @Service
 public class JasperReportsViewService {
+  private static final String FORMAT_PARAMETER = "format";
+  private static final String PAGE_RANGE_KEY = "pageRange";
+  private static final String CSV_FORMAT = "csv";
+  private static final List<String> EXPORT_FORMATS =
+      Arrays.asList("pdf", CSV_FORMAT, "xls", "xlsx", "html");
 
   @Autowired
-  private DataSource replicationDataSource;
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Autowired
+  private JasperReportCache jasperReportCache;
+
+  @Autowired
+  private ReportVirtualizerFactory reportVirtualizerFactory;
+
+  @Autowired
+  private ReportResultCache reportResultCache;
+
+  @Autowired
+  private ReportPrintCache reportPrintCache;
+
+  @Autowired
+  private ReportFillLimiter reportFillLimiter;
+
+  @Autowired
+  private ReportFiller reportFiller;
+
+  @Autowired
+  private PartitionedReportFiller partitionedReportFiller;
+
+  @Autowired
+  private ReportMetrics reportMetrics;
+
+  @Autowired
+  private ReportFillProfiler reportFillProfiler;
+
+  @Autowired
+  private ReportTracer reportTracer;
+
+  @Autowired
+  private ReportLimits reportLimits;
+
+  @Autowired
+  private CsvCopyExporter csvCopyExporter;
+
+  @Autowired
+  private JsonDataExporter jsonDataExporter;
+
+  @Autowired
+  private PdfExportProfile pdfExportProfile;
+
+  @Autowired
+  private ReportImageStore reportImageStore;
+
+  @Value("${reports.xlsx.rowWindow}")
+  private int xlsxRowWindow;
 
   /**
    * Create Jasper Report View.
-   * Create Jasper Report (".jasper" file) from bytes from Template entity.
+   * Get Jasper Report (".jasper" file) compiled from bytes from Template entity (cached).
    * Set 'Jasper' exporter parameters, JDBC data source, web application context, url to file.
    *
    * @param jasperTemplate template that will be used to create a view
@@ -50,42 +125,457 @@ public class JasperReportsViewService {
    */
   public byte[] getJasperReportsView(JasperTemplate jasperTemplate,
       Map<String, Object> params) throws JasperReportViewException {
+    try (PreparedReport writer = prepareReport(jasperTemplate, params)) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      writer.writeTo(outputStream);
+      return outputStream.toByteArray();
+    } catch (OutputLimitExceededException e) {
+      throw new JasperReportViewException(e, ERROR_JASPER_REPORT_LIMIT_OUTPUT,
+          String.valueOf(e.getLimit()));
+    } catch (IOException e) {
+      throw new JasperReportViewException(e, ERROR_JASPER_REPORT_GENERATION);
+    }
+  }
+
+  /**
+   * Prepare the report, so that it can be written to an output stream. Reports found in the
+   * result cache are returned without a fill, and reports filled recently with the same
+   * parameters are only exported to the requested format. Otherwise the report is filled, the
+   * fill is cached, and the report is cached once the returned writer exports it completely.
+   * CSV reports of templates with the data-only mode are copied from the database by the
+   * returned writer instead of being filled, and JSON reports are written from the rows of the
+   * main query. The returned report has to be closed if it is not written.
+   *
+   * @param jasperTemplate template that will be used to create a view
+   * @param params  map of parameters, including the format
+   * @return writer of the report.
+   * @throws JasperReportViewException if there will be any problem with filling the report.
+   */
+  public PreparedReport prepareReport(JasperTemplate jasperTemplate,
+      Map<String, Object> params) throws JasperReportViewException {
+    return prepareReport(jasperTemplate, params, null);
+  }
+
+  /**
+   * Prepare the given pages of the report, so that they can be written to an output stream.
+   * The fill stops once the last page of the range is filled. Page ranges are cached separately
+   * from the whole report.
+   *
+   * @param jasperTemplate template that will be used to create a view
+   * @param params  map of parameters, including the format
+   * @param pageRange pages to generate, or null to generate the whole report
+   * @return writer of the report.
+   * @throws JasperReportViewException if there will be any problem with filling the report.
+   */
+  public PreparedReport prepareReport(JasperTemplate jasperTemplate,
+      Map<String, Object> params, PageRange pageRange) throws JasperReportViewException {
+    JasperReport report = getReport(jasperTemplate);
+    Locale locale = LocaleContextHolder.getLocale();
+    Map<String, Object> keyParams = params;
+    if (pageRange != null) {
+      keyParams = new HashMap<>(params);
+      keyParams.put(PAGE_RANGE_KEY, pageRange);
+    }
+    ResultKey printKey =
+        ResultKey.of(jasperTemplate, getPrintParameters(report, keyParams), locale);
+
+    long timeToLive = reportResultCache.getTimeToLive(report);
+    ResultKey resultKey = null;
+
+    if (timeToLive > 0) {
+      resultKey = ResultKey.of(jasperTemplate, keyParams, locale);
+      Optional<ReportWriter> cached = reportResultCache.get(resultKey);
+      if (cached.isPresent()) {
+        return new PreparedReport(reportPrintCache.findFillId(printKey).orElse(null),
+            cached.get());
+      }
+    }
+
+    String format = (String) params.get(FORMAT_PARAMETER);
+    DataExport dataExport = getDataExport(report, params, format, pageRange);
+    if (dataExport != null) {
+      return getDataReport(jasperTemplate, report, format, resultKey, timeToLive, dataExport);
+    }
+
+    Optional<CachedPrint> cachedPrint = reportPrintCache.get(printKey);
+    FilledReport filledReport;
+    UUID fillId;
+
+    if (cachedPrint.isPresent()) {
+      filledReport = new FilledReport(cachedPrint.get().getJasperPrint(), null);
+      fillId = cachedPrint.get().getFillId();
+    } else {
+      filledReport = fillReport(jasperTemplate, params, pageRange);
+      try {
+        fillId = pageRange == null && reportPrintCache.isEnabled(report)
+            ? reportPrintCache
+                .put(printKey, jasperTemplate.getName(), filledReport.getJasperPrint())
+                .orElse(null)
+            : null;
+      } catch (RuntimeException ex) {
+        filledReport.close();
+        throw ex;
+      }
+    }
+
+    JasperExporter exporter = getJasperExporter(filledReport, format);
+    return new PreparedReport(fillId, getReportWriter(filledReport, exporter,
+        jasperTemplate.getName(), format, resultKey, timeToLive), filledReport.getFillProfile(),
+        filledReport::close);
+  }
+
+  /**
+   * Get a recently filled report from the cache.
+   *
+   * @param fillId ID of the fill returned with the report
+   * @return the filled report, or empty if it is no longer cached.
+   */
+  public Optional<CachedPrint> getCachedFill(UUID fillId) {
+    return reportPrintCache.get(fillId);
+  }
+
+  /**
+   * Prepare a recently filled report, so that it can be written in the given format to
+   * an output stream without filling it again.
+   *
+   * @param cachedPrint filled report from the cache
+   * @param format      report format
+   * @return writer of the report.
+   * @throws JasperReportViewException if the format is not supported.
+   */
+  public PreparedReport prepareCachedFill(CachedPrint cachedPrint, String format)
+      throws JasperReportViewException {
+    FilledReport filledReport = new FilledReport(cachedPrint.getJasperPrint(), null);
+    JasperExporter exporter = getJasperExporter(filledReport, format);
+    return new PreparedReport(cachedPrint.getFillId(), getReportWriter(filledReport, exporter,
+        cachedPrint.getTemplateName(), format, null, 0), null, filledReport::close);
+  }
+
+  /**
+   * Fill the compiled report of the template with data from the replication data source.
+   * The data is read through a read-only connection which streams large result sets. Pages
+   * above the limit of the virtualizer are moved out of memory during the fill. The fill waits
+   * for its turn if too many reports are being filled at the same time, and it is cancelled if
+   * it takes too long or the calling thread is interrupted.
+   * Partitioned reports are filled in parallel, one fill per partition. If SQL capture is
+   * enabled, the statements executed by the fill are recorded in its profile. The fill is
+   * stopped once it exceeds the record or page limit of the report, and the output limit of
+   * the report is kept with the filled report.
+   *
+   * @param jasperTemplate template that will be used to create a view
+   * @param params  map of parameters
+   * @return filled report, ready to be exported. It has to be closed after the export.
+   * @throws JasperReportViewException if there will be any problem with filling the report.
+   * @throws TooManyRequestsMessageException if the fill can not start in time.
+   */
+  public FilledReport fillReport(JasperTemplate jasperTemplate,
+      Map<String, Object> params) throws JasperReportViewException {
+    return fillReport(jasperTemplate, params, null);
+  }
+
+  /**
+   * Fill the given pages of the compiled report of the template. The fill stops once the last
+   * page of the range is filled, and the filled report contains only the pages of the range.
+   *
+   * @param jasperTemplate template that will be used to create a view
+   * @param params  map of parameters
+   * @param pageRange pages to fill, or null to fill the whole report
+   * @return filled report, ready to be exported. It has to be closed after the export.
+   * @throws JasperReportViewException if there will be any problem with filling the report.
+   * @throws TooManyRequestsMessageException if the fill can not start in time.
+   */
+  public FilledReport fillReport(JasperTemplate jasperTemplate, Map<String, Object> params,
+      PageRange pageRange) throws JasperReportViewException {
+    JasperReport report = getReport(jasperTemplate);
+    String format = (String) params.get(FORMAT_PARAMETER);
+    JRAbstractLRUVirtualizer virtualizer = null;
+    ReportQueryLog queryLog = null;
+    Long start = null;
+    FillPermit permit = null;
+    Span span = reportTracer.startSpan("report.fill")
+        .setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, jasperTemplate.getName())
+        .setAttribute(ReportTracer.FORMAT_ATTRIBUTE, format);
 
     try {
-      try (Connection connection = replicationDataSource.getConnection()) {
-        ObjectInputStream inputStream = new ObjectInputStream(
-            new ByteArrayInputStream(jasperTemplate.getData()));
+      permit = reportFillLimiter.acquire(jasperTemplate.getId(), report);
+      virtualizer = reportVirtualizerFactory.createVirtualizer(report);
 
-        JasperPrint jasperPrint = JasperFillManager
-            .fillReport((JasperReport) inputStream.readObject(), params, connection);
+      Map<String, Object> fillParams = new HashMap<>(params);
+      if (virtualizer != null) {
+        fillParams.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+      }
 
-        return prepareReport(jasperPrint, params);
+      queryLog = reportFillProfiler.createQueryLog();
+      FillLimits fillLimits = reportLimits.getFillLimits(report);
+      reportMetrics.fillStarted();
+      start = System.nanoTime();
+      JasperPrint jasperPrint =
+          fill(jasperTemplate.getName(), report, fillParams, pageRange, queryLog, fillLimits);
+      reportLimits.copyOutputLimit(report, jasperPrint);
+      FillProfile profile = recordFill(jasperTemplate, format, start,
+          jasperPrint.getPages().size(), true, queryLog);
+      span.setAttribute("report.pages", jasperPrint.getPages().size());
+
+      if (virtualizer != null) {
+        virtualizer.setReadOnly(true);
       }
-    } catch (IllegalArgumentException iae) {
-      throw new JasperReportViewException(iae,
-          ERROR_JASPER_REPORT_FORMAT_UNKNOWN, iae.getMessage());
+      return new FilledReport(jasperPrint, virtualizer, profile);
+    } catch (TooManyRequestsMessageException e) {
+      span.setError(e);
+      throw e;
+    } catch (JasperReportViewException e) {
+      cleanup(virtualizer);
+      recordFill(jasperTemplate, format, start, 0, false, queryLog);
+      span.setError(e);
+      throw e;
     } catch (Exception e) {
+      cleanup(virtualizer);
+      recordFill(jasperTemplate, format, start, 0, false, queryLog);
+      span.setError(e);
       throw new JasperReportViewException(e, ERROR_JASPER_REPORT_GENERATION);
+    } finally {
+      if (permit != null) {
+        permit.close();
+      }
+      span.close();
     }
   }
 
-  private byte[] prepareReport(JasperPrint jasperPrint, Map<String, Object> params)
-      throws JRException {
-    return getJasperExporter((String) params.get("format"), jasperPrint).exportReport();
+  /**
+   * Checks whether filled reports can be exported in the given format. Data-only formats which
+   * are written without a fill are not included.
+   *
+   * @param format report format
+   * @return true if {@link #getJasperExporter(JasperPrint, String)} supports the format
+   */
+  public static boolean isExportFormat(String format) {
+    return EXPORT_FORMATS.contains(format);
+  }
+
+  /**
+   * Get exporter that writes the filled report in the given format to an output stream.
+   * The filled report is closed if the format is not supported.
+   *
+   * @param filledReport filled report
+   * @param format       report format
+   * @return exporter of the given format.
+   * @throws JasperReportViewException if the format is not supported.
+   */
+  public JasperExporter getJasperExporter(FilledReport filledReport, String format)
+      throws JasperReportViewException {
+    try {
+      return getJasperExporter(filledReport.getJasperPrint(), format);
+    } catch (JasperReportViewException ex) {
+      filledReport.close();
+      throw ex;
+    }
   }
 
-  private JasperExporter getJasperExporter(String format, JasperPrint jasperPrint) {
-    switch (format) {
+  /**
+   * Get exporter that writes the filled report in the given format to an output stream.
+   *
+   * @param jasperPrint filled report
+   * @param format      report format
+   * @return exporter of the given format.
+   * @throws JasperReportViewException if the format is not supported.
+   */
+  public JasperExporter getJasperExporter(JasperPrint jasperPrint, String format)
+      throws JasperReportViewException {
+    switch (String.valueOf(format)) {
       case "pdf":
-        return new JasperPdfExporter(jasperPrint);
-      case "csv":
+        return new JasperPdfExporter(jasperPrint, pdfExportProfile);
+      case CSV_FORMAT:
         return new JasperCsvExporter(jasperPrint);
       case "xls":
         return new JasperXlsExporter(jasperPrint);
+      case "xlsx":
+        return new JasperXlsxExporter(jasperPrint, xlsxRowWindow);
       case "html":
-        return new JasperHtmlExporter(jasperPrint);
+        return new JasperHtmlExporter(jasperPrint, reportImageStore);
       default:
-        throw new IllegalArgumentException(format);
+        throw new JasperReportViewException(new IllegalArgumentException(format),
+            ERROR_JASPER_REPORT_FORMAT_UNKNOWN, format);
     }
   }
+
+  private JasperReport getReport(JasperTemplate jasperTemplate)
+      throws JasperReportViewException {
+    try {
+      return jasperReportCache.getReport(jasperTemplate);
+    } catch (RuntimeException e) {
+      throw new JasperReportViewException(e, ERROR_JASPER_REPORT_GENERATION);
+    }
+  }
+
+  private JasperPrint fill(String templateName, JasperReport report, Map<String, Object> params,
+      PageRange pageRange, ReportQueryLog queryLog, FillLimits fillLimits)
+      throws JRException, JasperReportViewException, SQLException {
+    if (partitionedReportFiller.isPartitioned(report)) {
+      return partitionedReportFiller.fill(templateName, report, params, pageRange, queryLog,
+          fillLimits);
+    }
+
+    try (ReportConnection connection =
+        reportConnectionFactory.getConnection(report, queryLog, fillLimits)) {
+      return reportFiller.fill(templateName, report, params, connection, pageRange, fillLimits);
+    }
+  }
+
+  private FillProfile recordFill(JasperTemplate jasperTemplate, String format, Long start,
+      int pages, boolean completed, ReportQueryLog queryLog) {
+    if (start == null) {
+      return null;
+    }
+
+    long duration = System.nanoTime() - start;
+    reportMetrics.fillFinished(jasperTemplate.getName(), format, duration, pages, completed);
+    return reportFillProfiler.record(jasperTemplate.getName(), duration, pages, completed,
+        queryLog);
+  }
+
+  private void cleanup(JRAbstractLRUVirtualizer virtualizer) {
+    if (virtualizer != null) {
+      virtualizer.cleanup();
+    }
+  }
+
+  private ReportWriter getReportWriter(FilledReport filledReport, JasperExporter exporter,
+      String templateName, String format, ResultKey resultKey, long timeToLive) {
+    Span parent = reportTracer.getCurrentSpan();
+    long maxBytes = reportLimits.getMaxOutputBytes(filledReport.getJasperPrint());
+    return outputStream -> {
+      long start = System.nanoTime();
+      CountingOutputStream countingStream = reportLimits.limitOutput(outputStream, maxBytes);
+      Span span = reportTracer.startSpan("report.export", parent)
+          .setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, templateName)
+          .setAttribute(ReportTracer.FORMAT_ATTRIBUTE, format);
+      try {
+        if (resultKey == null) {
+          exporter.exportReport(countingStream);
+        } else {
+          CachingOutputStream cachingStream =
+              reportResultCache.cache(resultKey, timeToLive,
+              countingStream, ReportFormatHelper.isCompressible(format));
+          exporter.exportReport(cachingStream);
+          cachingStream.complete();
+        }
+        reportMetrics.exportFinished(templateName, format, System.nanoTime() - start,
+            countingStream.getByteCount());
+        span.setAttribute("report.bytes", countingStream.getByteCount());
+      } catch (JRException | JRRuntimeException ex) {
+        span.setError(ex);
+        int limitIndex = ExceptionUtils.indexOfType(ex, OutputLimitExceededException.class);
+        if (limitIndex >= 0) {
+          throw (OutputLimitExceededException) ExceptionUtils.getThrowableList(ex)
+              .get(limitIndex);
+        }
+        if (ExceptionUtils.indexOfType(ex, IOException.class) >= 0) {
+          reportMetrics.exportAborted(templateName, format);
+        }
+        throw new IOException(ex);
+      } finally {
+        filledReport.close();
+        span.close();
+      }
+    };
+  }
+
+  /**
+   * Returns the export of JSON reports, and of CSV reports which can be copied from the database,
+   * or null if the report has to be filled.
+   */
+  private DataExport getDataExport(JasperReport report, Map<String, Object> params,
+      String format, PageRange pageRange) throws JasperReportViewException {
+    if (JsonDataExporter.isDataFormat(format)) {
+      jsonDataExporter.validate(report, params, format);
+      return outputStream -> jsonDataExporter.export(report, params, format,
+          reportFiller.getTimeout(report), outputStream);
+    }
+    if (CSV_FORMAT.equals(format) && pageRange == null
+        && csvCopyExporter.supports(report, params)) {
+      return outputStream -> csvCopyExporter.copy(report, params,
+          reportFiller.getTimeout(report), outputStream);
+    }
+    return null;
+  }
+
+  /**
+   * The fill permit is acquired before the report is returned, so that a saturated limiter is
+   * reported before the response is committed. The permit is released once the data is written,
+   * or when the report is closed without being written.
+   */
+  private PreparedReport getDataReport(JasperTemplate jasperTemplate, JasperReport report,
+      String format, ResultKey resultKey, long timeToLive, DataExport dataExport) {
+    FillPermit permit = reportFillLimiter.acquire(jasperTemplate.getId(), report);
+    return new PreparedReport(null, getDataWriter(jasperTemplate, report, format, resultKey,
+        timeToLive, dataExport), null, permit::close);
+  }
+
+  private ReportWriter getDataWriter(JasperTemplate jasperTemplate, JasperReport report,
+      String format, ResultKey resultKey, long timeToLive, DataExport dataExport) {
+    Span parent = reportTracer.getCurrentSpan();
+    String templateName = jasperTemplate.getName();
+    long maxBytes = reportLimits.getMaxOutputBytes(report);
+    return outputStream -> {
+      long start = System.nanoTime();
+      CountingOutputStream countingStream = reportLimits.limitOutput(outputStream, maxBytes);
+      Span span = reportTracer.startSpan("report.data", parent)
+          .setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, templateName)
+          .setAttribute(ReportTracer.FORMAT_ATTRIBUTE, format);
+      try {
+        long rows;
+        if (resultKey == null) {
+          rows = dataExport.export(countingStream);
+        } else {
+          CachingOutputStream cachingStream =
+              reportResultCache.cache(resultKey, timeToLive,
+              countingStream, ReportFormatHelper.isCompressible(format));
+          rows = dataExport.export(cachingStream);
+          cachingStream.complete();
+        }
+        reportMetrics.exportFinished(templateName, format, System.nanoTime() - start,
+            countingStream.getByteCount());
+        span.setAttribute("report.rows", rows);
+        span.setAttribute("report.bytes", countingStream.getByteCount());
+      } catch (SQLException | JRException ex) {
+        span.setError(ex);
+        int limitIndex = ExceptionUtils.indexOfType(ex, OutputLimitExceededException.class);
+        if (limitIndex >= 0) {
+          throw (OutputLimitExceededException) ExceptionUtils.getThrowableList(ex)
+              .get(limitIndex);
+        }
+        throw new IOException(ex);
+      } catch (IOException | RuntimeException ex) {
+        span.setError(ex);
+        throw ex;
+      } finally {
+        span.close();
+      }
+    };
+  }
+
+  /**
+   * The same fill can be exported to any format, unless the report itself uses the format.
+   */
+  private Map<String, Object> getPrintParameters(JasperReport report,
+      Map<String, Object> params) {
+    if (report != null && report.getParameters() != null) {
+      for (JRParameter parameter : report.getParameters()) {
+        if (FORMAT_PARAMETER.equals(parameter.getName())) {
+          return params;
+        }
+      }
+    }
+
+    Map<String, Object> printParams = new HashMap<>(params);
+    printParams.remove(FORMAT_PARAMETER);
+    return printParams;
+  }
+
+  /**
+   * Writes the data of a report into a stream without filling it.
+   */
+  private interface DataExport {
+    long export(OutputStream outputStream) throws SQLException, JRException, IOException;
+  }
 }
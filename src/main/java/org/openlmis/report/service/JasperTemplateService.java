@@ -31,13 +31,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
@@ -49,16 +54,20 @@ import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.domain.JasperTemplateParameter;
 import org.openlmis.report.domain.JasperTemplateParameterDependency;
 import org.openlmis.report.domain.ReportImage;
+import org.openlmis.report.dto.JasperTemplateDto;
 import org.openlmis.report.exception.JasperReportViewException;
 import org.openlmis.report.exception.ReportingException;
 import org.openlmis.report.exception.ValidationMessageException;
 import org.openlmis.report.i18n.ReportImageMessageKeys;
+import org.openlmis.report.repository.JasperTemplateMetadata;
 import org.openlmis.report.repository.JasperTemplateRepository;
 import org.openlmis.report.repository.ReportImageRepository;
 import org.openlmis.report.service.referencedata.RightReferenceDataService;
 import org.openlmis.report.utils.Message;
 import org.openlmis.report.utils.ReportingValidationHelper;
+import org.openlmis.report.utils.RequestHelper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -78,6 +87,39 @@ public class JasperTemplateService {
   @Autowired
   private ReportImageRepository reportImageRepository;
 
+  @Autowired
+  private JasperReportCache jasperReportCache;
+
+  @Autowired
+  private ReportResultCache reportResultCache;
+
+  @Autowired
+  private ReportPrintCache reportPrintCache;
+
+  @Autowired
+  private ReportScheduleService reportScheduleService;
+
+  @Autowired
+  private ReportMetrics reportMetrics;
+
+  @Autowired
+  private ReportLimits reportLimits;
+
+  @Value("${dateTimeFormat}")
+  private String dateTimeFormat;
+
+  @Value("${dateFormat}")
+  private String dateFormat;
+
+  @Value("${groupingSeparator}")
+  private String groupingSeparator;
+
+  @Value("${groupingSize}")
+  private String groupingSize;
+
+  @Value("${time.zoneId}")
+  private String timeZoneId;
+
   /**
    * Saves a template with given name.
    * If template already exists, only description and required rights are updated.
@@ -107,9 +149,119 @@ public class JasperTemplateService {
     }
 
     validateFileAndSaveTemplate(jasperTemplate, file);
+    evictCaches(jasperTemplate.getId());
+    reportScheduleService.updateTemplateSchedules(jasperTemplate);
     return jasperTemplate;
   }
 
+  /**
+   * Deletes the given template and drops its compiled and generated reports from the caches.
+   * Schedules of the template are deleted as well.
+   *
+   * @param jasperTemplate template to delete
+   */
+  public void deleteTemplate(JasperTemplate jasperTemplate) {
+    jasperTemplateRepository.delete(jasperTemplate);
+    evictCaches(jasperTemplate.getId());
+    reportScheduleService.deleteTemplateSchedules(jasperTemplate.getName());
+  }
+
+  /**
+   * Get metadata of visible templates together with their parameters. Compiled report data is
+   * never read.
+   *
+   * @return visible templates without report data
+   */
+  public List<JasperTemplateDto> getVisibleTemplates() {
+    List<JasperTemplateMetadata> templates = jasperTemplateRepository.findMetadataByVisible(true);
+    if (templates.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    Map<UUID, List<JasperTemplateParameter>> parameters = jasperTemplateRepository
+        .findParametersByTemplateIdIn(templates
+            .stream()
+            .map(JasperTemplateMetadata::getId)
+            .collect(Collectors.toSet()))
+        .stream()
+        .collect(Collectors.groupingBy(JasperTemplateParameter::getTemplateId));
+
+    return templates
+        .stream()
+        .map(template -> JasperTemplateDto.newInstance(template,
+            parameters.getOrDefault(template.getId(), Collections.emptyList())))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Get metadata of the given template together with its parameters. Compiled report data is
+   * never read.
+   *
+   * @param templateId ID of the template
+   * @return template without report data, or empty if template does not exist
+   */
+  public Optional<JasperTemplateDto> getTemplate(UUID templateId) {
+    return jasperTemplateRepository.findMetadataById(templateId)
+        .map(template -> JasperTemplateDto.newInstance(template, jasperTemplateRepository
+            .findParametersByTemplateIdIn(Collections.singleton(templateId))));
+  }
+
+  /**
+   * Map request parameters, report images and report settings (format, date and number formats)
+   * to the parameters that should be passed to the report fill.
+   *
+   * @param requestParameters request parameters
+   * @param template          template with parameters
+   * @param format            report format to generate
+   * @return Map of report parameters
+   */
+  public Map<String, Object> mapReportParametersToTemplate(
+      Map<String, String[]> requestParameters, JasperTemplate template, String format)
+      throws JasperReportViewException {
+    return mapReportParametersToTemplate(requestParameters, template, format,
+        mapReportImagesToTemplate(template));
+  }
+
+  /**
+   * Map several sets of request parameters to the parameters of separate fills of the same
+   * template. Report images are decoded once and shared by all fills.
+   *
+   * @param parameterSets sets of request parameters
+   * @param template      template with parameters
+   * @param format        report format to generate
+   * @return list of report parameters, in the order of the sets
+   */
+  public List<Map<String, Object>> mapReportParametersToTemplate(
+      List<Map<String, String[]>> parameterSets, JasperTemplate template, String format)
+      throws JasperReportViewException {
+    Map<String, BufferedImage> images = mapReportImagesToTemplate(template);
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (Map<String, String[]> requestParameters : parameterSets) {
+      result.add(mapReportParametersToTemplate(requestParameters, template, format, images));
+    }
+    return result;
+  }
+
+  private Map<String, Object> mapReportParametersToTemplate(
+      Map<String, String[]> requestParameters, JasperTemplate template, String format,
+      Map<String, BufferedImage> images) {
+    Map<String, Object> map = mapRequestParametersToTemplate(requestParameters, template);
+    map.putAll(images);
+
+    map.put("format", format);
+    map.put("dateTimeFormat", dateTimeFormat);
+    map.put("dateFormat", dateFormat);
+    map.put("timeZoneId", timeZoneId);
+    DecimalFormatSymbols decimalFormatSymbols = new DecimalFormatSymbols();
+    decimalFormatSymbols.setGroupingSeparator(groupingSeparator.charAt(0));
+    DecimalFormat decimalFormat = new DecimalFormat("", decimalFormatSymbols);
+    decimalFormat.setGroupingSize(Integer.parseInt(groupingSize));
+    map.put("decimalFormat", decimalFormat);
+
+    return map;
+  }
+
   /**
    * Map request parameters to the template parameters in the template. If there are no template
    * parameters, returns an empty Map.
@@ -120,12 +272,24 @@ public class JasperTemplateService {
    */
   public Map<String, Object> mapRequestParametersToTemplate(
       HttpServletRequest request, JasperTemplate template) {
+    return mapRequestParametersToTemplate(RequestHelper.getParameterMap(request), template);
+  }
+
+  /**
+   * Map request parameters to the template parameters in the template. If there are no template
+   * parameters, returns an empty Map.
+   *
+   * @param requestParameterMap request parameters
+   * @param template            template with parameters
+   * @return Map of matching parameters, empty Map if none match
+   */
+  public Map<String, Object> mapRequestParametersToTemplate(
+      Map<String, String[]> requestParameterMap, JasperTemplate template) {
     List<JasperTemplateParameter> templateParameters = template.getTemplateParameters();
     if (templateParameters == null) {
       return new HashMap<>();
     }
 
-    Map<String, String[]> requestParameterMap = request.getParameterMap();
     Map<String, Object> map = new HashMap<>();
 
     for (JasperTemplateParameter templateParameter : templateParameters) {
@@ -164,6 +328,7 @@ public class JasperTemplateService {
     if (images == null) {
       return new HashMap<>();
     }
+    long start = System.nanoTime();
     Map<String, BufferedImage> map = new HashMap<>();
     for (ReportImage image : images) {
       try {
@@ -173,6 +338,7 @@ public class JasperTemplateService {
         throw new JasperReportViewException(ex, ERROR_REPORTING_IO, ex.getMessage());
       }
     }
+    reportMetrics.imagesDecoded(template.getName(), System.nanoTime() - start);
     return map;
   }
 
@@ -203,6 +369,7 @@ public class JasperTemplateService {
     JasperTemplate templateTmp = jasperTemplateRepository.findByName(jasperTemplate.getName());
     if (templateTmp != null) {
       jasperTemplateRepository.deleteById(templateTmp.getId());
+      evictCaches(templateTmp.getId());
     }
     validateFileAndSetData(jasperTemplate, file);
     saveWithParameters(jasperTemplate);
@@ -228,6 +395,9 @@ public class JasperTemplateService {
         jasperTemplate.setType(reportType);
       }
 
+      reportScheduleService.validateTemplateSchedule(report);
+      reportLimits.validateTemplateLimits(report);
+
       JRParameter[] jrParameters = report.getParameters();
 
       if (jrParameters != null && jrParameters.length > 0) {
@@ -364,4 +534,10 @@ public class JasperTemplateService {
       }
     }
   }
+
+  private void evictCaches(UUID templateId) {
+    jasperReportCache.evict(templateId);
+    reportResultCache.evict(templateId);
+    reportPrintCache.evict(templateId);
+  }
 }
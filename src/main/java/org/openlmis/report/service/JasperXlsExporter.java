@@ -15,7 +15,7 @@
 
 package org.openlmis.report.service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.export.JRXlsExporter;
@@ -31,12 +31,10 @@ public class JasperXlsExporter implements JasperExporter {
   }
 
   @Override
-  public byte[] exportReport() throws JRException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+  public void exportReport(OutputStream outputStream) throws JRException {
     JRXlsExporter exporter = new JRXlsExporter();
     exporter.setExporterInput(new SimpleExporterInput(jasperPrint));
-    exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(baos));
+    exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(outputStream));
     exporter.exportReport();
-    return baos.toByteArray();
   }
 }
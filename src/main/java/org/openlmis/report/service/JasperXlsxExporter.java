@@ -0,0 +1,240 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JROrigin;
+import net.sf.jasperreports.engine.JRPrintElement;
+import net.sf.jasperreports.engine.JRPrintFrame;
+import net.sf.jasperreports.engine.JRPrintPage;
+import net.sf.jasperreports.engine.JRPrintText;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.type.BandTypeEnum;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Exports reports to data-oriented XLSX sheets through the streaming POI workbook, which keeps
+ * only a window of rows in memory and writes the others to a compressed temporary file.
+ * Text elements are placed into columns by their horizontal position in the report and into
+ * rows by their vertical position on a page. Page headers, page footers and the background are
+ * left out, and column headers only appear the first time, so that the rows of all pages form
+ * one table. Numbers, dates and booleans are written as typed cells. A sheet is only continued
+ * on the next one once it reaches the row limit of the XLSX format.
+ */
+public class JasperXlsxExporter implements JasperExporter {
+  private static final int MAX_COLUMN_WIDTH = 255 * 256;
+  private static final int WIDTH_PER_PIXEL = 256 / 7;
+  private static final String DEFAULT_DATE_FORMAT = "yyyy-mm-dd hh:mm:ss";
+
+  private final JasperPrint jasperPrint;
+  private final int rowWindow;
+
+  JasperXlsxExporter(JasperPrint jasperPrint, int rowWindow) {
+    this.jasperPrint = jasperPrint;
+    this.rowWindow = rowWindow > 0 ? rowWindow : SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+  }
+
+  @Override
+  public void exportReport(OutputStream outputStream) throws JRException {
+    SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+    workbook.setCompressTempFiles(true);
+
+    try {
+      new SheetWriter(workbook, getColumns()).write();
+      workbook.write(new CloseShieldOutputStream(outputStream));
+    } catch (IOException ex) {
+      throw new JRException(ex);
+    } finally {
+      workbook.dispose();
+    }
+  }
+
+  /**
+   * Reads the horizontal positions and widths of all exported text elements, so that the columns
+   * are known before the first row is written.
+   */
+  private NavigableMap<Integer, Integer> getColumns() {
+    NavigableMap<Integer, Integer> columns = new TreeMap<>();
+    Set<JROrigin> exportedHeaders = new HashSet<>();
+    for (JRPrintPage page : jasperPrint.getPages()) {
+      for (PlacedText text : getTexts(page, exportedHeaders)) {
+        columns.putIfAbsent(text.left, text.element.getWidth());
+      }
+    }
+    return columns;
+  }
+
+  private List<PlacedText> getTexts(JRPrintPage page, Set<JROrigin> exportedHeaders) {
+    List<PlacedText> texts = new ArrayList<>();
+    Set<JROrigin> pageHeaders = new HashSet<>();
+    collectTexts(page.getElements(), 0, 0, exportedHeaders, pageHeaders, texts);
+    exportedHeaders.addAll(pageHeaders);
+    texts.sort(Comparator.<PlacedText>comparingInt(text -> text.top)
+        .thenComparingInt(text -> text.left));
+    return texts;
+  }
+
+  private void collectTexts(List<JRPrintElement> elements, int offsetX, int offsetY,
+      Set<JROrigin> exportedHeaders, Set<JROrigin> pageHeaders, List<PlacedText> texts) {
+    for (JRPrintElement element : elements) {
+      if (!isExported(element.getOrigin(), exportedHeaders, pageHeaders)) {
+        continue;
+      }
+
+      int x = offsetX + element.getX();
+      int y = offsetY + element.getY();
+      if (element instanceof JRPrintFrame) {
+        collectTexts(((JRPrintFrame) element).getElements(), x, y, exportedHeaders,
+            pageHeaders, texts);
+      } else if (element instanceof JRPrintText) {
+        texts.add(new PlacedText((JRPrintText) element, x, y));
+      }
+    }
+  }
+
+  private boolean isExported(JROrigin origin, Set<JROrigin> exportedHeaders,
+      Set<JROrigin> pageHeaders) {
+    BandTypeEnum band = origin == null ? BandTypeEnum.UNKNOWN : origin.getBandTypeValue();
+    switch (band) {
+      case BACKGROUND:
+      case PAGE_HEADER:
+      case PAGE_FOOTER:
+      case LAST_PAGE_FOOTER:
+        return false;
+      case COLUMN_HEADER:
+        pageHeaders.add(origin);
+        return !exportedHeaders.contains(origin);
+      default:
+        return true;
+    }
+  }
+
+  private final class SheetWriter {
+    private final Map<String, CellStyle> styles = new HashMap<>();
+    private final Map<Integer, Integer> columnIndexes = new HashMap<>();
+    private final SXSSFWorkbook workbook;
+    private final NavigableMap<Integer, Integer> columnWidths;
+    private final Set<JROrigin> exportedHeaders = new HashSet<>();
+    private final int maxRows = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    private Sheet sheet;
+    private int rowIndex;
+
+    SheetWriter(SXSSFWorkbook workbook, NavigableMap<Integer, Integer> columnWidths) {
+      this.workbook = workbook;
+      this.columnWidths = columnWidths;
+      for (Integer x : columnWidths.keySet()) {
+        columnIndexes.put(x, columnIndexes.size());
+      }
+    }
+
+    void write() {
+      newSheet();
+      for (JRPrintPage page : jasperPrint.getPages()) {
+        Row row = null;
+        int rowY = -1;
+        for (PlacedText text : getTexts(page, exportedHeaders)) {
+          if (row == null || text.top != rowY) {
+            row = nextRow();
+            rowY = text.top;
+          }
+          writeCell(row.createCell(columnIndexes.get(text.left)), text.element);
+        }
+      }
+    }
+
+    private Row nextRow() {
+      if (rowIndex >= maxRows) {
+        newSheet();
+      }
+      return sheet.createRow(rowIndex++);
+    }
+
+    private void newSheet() {
+      String name = StringUtils.defaultIfBlank(jasperPrint.getName(), "Report");
+      int number = workbook.getNumberOfSheets();
+      sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(
+          number == 0 ? name : name + " (" + (number + 1) + ")"));
+      rowIndex = 0;
+
+      for (Map.Entry<Integer, Integer> column : columnWidths.entrySet()) {
+        sheet.setColumnWidth(columnIndexes.get(column.getKey()),
+            Math.min(MAX_COLUMN_WIDTH, column.getValue() * WIDTH_PER_PIXEL));
+      }
+    }
+
+    private void writeCell(Cell cell, JRPrintText text) {
+      Object value = text.getValue();
+      if (value instanceof Number) {
+        cell.setCellValue(((Number) value).doubleValue());
+        applyFormat(cell, text.getPattern());
+      } else if (value instanceof Date) {
+        cell.setCellValue((Date) value);
+        applyFormat(cell, StringUtils.defaultIfBlank(text.getPattern(), DEFAULT_DATE_FORMAT));
+      } else if (value instanceof Boolean) {
+        cell.setCellValue((Boolean) value);
+      } else {
+        String fullText = text.getFullText();
+        if (fullText != null) {
+          cell.setCellValue(fullText);
+        }
+      }
+    }
+
+    private void applyFormat(Cell cell, String pattern) {
+      if (StringUtils.isBlank(pattern)) {
+        return;
+      }
+
+      cell.setCellStyle(styles.computeIfAbsent(pattern, key -> {
+        CellStyle style = workbook.createCellStyle();
+        style.setDataFormat(workbook.createDataFormat().getFormat(key));
+        return style;
+      }));
+    }
+  }
+
+  private static final class PlacedText {
+    private final JRPrintText element;
+    private final int left;
+    private final int top;
+
+    PlacedText(JRPrintText element, int left, int top) {
+      this.element = element;
+      this.left = left;
+      this.top = top;
+    }
+  }
+}
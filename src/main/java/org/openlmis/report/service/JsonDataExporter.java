@@ -0,0 +1,248 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_DATA_PARAMETER;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_DATA_QUERY;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
+import net.sf.jasperreports.engine.JRDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JRQuery;
+import net.sf.jasperreports.engine.JRValueParameter;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.query.JRJdbcQueryExecuter;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the rows of the main dataset of a report as JSON, without filling the report layout.
+ * The main query runs through the JDBC query executer of JasperReports, so parameters and
+ * clauses work as in a fill, and every row is written as an object with the fields of the
+ * template, typed by their classes. Rows are streamed from the database cursor to the output,
+ * so the export takes constant memory. The {@value #JSON_FORMAT} format writes a JSON array and
+ * the {@value #NDJSON_FORMAT} format writes one object per line.
+ */
+@Component
+public class JsonDataExporter {
+  static final String JSON_FORMAT = "json";
+  static final String NDJSON_FORMAT = "ndjson";
+
+  private static final String SQL_LANGUAGE = "sql";
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  @Autowired
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Autowired
+  private ReportLimits reportLimits;
+
+  /**
+   * Checks whether the given format is written by this exporter.
+   *
+   * @param format report format
+   * @return true for the JSON data formats
+   */
+  public static boolean isDataFormat(String format) {
+    return JSON_FORMAT.equals(format) || NDJSON_FORMAT.equals(format);
+  }
+
+  /**
+   * Checks that the data of the report can be exported with the given parameters. Default
+   * values of parameters are expressions of the layout, so parameters which have one must be
+   * given.
+   *
+   * @param report compiled report
+   * @param params report parameters
+   * @param format data format
+   * @throws JasperReportViewException if the report has no SQL query or a parameter is missing
+   */
+  public void validate(JasperReport report, Map<String, Object> params, String format)
+      throws JasperReportViewException {
+    JRQuery query = report.getQuery();
+    if (query == null || !SQL_LANGUAGE.equalsIgnoreCase(query.getLanguage())) {
+      throw new JasperReportViewException(null, ERROR_JASPER_REPORT_DATA_QUERY, format);
+    }
+
+    for (JRParameter parameter : getParameters(report)) {
+      if (!parameter.isSystemDefined() && parameter.getDefaultValueExpression() != null
+          && !params.containsKey(parameter.getName())) {
+        throw new JasperReportViewException(null, ERROR_JASPER_REPORT_DATA_PARAMETER,
+            parameter.getName(), format);
+      }
+    }
+  }
+
+  /**
+   * Writes the rows of the main query of the report into the stream. The query runs on a
+   * read-only reporting connection, is cancelled by the database after the given timeout and
+   * is stopped once it reads more records than the limit of the report.
+   *
+   * @param report       compiled report
+   * @param params       report parameters
+   * @param format       data format
+   * @param timeout      maximum duration of the query in seconds, or zero if unlimited
+   * @param outputStream stream the rows are written to
+   * @return number of written rows
+   * @throws SQLException if the connection can not be opened
+   * @throws JRException if the query fails
+   * @throws IOException if the rows can not be written
+   */
+  public long export(JasperReport report, Map<String, Object> params, String format,
+      long timeout, OutputStream outputStream) throws SQLException, JRException, IOException {
+    FillLimits fillLimits = reportLimits.getFillLimits(report);
+    try (ReportConnection connection =
+        reportConnectionFactory.getConnection(report, null, fillLimits)) {
+      connection.setStatementTimeout(timeout);
+
+      JRJdbcQueryExecuter queryExecuter = new JRJdbcQueryExecuter(
+          DefaultJasperReportsContext.getInstance(), report.getMainDataset(),
+          getValueParameters(report, params, connection));
+      try {
+        return write(queryExecuter.createDatasource(), getFields(report),
+            NDJSON_FORMAT.equals(format), outputStream);
+      } finally {
+        queryExecuter.close();
+      }
+    }
+  }
+
+  private long write(JRDataSource dataSource, JRField[] fields, boolean delimited,
+      OutputStream outputStream) throws JRException, IOException {
+    long rows = 0;
+    try (JsonGenerator generator =
+        JSON_FACTORY.createGenerator(new CloseShieldOutputStream(outputStream))) {
+      if (delimited) {
+        generator.setRootValueSeparator(null);
+      } else {
+        generator.writeStartArray();
+      }
+
+      while (dataSource.next()) {
+        generator.writeStartObject();
+        for (JRField field : fields) {
+          generator.writeFieldName(field.getName());
+          writeValue(generator, dataSource.getFieldValue(field));
+        }
+        generator.writeEndObject();
+        if (delimited) {
+          generator.writeRaw('\n');
+        }
+        rows++;
+      }
+
+      if (!delimited) {
+        generator.writeEndArray();
+      }
+    }
+    return rows;
+  }
+
+  private void writeValue(JsonGenerator generator, Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else if (value instanceof Number) {
+      writeNumber(generator, (Number) value);
+    } else if (value instanceof Date) {
+      writeDate(generator, (Date) value);
+    } else if (value instanceof byte[]) {
+      generator.writeBinary((byte[]) value);
+    } else {
+      generator.writeString(value.toString());
+    }
+  }
+
+  private void writeNumber(JsonGenerator generator, Number value) throws IOException {
+    if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      generator.writeNumber(value.doubleValue());
+    } else {
+      generator.writeNumber(value.longValue());
+    }
+  }
+
+  private void writeDate(JsonGenerator generator, Date value) throws IOException {
+    if (value instanceof java.sql.Date || value instanceof Time) {
+      generator.writeString(value.toString());
+    } else {
+      generator.writeString(value.toInstant().toString());
+    }
+  }
+
+  private Map<String, JRValueParameter> getValueParameters(JasperReport report,
+      Map<String, Object> params, ReportConnection connection) {
+    Map<String, Object> values = new HashMap<>(params);
+    values.put(JRParameter.REPORT_CONNECTION, connection);
+    values.put(JRParameter.REPORT_PARAMETERS_MAP, values);
+
+    Map<String, JRValueParameter> valueParameters = new HashMap<>();
+    for (JRParameter parameter : getParameters(report)) {
+      valueParameters.put(parameter.getName(),
+          toValueParameter(parameter, values.get(parameter.getName())));
+    }
+    return valueParameters;
+  }
+
+  private static JRValueParameter toValueParameter(JRParameter parameter, Object value) {
+    return (JRValueParameter) Proxy.newProxyInstance(JRValueParameter.class.getClassLoader(),
+        new Class<?>[] { JRValueParameter.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getValue":
+              return value;
+            case "setValue":
+              return null;
+            default:
+              try {
+                return method.invoke(parameter, args);
+              } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+              }
+          }
+        });
+  }
+
+  private JRParameter[] getParameters(JasperReport report) {
+    return report.getParameters() == null ? new JRParameter[0] : report.getParameters();
+  }
+
+  private JRField[] getFields(JasperReport report) {
+    return report.getFields() == null ? new JRField[0] : report.getFields();
+  }
+}
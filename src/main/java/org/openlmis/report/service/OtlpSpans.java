@@ -0,0 +1,100 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes finished spans in the JSON encoding of the OpenTelemetry protocol (OTLP), so that
+ * they can be read by any OTLP collector or tool.
+ */
+final class OtlpSpans {
+
+  private OtlpSpans() {
+    throw new UnsupportedOperationException();
+  }
+
+  static Map<String, Object> toResourceSpans(String serviceName, List<Span> spans) {
+    List<Map<String, Object>> otlpSpans = new ArrayList<>();
+    for (Span span : spans) {
+      otlpSpans.add(toSpan(span));
+    }
+
+    Map<String, Object> resource = Collections.singletonMap("attributes",
+        Collections.singletonList(toAttribute("service.name", serviceName)));
+    Map<String, Object> scopeSpans = new LinkedHashMap<>();
+    scopeSpans.put("scope", Collections.singletonMap("name", ReportTracer.class.getName()));
+    scopeSpans.put("spans", otlpSpans);
+
+    Map<String, Object> resourceSpans = new LinkedHashMap<>();
+    resourceSpans.put("resource", resource);
+    resourceSpans.put("scopeSpans", Collections.singletonList(scopeSpans));
+    return Collections.singletonMap("resourceSpans", Collections.singletonList(resourceSpans));
+  }
+
+  static Map<String, Object> toSpan(Span span) {
+    Map<String, Object> otlpSpan = new LinkedHashMap<>();
+    otlpSpan.put("traceId", span.getTraceId());
+    otlpSpan.put("spanId", span.getSpanId());
+    if (span.getParentSpanId() != null) {
+      otlpSpan.put("parentSpanId", span.getParentSpanId());
+    }
+    otlpSpan.put("name", span.getName());
+    otlpSpan.put("kind", span.getKind().getCode());
+    otlpSpan.put("startTimeUnixNano", String.valueOf(span.getStartEpochNanos()));
+    otlpSpan.put("endTimeUnixNano", String.valueOf(span.getEndEpochNanos()));
+
+    List<Map<String, Object>> attributes = new ArrayList<>();
+    span.getAttributes().forEach((key, value) -> attributes.add(toAttribute(key, value)));
+    otlpSpan.put("attributes", attributes);
+
+    Map<String, Object> status = new HashMap<>();
+    if (span.isError()) {
+      status.put("code", 2);
+      status.put("message", span.getErrorMessage());
+    } else {
+      status.put("code", 0);
+    }
+    otlpSpan.put("status", status);
+    return otlpSpan;
+  }
+
+  private static Map<String, Object> toAttribute(String key, Object value) {
+    String type;
+    Object attributeValue = value;
+    if (value instanceof Boolean) {
+      type = "boolValue";
+    } else if (value instanceof Integer || value instanceof Long) {
+      type = "intValue";
+      attributeValue = String.valueOf(value);
+    } else if (value instanceof Number) {
+      type = "doubleValue";
+    } else {
+      type = "stringValue";
+      attributeValue = String.valueOf(value);
+    }
+
+    Map<String, Object> attribute = new LinkedHashMap<>();
+    attribute.put("key", key);
+    attribute.put("value", Collections.singletonMap(type, attributeValue));
+    return attribute;
+  }
+}
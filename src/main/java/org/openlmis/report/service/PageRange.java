@@ -0,0 +1,83 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_PAGE_RANGE_INVALID;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.openlmis.report.utils.Message;
+
+/**
+ * Range of report pages, numbered from one, which should be filled and exported. A range
+ * without the last page includes all pages from the first one.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class PageRange {
+  private static final PageRange PREVIEW = new PageRange(1, 1);
+
+  private final int from;
+  private final Integer to;
+
+  private PageRange(int from, Integer to) {
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Creates a page range from request parameters. The preview is the first page, unless pages
+   * are given.
+   *
+   * @param from    first page, or null to start from the first one
+   * @param to      last page, or null to end with the last one
+   * @param preview whether only the first page should be generated
+   * @return page range, or null if the whole report should be generated
+   * @throws ValidationMessageException if the range is invalid
+   */
+  public static PageRange of(Integer from, Integer to, boolean preview) {
+    if (from == null && to == null) {
+      return preview ? PREVIEW : null;
+    }
+
+    int first = from == null ? 1 : from;
+    if (first < 1 || to != null && to < first) {
+      throw new ValidationMessageException(
+          new Message(ERROR_JASPER_REPORT_PAGE_RANGE_INVALID, from, to));
+    }
+
+    return new PageRange(first, to);
+  }
+
+  /**
+   * Removes the pages outside of this range from the filled report.
+   *
+   * @param jasperPrint filled report
+   */
+  void apply(JasperPrint jasperPrint) {
+    int pages = jasperPrint.getPages().size();
+
+    for (int index = pages - 1; index >= 0; index--) {
+      if (index < from - 1 || to != null && index >= to) {
+        jasperPrint.removePage(index);
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fill of a single partition of a {@link PartitionedReportFiller} fill, which can be cancelled
+ * while it runs. A cancelled fill that has not started yet never starts, and a running one is
+ * interrupted, which makes {@link ReportFiller} cancel its report fill.
+ */
+class PartitionFill implements Callable<JasperPrint> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PartitionFill.class);
+  private static final long CANCEL_WAIT_SECONDS = 30;
+
+  private final Callable<JasperPrint> fill;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private ForkJoinTask<JasperPrint> future;
+  private Thread thread;
+  private boolean started;
+  private boolean cancelled;
+
+  PartitionFill(Callable<JasperPrint> fill) {
+    this.fill = fill;
+  }
+
+  ForkJoinTask<JasperPrint> getFuture() {
+    return future;
+  }
+
+  void setFuture(ForkJoinTask<JasperPrint> future) {
+    this.future = future;
+  }
+
+  @Override
+  public JasperPrint call() throws Exception {
+    synchronized (this) {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      started = true;
+      thread = Thread.currentThread();
+    }
+
+    try {
+      return fill.call();
+    } finally {
+      synchronized (this) {
+        thread = null;
+        // the pool thread must not keep an interrupt meant for this fill
+        Thread.interrupted();
+      }
+      stopped.countDown();
+    }
+  }
+
+  /**
+   * Cancels the fill, interrupting it if it is running.
+   */
+  synchronized void cancel() {
+    cancelled = true;
+    future.cancel(false);
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Waits until a cancelled fill that has already started stops.
+   */
+  void awaitStopped() {
+    synchronized (this) {
+      if (!started) {
+        return;
+      }
+    }
+
+    try {
+      if (!stopped.await(CANCEL_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        LOGGER.warn("Cancelled partition fill did not stop within {} seconds",
+            CANCEL_WAIT_SECONDS);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_CANCELLED;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Splits fills of partitioned reports into independent fills which run in parallel. A template
+ * is partitioned when it declares the {@value #PARTITION_QUERY_PROPERTY} report property, a
+ * query returning partition keys (e.g. facility IDs) in the order of the report, and the
+ * {@value #PARTITION_PARAMETER_PROPERTY} property, the report parameter which receives a single
+ * key in each fill. The query can use report parameters as {@code $P{name}}. Every partition is
+ * filled on its own connection and the pages are concatenated in the order of the keys.
+ *
+ * <p>Every partition is an independent fill, so {@code $V{PAGE_NUMBER}}, "Page X of Y" fields
+ * and summary or total bands restart in each partition. Partitioned templates must not use
+ * report-level page numbers or totals, and a page range selects pages of the concatenated
+ * report, not the page numbers printed on them.
+ */
+@Component
+public class PartitionedReportFiller {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedReportFiller.class);
+
+  static final String PARTITION_QUERY_PROPERTY = "partitionQuery";
+  static final String PARTITION_PARAMETER_PROPERTY = "partitionParameter";
+
+  private static final Pattern QUERY_PARAMETER = Pattern.compile("\\$P\\{(\\w+)}");
+
+  @Autowired
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Autowired
+  private ReportFiller reportFiller;
+
+  @Value("${reports.partitions.parallelism}")
+  private int parallelism;
+
+  private ForkJoinPool pool;
+
+  /**
+   * Creates the pool of partition fills, unless partitioning is disabled.
+   */
+  @PostConstruct
+  public void init() {
+    if (parallelism > 0) {
+      pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+        ForkJoinWorkerThread thread =
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName("report-partition-" + thread.getPoolIndex());
+        return thread;
+      }, null, false);
+    }
+  }
+
+  /**
+   * Shuts down the pool of partition fills.
+   */
+  @PreDestroy
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks whether fills of the given report are split into partitions.
+   *
+   * @param report compiled report
+   * @return true if the report declares partitions and partitioning is enabled
+   */
+  public boolean isPartitioned(JasperReport report) {
+    return pool != null
+        && !isBlank(report.getProperty(PARTITION_QUERY_PROPERTY))
+        && !isBlank(report.getProperty(PARTITION_PARAMETER_PROPERTY));
+  }
+
+  /**
+   * Fills every partition of the report in parallel and concatenates the pages. If a page range
+   * is given, the filled report contains only the pages of the range. No partition is filled
+   * beyond the last page of the range, and the remaining partitions are cancelled once the
+   * pages of the previous ones reach it. Partitions are cancelled by interrupting their fills,
+   * and the method returns only once the cancelled fills have stopped.
+   *
+   * @param templateName name of the filled template
+   * @param report       compiled partitioned report
+   * @param params       fill parameters
+   * @param pageRange    pages to keep, or null to keep the whole report
+   * @param queryLog     log of the executed statements, or null if they are not recorded
+   * @param fillLimits   limits shared by the fills of all partitions
+   * @return filled report with the pages of all partitions
+   * @throws JRException if any of the fills fails
+   * @throws JasperReportViewException if any of the fills is cancelled
+   * @throws SQLException if the partitions can not be read
+   */
+  public JasperPrint fill(String templateName, JasperReport report, Map<String, Object> params,
+      PageRange pageRange, ReportQueryLog queryLog, FillLimits fillLimits)
+      throws JRException, JasperReportViewException, SQLException {
+    List<Object> partitions = getPartitions(report, params, queryLog);
+    LOGGER.debug("Filling report {} in {} partitions", report.getName(), partitions.size());
+    if (pageRange != null && partitions.size() > 1) {
+      LOGGER.warn("Page range of partitioned report {} selects pages of the concatenated "
+          + "partitions, whose page numbers restart in each partition", report.getName());
+    }
+
+    Integer lastPage = pageRange == null ? null : pageRange.getTo();
+    PageRange partitionRange = lastPage == null ? null : PageRange.of(1, lastPage, false);
+    List<PartitionFill> tasks = new ArrayList<>();
+    for (Object partition : partitions) {
+      PartitionFill task = new PartitionFill(() ->
+          fillPartition(templateName, report, params, partition, partitionRange, queryLog,
+              fillLimits));
+      task.setFuture(pool.submit(task));
+      tasks.add(task);
+    }
+
+    JasperPrint jasperPrint = null;
+    try {
+      jasperPrint = concatenate(tasks, lastPage);
+    } catch (InterruptedException ex) {
+      cancel(tasks);
+      Thread.currentThread().interrupt();
+      throw new JasperReportViewException(ex, ERROR_JASPER_REPORT_FILL_CANCELLED);
+    } catch (ExecutionException ex) {
+      cancel(tasks);
+      rethrow(ex);
+    }
+
+    if (jasperPrint != null && pageRange != null) {
+      pageRange.apply(jasperPrint);
+    }
+    return jasperPrint;
+  }
+
+  /**
+   * Concatenates the pages of the partitions in order. Once the pages reach the given last page,
+   * the fills of the remaining partitions are cancelled.
+   */
+  private JasperPrint concatenate(List<PartitionFill> tasks, Integer lastPage)
+      throws InterruptedException, ExecutionException {
+    JasperPrint jasperPrint = null;
+    for (PartitionFill task : tasks) {
+      JasperPrint partitionPrint = task.getFuture().get();
+      if (jasperPrint == null) {
+        jasperPrint = partitionPrint;
+      } else {
+        partitionPrint.getPages().forEach(jasperPrint::addPage);
+      }
+
+      if (lastPage != null && jasperPrint.getPages().size() >= lastPage) {
+        cancel(tasks);
+        break;
+      }
+    }
+    return jasperPrint;
+  }
+
+  private List<Object> getPartitions(JasperReport report, Map<String, Object> params,
+      ReportQueryLog queryLog) throws SQLException {
+    Matcher matcher = QUERY_PARAMETER.matcher(report.getProperty(PARTITION_QUERY_PROPERTY));
+    StringBuffer sql = new StringBuffer();
+    List<Object> values = new ArrayList<>();
+    while (matcher.find()) {
+      values.add(params.get(matcher.group(1)));
+      matcher.appendReplacement(sql, "?");
+    }
+    matcher.appendTail(sql);
+
+    List<Object> partitions = new ArrayList<>();
+    try (ReportConnection connection = reportConnectionFactory.getConnection(report, queryLog);
+        PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+      for (int index = 0; index < values.size(); index++) {
+        statement.setObject(index + 1, values.get(index));
+      }
+
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          partitions.add(resultSet.getObject(1));
+        }
+      }
+    }
+
+    if (partitions.isEmpty()) {
+      partitions.add(null);
+    }
+    return partitions;
+  }
+
+  private JasperPrint fillPartition(String templateName, JasperReport report,
+      Map<String, Object> params, Object partition, PageRange pageRange,
+      ReportQueryLog queryLog, FillLimits fillLimits)
+      throws JRException, JasperReportViewException, SQLException {
+    String parameter = report.getProperty(PARTITION_PARAMETER_PROPERTY);
+    Map<String, Object> partitionParams = new HashMap<>(params);
+    partitionParams.put(parameter, toParameterValue(report, parameter, partition));
+
+    try (ReportConnection connection =
+        reportConnectionFactory.getConnection(report, queryLog, fillLimits)) {
+      return reportFiller.fill(templateName, report, partitionParams, connection, pageRange,
+          fillLimits);
+    }
+  }
+
+  private Object toParameterValue(JasperReport report, String name, Object value) {
+    if (value != null && report.getParameters() != null) {
+      for (JRParameter parameter : report.getParameters()) {
+        if (name.equals(parameter.getName()) && String.class == parameter.getValueClass()) {
+          return value.toString();
+        }
+      }
+    }
+    return value;
+  }
+
+  private void cancel(List<PartitionFill> tasks) {
+    tasks.forEach(PartitionFill::cancel);
+    tasks.forEach(PartitionFill::awaitStopped);
+  }
+
+  private void rethrow(ExecutionException ex)
+      throws JRException, JasperReportViewException, SQLException {
+    Throwable cause = ex.getCause();
+    if (cause instanceof JRException) {
+      throw (JRException) cause;
+    }
+    if (cause instanceof JasperReportViewException) {
+      throw (JasperReportViewException) cause;
+    }
+    if (cause instanceof SQLException) {
+      throw (SQLException) cause;
+    }
+    throw new JRException(cause);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.List;
+import javax.annotation.PostConstruct;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.fonts.FontFace;
+import net.sf.jasperreports.engine.fonts.FontFamily;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the PDF export shared by all reports. Streams are compressed, and images with
+ * the same content, like a logo repeated on every page, are embedded once and referenced from
+ * each page. Fonts of the font extensions can be loaded at startup instead of during the first
+ * export.
+ */
+@Component
+public class PdfExportProfile {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PdfExportProfile.class);
+
+  @Value("${reports.pdf.compressed}")
+  private boolean compressed;
+
+  @Value("${reports.pdf.deduplicateImages}")
+  private boolean deduplicateImages;
+
+  @Value("${reports.pdf.preloadFonts}")
+  private boolean preloadFonts;
+
+  /**
+   * Loads the fonts of the font extensions and initializes the PDF exporter, if enabled.
+   */
+  @PostConstruct
+  public void init() throws JRException {
+    if (!preloadFonts) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    List<FontFamily> families =
+        DefaultJasperReportsContext.getInstance().getExtensions(FontFamily.class);
+    for (FontFamily family : families) {
+      loadFont(family.getNormalFace());
+      loadFont(family.getBoldFace());
+      loadFont(family.getItalicFace());
+      loadFont(family.getBoldItalicFace());
+    }
+    new JasperPdfExporter(new JasperPrint(), this).exportReport(new NullOutputStream());
+    LOGGER.info("Preloaded {} font families in {} ms", families.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  public boolean isDeduplicatingImages() {
+    return deduplicateImages;
+  }
+
+  private void loadFont(FontFace face) {
+    if (face != null) {
+      face.getFont();
+    }
+  }
+}
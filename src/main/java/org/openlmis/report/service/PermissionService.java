@@ -38,6 +38,9 @@ public class PermissionService {
   @Autowired
   private UserReferenceDataService userReferenceDataService;
 
+  @Autowired
+  private ReportTracer reportTracer;
+
   public void canEditReportTemplates() {
     checkPermission(REPORT_TEMPLATES_EDIT);
   }
@@ -70,9 +73,12 @@ public class PermissionService {
   }
 
   private Boolean hasPermission(String rightName) {
-    UserDto user = authenticationHelper.getCurrentUser();
-    RightDto right = authenticationHelper.getRight(rightName);
-    ResultDto<Boolean> result = userReferenceDataService.hasRight(user.getId(), right.getId());
-    return null != result && result.getResult();
+    try (Span span = reportTracer.startSpan("permission.check")) {
+      span.setAttribute("right", rightName);
+      UserDto user = authenticationHelper.getCurrentUser();
+      RightDto right = authenticationHelper.getRight(rightName);
+      ResultDto<Boolean> result = userReferenceDataService.hasRight(user.getId(), right.getId());
+      return null != result && result.getResult();
+    }
   }
 }
@@ -0,0 +1,84 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.Getter;
+
+/**
+ * Report ready to be written to an output stream, together with the ID of the cached fill it
+ * was exported from. The fill ID is null if the fill is not cached. The fill profile is present
+ * only if the report has just been filled with SQL capture enabled.
+ * The report holds the resources needed to write it, such as the fill permit or the virtualized
+ * pages of the fill. They are released once the report is written, and the report has to be
+ * closed if it is not written at all.
+ */
+public class PreparedReport implements ReportWriter, AutoCloseable {
+
+  @Getter
+  private final UUID fillId;
+
+  @Getter
+  private final FillProfile fillProfile;
+
+  private final ReportWriter writer;
+
+  private final Runnable release;
+
+  PreparedReport(UUID fillId, ReportWriter writer) {
+    this(fillId, writer, null, null);
+  }
+
+  PreparedReport(UUID fillId, ReportWriter writer, FillProfile fillProfile, Runnable release) {
+    this.fillId = fillId;
+    this.writer = writer;
+    this.fillProfile = fillProfile;
+    this.release = release;
+  }
+
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    try {
+      writer.writeTo(outputStream);
+    } finally {
+      close();
+    }
+  }
+
+  @Override
+  public Optional<ReportWriter> getCompressedWriter() {
+    return writer.getCompressedWriter().map(compressedWriter -> outputStream -> {
+      try {
+        compressedWriter.writeTo(outputStream);
+      } finally {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Releases the resources of the report. Closing the report more than once has no effect.
+   */
+  @Override
+  public void close() {
+    if (release != null) {
+      release.run();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executions of a single SQL statement during a report fill. Statements of subdatasets are
+ * usually executed many times, so the executions are summed up, and the bind values of the
+ * slowest execution are kept.
+ */
+public final class QueryProfile {
+  private final String sql;
+  private int executions;
+  private long executionNanos;
+  private long fetchNanos;
+  private long rows;
+  private long slowestExecutionNanos = -1;
+  private List<String> parameters = Collections.emptyList();
+
+  QueryProfile(String sql) {
+    this.sql = sql;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public synchronized int getExecutions() {
+    return executions;
+  }
+
+  public synchronized double getExecutionMillis() {
+    return toMillis(executionNanos);
+  }
+
+  public synchronized double getFetchMillis() {
+    return toMillis(fetchNanos);
+  }
+
+  public synchronized long getRows() {
+    return rows;
+  }
+
+  public synchronized List<String> getParameters() {
+    return parameters;
+  }
+
+  synchronized double getTotalMillis() {
+    return toMillis(executionNanos + fetchNanos);
+  }
+
+  synchronized void addExecution(long nanos, List<String> parameters) {
+    executions++;
+    executionNanos += nanos;
+    if (nanos > slowestExecutionNanos) {
+      slowestExecutionNanos = nanos;
+      this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+  }
+
+  synchronized void addFetch(long nanos, boolean row) {
+    fetchNanos += nanos;
+    if (row) {
+      rows++;
+    }
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
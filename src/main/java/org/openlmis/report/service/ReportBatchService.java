@@ -0,0 +1,263 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_CANCELLED;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FORMAT_UNKNOWN;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_GENERATION;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_EMPTY;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_MERGE_FORMAT;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_QUEUE_FULL;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_TOO_LARGE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRRuntimeException;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.exception.BaseMessageException;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.openlmis.report.utils.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generates several reports of the same template in one request. The reports are filled in
+ * parallel, sharing the compiled template and the decoded images, and are returned either as
+ * a ZIP archive with one file per report or as a single merged PDF.
+ */
+@Service
+public class ReportBatchService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportBatchService.class);
+
+  static final String PDF_FORMAT = "pdf";
+  static final String ZIP_FORMAT = "zip";
+
+  @Autowired
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Autowired
+  private PdfExportProfile pdfExportProfile;
+
+  @Value("${reports.batch.poolSize}")
+  private int poolSize;
+
+  @Value("${reports.batch.maxSize}")
+  private int maxSize;
+
+  @Value("${reports.batch.queueCapacity}")
+  private int queueCapacity;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Creates the worker pool of batch fills.
+   */
+  @PostConstruct
+  public void init() {
+    executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("report-batch-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Fills a report of the template for every set of parameters and prepares the output, so that
+   * it can be written to an output stream.
+   *
+   * @param template   template to generate the reports from
+   * @param paramsList report parameters of every report, including the format
+   * @param format     format of every report
+   * @param merge      whether the reports should be merged into a single PDF
+   * @return writer of the ZIP archive or of the merged PDF
+   * @throws JasperReportViewException if any of the reports can not be filled
+   * @throws TooManyRequestsMessageException if the queue of batch fills is full
+   */
+  public ReportWriter prepareBatch(JasperTemplate template, List<Map<String, Object>> paramsList,
+      String format, boolean merge) throws JasperReportViewException {
+    validate(paramsList, format, merge);
+    List<FilledReport> filledReports = fillReports(template, paramsList);
+
+    if (merge) {
+      List<JasperPrint> jasperPrints = new ArrayList<>();
+      filledReports.forEach(filledReport -> jasperPrints.add(filledReport.getJasperPrint()));
+      JasperExporter exporter = new JasperBatchPdfExporter(jasperPrints, pdfExportProfile);
+      return outputStream -> {
+        try {
+          exporter.exportReport(outputStream);
+        } catch (JRException | JRRuntimeException ex) {
+          throw new IOException(ex);
+        } finally {
+          filledReports.forEach(FilledReport::close);
+        }
+      };
+    }
+
+    return outputStream -> {
+      try {
+        ZipOutputStream zipStream = new ZipOutputStream(outputStream);
+        for (int index = 0; index < filledReports.size(); index++) {
+          zipStream.putNextEntry(new ZipEntry(getEntryName(template, index, format)));
+          jasperReportsViewService
+              .getJasperExporter(filledReports.get(index).getJasperPrint(), format)
+              .exportReport(zipStream);
+          zipStream.closeEntry();
+        }
+        zipStream.finish();
+      } catch (JRException | JRRuntimeException | JasperReportViewException ex) {
+        throw new IOException(ex);
+      } finally {
+        filledReports.forEach(FilledReport::close);
+      }
+    };
+  }
+
+  private void validate(List<Map<String, Object>> paramsList, String format, boolean merge) {
+    if (paramsList.isEmpty()) {
+      throw new ValidationMessageException(new Message(ERROR_BATCH_EMPTY));
+    }
+    if (paramsList.size() > maxSize) {
+      throw new ValidationMessageException(new Message(ERROR_BATCH_TOO_LARGE, maxSize));
+    }
+    if (!JasperReportsViewService.isExportFormat(format)) {
+      throw new ValidationMessageException(
+          new Message(ERROR_JASPER_REPORT_FORMAT_UNKNOWN, format));
+    }
+    if (merge && !PDF_FORMAT.equals(format)) {
+      throw new ValidationMessageException(new Message(ERROR_BATCH_MERGE_FORMAT, format));
+    }
+  }
+
+  private List<FilledReport> fillReports(JasperTemplate template,
+      List<Map<String, Object>> paramsList) throws JasperReportViewException {
+    Batch batch = new Batch(paramsList.size());
+
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int index = 0; index < paramsList.size(); index++) {
+        final int reportIndex = index;
+        final Map<String, Object> params = paramsList.get(index);
+        futures.add(executor.submit(() -> fill(batch, reportIndex, template, params)));
+      }
+    } catch (RejectedExecutionException ex) {
+      batch.fail();
+      futures.forEach(future -> future.cancel(true));
+      throw new TooManyRequestsMessageException(new Message(ERROR_BATCH_QUEUE_FULL), ex);
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ex) {
+      batch.fail();
+      Thread.currentThread().interrupt();
+      throw new JasperReportViewException(ex, ERROR_JASPER_REPORT_FILL_CANCELLED);
+    } catch (ExecutionException ex) {
+      batch.fail();
+      rethrow(ex.getCause());
+    }
+
+    return batch.getFilledReports();
+  }
+
+  private Void fill(Batch batch, int index, JasperTemplate template, Map<String, Object> params)
+      throws JasperReportViewException {
+    if (batch.isFailed()) {
+      return null;
+    }
+
+    batch.set(index, jasperReportsViewService.fillReport(template, params));
+    return null;
+  }
+
+  private String getEntryName(JasperTemplate template, int index, String format) {
+    return template.getName().replaceAll("\\s+", "_") + "-" + (index + 1) + "." + format;
+  }
+
+  private void rethrow(Throwable cause) throws JasperReportViewException {
+    if (cause instanceof JasperReportViewException) {
+      throw (JasperReportViewException) cause;
+    }
+    if (cause instanceof BaseMessageException) {
+      throw (BaseMessageException) cause;
+    }
+    LOGGER.error("Could not fill report of batch", cause);
+    throw new JasperReportViewException(cause, ERROR_JASPER_REPORT_GENERATION);
+  }
+
+  /**
+   * Filled reports of a single batch. Once the batch fails, reports filled afterwards are
+   * closed right away, so that their virtualized pages are not left behind.
+   */
+  private static final class Batch {
+    private final FilledReport[] filledReports;
+    private boolean failed;
+
+    Batch(int size) {
+      this.filledReports = new FilledReport[size];
+    }
+
+    synchronized boolean isFailed() {
+      return failed;
+    }
+
+    synchronized void set(int index, FilledReport filledReport) {
+      if (failed) {
+        filledReport.close();
+      } else {
+        filledReports[index] = filledReport;
+      }
+    }
+
+    synchronized void fail() {
+      failed = true;
+      for (int index = 0; index < filledReports.length; index++) {
+        if (filledReports[index] != null) {
+          filledReports[index].close();
+          filledReports[index] = null;
+        }
+      }
+    }
+
+    synchronized List<FilledReport> getFilledReports() {
+      return new ArrayList<>(Arrays.asList(filledReports));
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Negotiates gzip compression of reports with clients. Reports in compressible formats are
+ * compressed while they are written, and reports stored compressed by the result cache, report
+ * jobs or snapshots are sent as they are stored, without compressing them again.
+ */
+@Component
+public class ReportCompression {
+  public static final String GZIP = "gzip";
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final String WILDCARD = "*";
+
+  private final boolean enabled;
+
+  /**
+   * Creates the negotiation of report compression.
+   *
+   * @param enabled whether reports are sent compressed to clients which accept gzip
+   */
+  @Autowired
+  public ReportCompression(@Value("${reports.compression.enabled}") boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Checks whether reports can be sent compressed with gzip to a client sending the given
+   * Accept-Encoding header.
+   *
+   * @param acceptEncoding value of the Accept-Encoding header, may be null
+   * @return true if gzip is accepted and compression is enabled
+   */
+  public boolean isAccepted(String acceptEncoding) {
+    if (!enabled || isBlank(acceptEncoding)) {
+      return false;
+    }
+
+    Double gzipQuality = null;
+    double wildcardQuality = 0;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      double quality = getQuality(parts);
+      if (GZIP.equalsIgnoreCase(name) || ("x-" + GZIP).equalsIgnoreCase(name)) {
+        gzipQuality = quality;
+      } else if (WILDCARD.equals(name)) {
+        wildcardQuality = quality;
+      }
+    }
+
+    return (gzipQuality == null ? wildcardQuality : gzipQuality) > 0;
+  }
+
+  /**
+   * Returns the writer of the report in the encoding negotiated with the client. Reports in
+   * compressible formats are sent compressed if the client accepts gzip, in which case the
+   * Content-Encoding header is added to the response.
+   *
+   * @param acceptEncoding value of the Accept-Encoding header, may be null
+   * @param format         report format
+   * @param writer         writer of the report
+   * @param response       response the headers are added to
+   * @return writer of the report that should be sent
+   */
+  public ReportWriter negotiate(String acceptEncoding, String format, ReportWriter writer,
+      BodyBuilder response) {
+    if (!enabled || (!ReportFormatHelper.isCompressible(format)
+        && !writer.getCompressedWriter().isPresent())) {
+      return writer;
+    }
+
+    response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+    if (!isAccepted(acceptEncoding)) {
+      return writer;
+    }
+
+    response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+    return compress(writer);
+  }
+
+  /**
+   * Returns the writer of the report compressed with gzip. Reports stored compressed are
+   * copied as they are.
+   *
+   * @param writer writer of the report
+   * @return writer of the compressed report
+   */
+  public static ReportWriter compress(ReportWriter writer) {
+    Optional<ReportWriter> compressedWriter = writer.getCompressedWriter();
+    if (compressedWriter.isPresent()) {
+      return compressedWriter.get();
+    }
+
+    return outputStream -> {
+      try (OutputStream compressingStream = compress(outputStream)) {
+        writer.writeTo(compressingStream);
+      }
+    };
+  }
+
+  /**
+   * Wraps the given stream, so that data written to it is compressed with gzip. Closing the
+   * returned stream completes the compressed data, but does not close the given stream.
+   *
+   * @param outputStream stream the compressed data is written to
+   * @return stream compressing the written data
+   * @throws IOException if the gzip header can not be written
+   */
+  public static OutputStream compress(OutputStream outputStream) throws IOException {
+    return new GZIPOutputStream(new CloseShieldOutputStream(outputStream), BUFFER_SIZE);
+  }
+
+  private static double getQuality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2).trim());
+        } catch (NumberFormatException ex) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Opens connections used to fill reports, taken from the dedicated pool of the reporting database.
+ * The connections are read-only and do not auto-commit, and every statement created by them gets
+ * the configured fetch size, so that the database driver streams large result sets through
+ * a cursor instead of reading them into memory at once.
+ * The fetch size can be overridden by a template with the {@value #FETCH_SIZE_PROPERTY} report
+ * property; zero leaves the fetch size of the driver. Statements which are still running can be
+ * cancelled through the returned {@link ReportConnection}, e.g. when the fill is cancelled.
+ * If a {@link ReportQueryLog} is given, every statement is recorded in it together with its bind
+ * values, the time of its execution and of fetching its rows, and the number of rows. If
+ * {@link FillLimits} are given, every row read through the connection is counted in them, and
+ * reading fails once the fill has read more rows than allowed.
+ */
+@Component
+public class ReportConnectionFactory {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportConnectionFactory.class);
+
+  static final String FETCH_SIZE_PROPERTY = "fetchSize";
+
+  @Autowired
+  private ReportDataSource reportDataSource;
+
+  @Value("${reports.jdbc.fetchSize}")
+  private int fetchSize;
+
+  /**
+   * Opens a connection to fill the given report. The previous state of the connection is
+   * restored when it is closed.
+   *
+   * @param report compiled report that will be filled
+   * @return read-only connection
+   * @throws SQLException if the connection can not be opened
+   */
+  public ReportConnection getConnection(JasperReport report) throws SQLException {
+    return getConnection(report, null);
+  }
+
+  /**
+   * Opens a connection to fill the given report, which records its statements in the given log.
+   *
+   * @param report   compiled report that will be filled
+   * @param queryLog log of the statements, or null if they should not be recorded
+   * @return read-only connection
+   * @throws SQLException if the connection can not be opened
+   */
+  public ReportConnection getConnection(JasperReport report, ReportQueryLog queryLog)
+      throws SQLException {
+    return getConnection(report, queryLog, null);
+  }
+
+  /**
+   * Opens a connection to fill the given report, which records its statements in the given log
+   * and counts the rows it reads in the given limits.
+   *
+   * @param report     compiled report that will be filled
+   * @param queryLog   log of the statements, or null if they should not be recorded
+   * @param fillLimits limits of the fill, or null if the rows should not be counted
+   * @return read-only connection
+   * @throws SQLException if the connection can not be opened
+   */
+  public ReportConnection getConnection(JasperReport report, ReportQueryLog queryLog,
+      FillLimits fillLimits) throws SQLException {
+    Connection connection = reportDataSource.getConnection();
+
+    try {
+      ConnectionHandler handler =
+          new ConnectionHandler(connection, getFetchSize(report), queryLog, fillLimits);
+      connection.setReadOnly(true);
+      connection.setAutoCommit(false);
+
+      return (ReportConnection) Proxy.newProxyInstance(ReportConnection.class.getClassLoader(),
+          new Class<?>[] { ReportConnection.class }, handler);
+    } catch (SQLException | RuntimeException ex) {
+      connection.close();
+      throw ex;
+    }
+  }
+
+  private int getFetchSize(JasperReport report) {
+    String property = report == null ? null : report.getProperty(FETCH_SIZE_PROPERTY);
+    if (isBlank(property)) {
+      return fetchSize;
+    }
+
+    try {
+      return Integer.parseInt(property.trim());
+    } catch (NumberFormatException ex) {
+      LOGGER.warn("Invalid {} property of report {}: {}", FETCH_SIZE_PROPERTY,
+          report.getName(), property);
+      return fetchSize;
+    }
+  }
+
+  /**
+   * Connection which can cancel the statements it has created.
+   */
+  public interface ReportConnection extends Connection {
+
+    /**
+     * Cancels all statements created by this connection which are still running.
+     */
+    void cancel();
+
+    /**
+     * Lets the database cancel statements of the current transaction which take longer than
+     * the given time.
+     *
+     * @param seconds maximum duration of a statement, or zero if unlimited
+     * @throws SQLException if the timeout can not be set
+     */
+    void setStatementTimeout(long seconds) throws SQLException;
+  }
+
+  private static String getSql(Object[] args, String defaultSql) {
+    return args != null && args.length > 0 && args[0] instanceof String
+        ? (String) args[0]
+        : defaultSql;
+  }
+
+  private static final class ConnectionHandler implements InvocationHandler {
+    private final Queue<Statement> statements = new ConcurrentLinkedQueue<>();
+    private final Connection connection;
+    private final int fetchSize;
+    private final ReportQueryLog queryLog;
+    private final FillLimits fillLimits;
+    private final boolean autoCommit;
+    private final boolean readOnly;
+
+    ConnectionHandler(Connection connection, int fetchSize, ReportQueryLog queryLog,
+        FillLimits fillLimits) throws SQLException {
+      this.connection = connection;
+      this.fetchSize = fetchSize;
+      this.queryLog = queryLog;
+      this.fillLimits = fillLimits;
+      this.autoCommit = connection.getAutoCommit();
+      this.readOnly = connection.isReadOnly();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("close".equals(method.getName())) {
+        close();
+        return null;
+      }
+
+      if ("cancel".equals(method.getName())) {
+        cancel();
+        return null;
+      }
+
+      if ("setStatementTimeout".equals(method.getName())) {
+        setStatementTimeout((Long) args[0]);
+        return null;
+      }
+
+      Object result;
+      try {
+        result = method.invoke(connection, args);
+      } catch (InvocationTargetException ex) {
+        throw ex.getCause();
+      }
+
+      if (result instanceof Statement) {
+        Statement statement = (Statement) result;
+        statements.add(statement);
+        if (fetchSize > 0) {
+          statement.setFetchSize(fetchSize);
+        }
+        if (queryLog != null || fillLimits != null) {
+          return profile(statement, method.getReturnType(), getSql(args, null));
+        }
+      }
+      return result;
+    }
+
+    private Statement profile(Statement statement, Class<?> type, String sql) {
+      Class<?> statementType = CallableStatement.class.equals(type)
+          ? CallableStatement.class
+          : PreparedStatement.class.equals(type) ? PreparedStatement.class : Statement.class;
+
+      return (Statement) Proxy.newProxyInstance(statementType.getClassLoader(),
+          new Class<?>[] { statementType },
+          new StatementHandler(statement, sql, queryLog, fillLimits));
+    }
+
+    private void cancel() {
+      for (Statement statement : statements) {
+        try {
+          if (!statement.isClosed()) {
+            statement.cancel();
+          }
+        } catch (SQLException ex) {
+          LOGGER.debug("Could not cancel report statement", ex);
+        }
+      }
+    }
+
+    private void setStatementTimeout(long seconds) throws SQLException {
+      if (seconds > 0) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("SET LOCAL statement_timeout = " + seconds * 1000);
+        }
+      }
+    }
+
+    private void close() throws SQLException {
+      if (connection.isClosed()) {
+        return;
+      }
+
+      try {
+        connection.rollback();
+        connection.setAutoCommit(autoCommit);
+        connection.setReadOnly(readOnly);
+      } finally {
+        connection.close();
+      }
+    }
+  }
+
+  private static final class StatementHandler implements InvocationHandler {
+    private final List<String> parameters = new ArrayList<>();
+    private final Statement statement;
+    private final String sql;
+    private final ReportQueryLog queryLog;
+    private final FillLimits fillLimits;
+    private QueryProfile lastQuery;
+
+    StatementHandler(Statement statement, String sql, ReportQueryLog queryLog,
+        FillLimits fillLimits) {
+      this.statement = statement;
+      this.sql = sql;
+      this.queryLog = queryLog;
+      this.fillLimits = fillLimits;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (queryLog != null) {
+        recordParameters(name, args);
+      }
+
+      boolean execution = queryLog != null && name.startsWith("execute");
+      long start = System.nanoTime();
+      Object result;
+      try {
+        result = method.invoke(statement, args);
+      } catch (InvocationTargetException ex) {
+        throw ex.getCause();
+      } finally {
+        if (execution) {
+          lastQuery = queryLog.getQuery(String.valueOf(getSql(args, sql)));
+          lastQuery.addExecution(System.nanoTime() - start, parameters);
+        }
+      }
+
+      if (result instanceof ResultSet && (lastQuery != null || fillLimits != null)) {
+        return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+            new Class<?>[] { ResultSet.class },
+            new ResultSetHandler((ResultSet) result, lastQuery, fillLimits));
+      }
+      return result;
+    }
+
+    private void recordParameters(String name, Object[] args) {
+      if (isParameterSetter(name, args)) {
+        setParameter((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+      } else if ("clearParameters".equals(name)) {
+        parameters.clear();
+      }
+    }
+
+    private static boolean isParameterSetter(String name, Object[] args) {
+      return name.startsWith("set") && args != null && args.length >= 2
+          && args[0] instanceof Integer && (Integer) args[0] > 0;
+    }
+
+    private void setParameter(int index, Object value) {
+      while (parameters.size() < index) {
+        parameters.add(null);
+      }
+      parameters.set(index - 1, queryLog.describeParameter(value));
+    }
+  }
+
+  private static final class ResultSetHandler implements InvocationHandler {
+    private final ResultSet resultSet;
+    private final QueryProfile query;
+    private final FillLimits fillLimits;
+
+    ResultSetHandler(ResultSet resultSet, QueryProfile query, FillLimits fillLimits) {
+      this.resultSet = resultSet;
+      this.query = query;
+      this.fillLimits = fillLimits;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      boolean next = "next".equals(method.getName());
+      long start = System.nanoTime();
+      try {
+        Object result = method.invoke(resultSet, args);
+        if (next) {
+          countRow(System.nanoTime() - start, Boolean.TRUE.equals(result));
+        }
+        return result;
+      } catch (InvocationTargetException ex) {
+        throw ex.getCause();
+      }
+    }
+
+    private void countRow(long nanos, boolean row) throws SQLException {
+      if (query != null) {
+        query.addFetch(nanos, row);
+      }
+      if (row && fillLimits != null) {
+        fillLimits.countRecord();
+      }
+    }
+  }
+}
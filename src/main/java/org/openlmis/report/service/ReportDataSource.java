@@ -0,0 +1,250 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Clock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of connections used only by report fills, so that heavy reports do not take connections
+ * from the pool used by the rest of the service. The pool connects to the reporting database,
+ * usually a read replica, and can fall back to the primary database according to the policy:
+ * <ul>
+ *   <li>{@code never} - fills fail while the reporting database is unavailable,</li>
+ *   <li>{@code unavailable} - fills use the primary database while the reporting database can
+ *   not be connected to,</li>
+ *   <li>{@code lagging} - fills use the primary database also while the replica is further
+ *   behind the primary than the maximum replication lag.</li>
+ * </ul>
+ * The reporting database is checked again after the recheck interval. The fallback pool is
+ * created with the same settings on first use.
+ */
+@Component
+public class ReportDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportDataSource.class);
+
+  static final String FALLBACK_NEVER = "never";
+  static final String FALLBACK_UNAVAILABLE = "unavailable";
+  static final String FALLBACK_LAGGING = "lagging";
+  static final String REPLICATION_LAG_QUERY = "SELECT CASE WHEN pg_is_in_recovery()"
+      + " THEN COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)"
+      + " ELSE 0 END";
+
+  @Autowired
+  private Clock clock;
+
+  @Autowired
+  private ReportMetrics reportMetrics;
+
+  @Value("${spring.datasource.url}")
+  private String primaryUrl;
+
+  @Value("${spring.datasource.username}")
+  private String primaryUsername;
+
+  @Value("${spring.datasource.password}")
+  private String primaryPassword;
+
+  @Value("${reports.datasource.url}")
+  private String url;
+
+  @Value("${reports.datasource.username}")
+  private String username;
+
+  @Value("${reports.datasource.password}")
+  private String password;
+
+  @Value("${reports.datasource.maxPoolSize}")
+  private int maxPoolSize;
+
+  @Value("${reports.datasource.connectionTimeout}")
+  private long connectionTimeout;
+
+  @Value("${reports.datasource.leakDetectionThreshold}")
+  private long leakDetectionThreshold;
+
+  @Value("${reports.datasource.readOnly}")
+  private boolean readOnly;
+
+  @Value("${reports.datasource.fallback}")
+  private String fallback;
+
+  @Value("${reports.datasource.maxReplicationLag}")
+  private long maxReplicationLag;
+
+  @Value("${reports.datasource.recheckInterval}")
+  private long recheckInterval;
+
+  private DataSource reporting;
+  private volatile DataSource primary;
+
+  private volatile long unavailableUntil;
+  private volatile long lagCheckedAt = Long.MIN_VALUE;
+  private volatile boolean lagging;
+
+  /**
+   * Validates the fallback policy and creates the pool of the reporting database. The service
+   * starts even if the database is unavailable at the time.
+   */
+  @PostConstruct
+  public void init() {
+    if (!FALLBACK_NEVER.equals(fallback) && !FALLBACK_UNAVAILABLE.equals(fallback)
+        && !FALLBACK_LAGGING.equals(fallback)) {
+      throw new IllegalStateException("Unknown reporting database fallback: " + fallback);
+    }
+    reporting = createPool("reporting", url, username, password);
+  }
+
+  /**
+   * Closes the pools.
+   */
+  @PreDestroy
+  public void shutdown() {
+    close(reporting);
+    close(primary);
+  }
+
+  /**
+   * Returns a connection of the reporting database, or of the primary database if the reporting
+   * database should not be used at the moment.
+   *
+   * @return pooled connection
+   * @throws SQLException if no database can be connected to
+   */
+  public Connection getConnection() throws SQLException {
+    if (!FALLBACK_NEVER.equals(fallback) && isReportingDatabaseAvoided()) {
+      return getPrimary().getConnection();
+    }
+
+    Connection connection;
+    try {
+      connection = reporting.getConnection();
+    } catch (SQLException ex) {
+      if (FALLBACK_NEVER.equals(fallback) || !isUnavailable(ex)) {
+        throw ex;
+      }
+      LOGGER.warn("Reporting database is unavailable, using the primary database for {} ms",
+          recheckInterval, ex);
+      unavailableUntil = clock.millis() + recheckInterval;
+      return getPrimary().getConnection();
+    }
+
+    if (FALLBACK_LAGGING.equals(fallback) && isLagging(connection)) {
+      connection.close();
+      return getPrimary().getConnection();
+    }
+    return connection;
+  }
+
+  private boolean isReportingDatabaseAvoided() {
+    long now = clock.millis();
+    return now < unavailableUntil
+        || FALLBACK_LAGGING.equals(fallback) && lagging && now < lagCheckedAt + recheckInterval;
+  }
+
+  private boolean isLagging(Connection connection) {
+    long now = clock.millis();
+    if (now < lagCheckedAt + recheckInterval) {
+      return lagging;
+    }
+
+    synchronized (this) {
+      if (now >= lagCheckedAt + recheckInterval) {
+        double lag = getReplicationLag(connection);
+        lagging = lag > maxReplicationLag;
+        lagCheckedAt = now;
+        if (lagging) {
+          LOGGER.warn("Reporting database is {} s behind the primary, using the primary database"
+              + " for {} ms", lag, recheckInterval);
+        }
+      }
+      return lagging;
+    }
+  }
+
+  private double getReplicationLag(Connection connection) {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(REPLICATION_LAG_QUERY)) {
+      return resultSet.next() ? resultSet.getDouble(1) : 0;
+    } catch (SQLException ex) {
+      LOGGER.warn("Could not check replication lag of the reporting database", ex);
+      return 0;
+    }
+  }
+
+  /**
+   * A pool that can not hand out a connection in time because all of them are busy is not
+   * unavailable; its timeout exception has no cause, unlike a failed attempt to connect.
+   */
+  private boolean isUnavailable(SQLException ex) {
+    return !(ex instanceof SQLTransientConnectionException) || ex.getCause() != null;
+  }
+
+  private DataSource getPrimary() {
+    if (primary == null) {
+      synchronized (this) {
+        if (primary == null) {
+          primary = createPool("reporting-fallback", primaryUrl, primaryUsername,
+              primaryPassword);
+        }
+      }
+    }
+    return primary;
+  }
+
+  private DataSource createPool(String poolName, String jdbcUrl, String user, String pass) {
+    HikariConfig config = new HikariConfig();
+    config.setPoolName(poolName);
+    config.setJdbcUrl(jdbcUrl);
+    config.setUsername(user);
+    config.setPassword(pass);
+    config.setMaximumPoolSize(maxPoolSize);
+    config.setConnectionTimeout(connectionTimeout);
+    config.setLeakDetectionThreshold(leakDetectionThreshold);
+    config.setReadOnly(readOnly);
+    config.setInitializationFailTimeout(-1);
+
+    HikariDataSource pool = new HikariDataSource(config);
+    reportMetrics.monitorPool(pool);
+    return pool;
+  }
+
+  private void close(DataSource dataSource) {
+    if (dataSource instanceof Closeable) {
+      try {
+        ((Closeable) dataSource).close();
+      } catch (IOException ex) {
+        LOGGER.warn("Could not close reporting connection pool", ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_LIMIT;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.utils.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of report fills running at the same time, in total and for a single
+ * template, so that one heavily used report cannot take all connections and memory. Fills
+ * above the limit wait in a bounded queue; if the queue is full or the wait takes too long,
+ * the fill is rejected with {@link TooManyRequestsMessageException}. The limit of a template
+ * can be overridden with the {@value #MAX_CONCURRENT_FILLS_PROPERTY} report property.
+ */
+@Component
+public class ReportFillLimiter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportFillLimiter.class);
+
+  static final String MAX_CONCURRENT_FILLS_PROPERTY = "maxConcurrentFills";
+
+  private final Map<UUID, Bulkhead> templateBulkheads = new ConcurrentHashMap<>();
+  private final Bulkhead globalBulkhead;
+  private final int maxConcurrentPerTemplate;
+  private final int maxQueued;
+  private final long maxWait;
+  private final long retryAfter;
+
+  /**
+   * Creates a limiter of concurrent report fills.
+   *
+   * @param maxConcurrent            maximum number of fills running at the same time, zero
+   *                                 disables the limit
+   * @param maxConcurrentPerTemplate default maximum number of fills of a single template, zero
+   *                                 disables the limit
+   * @param maxQueued                maximum number of fills waiting for each limit
+   * @param maxWait                  maximum time in milliseconds a fill waits for its turn
+   * @param retryAfter               seconds after which a rejected request may be retried
+   */
+  public ReportFillLimiter(@Value("${reports.fills.maxConcurrent}") int maxConcurrent,
+      @Value("${reports.fills.maxConcurrentPerTemplate}") int maxConcurrentPerTemplate,
+      @Value("${reports.fills.maxQueued}") int maxQueued,
+      @Value("${reports.fills.maxWait}") long maxWait,
+      @Value("${reports.fills.retryAfter}") long retryAfter) {
+    this.globalBulkhead = maxConcurrent > 0 ? new Bulkhead(maxConcurrent, maxQueued) : null;
+    this.maxConcurrentPerTemplate = maxConcurrentPerTemplate;
+    this.maxQueued = maxQueued;
+    this.maxWait = maxWait;
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Waits until the report of the given template may be filled. The returned permit must be
+   * closed once the fill is finished.
+   *
+   * @param templateId ID of the template
+   * @param report     compiled report of the template
+   * @return permit to fill the report
+   * @throws TooManyRequestsMessageException if the fill can not start within the wait time
+   */
+  public FillPermit acquire(UUID templateId, JasperReport report) {
+    Bulkhead templateBulkhead = getTemplateBulkhead(templateId, report);
+    enter(templateBulkhead);
+
+    try {
+      enter(globalBulkhead);
+    } catch (RuntimeException ex) {
+      release(templateBulkhead);
+      throw ex;
+    }
+
+    AtomicBoolean released = new AtomicBoolean();
+    return () -> {
+      if (released.compareAndSet(false, true)) {
+        release(globalBulkhead);
+        release(templateBulkhead);
+      }
+    };
+  }
+
+  int getAvailablePermits(UUID templateId) {
+    Bulkhead bulkhead = templateBulkheads.get(templateId);
+    return bulkhead == null ? maxConcurrentPerTemplate : bulkhead.permits.availablePermits();
+  }
+
+  private Bulkhead getTemplateBulkhead(UUID templateId, JasperReport report) {
+    if (templateId == null) {
+      return null;
+    }
+
+    int limit = getTemplateLimit(report);
+    if (limit <= 0) {
+      templateBulkheads.remove(templateId);
+      return null;
+    }
+
+    return templateBulkheads.compute(templateId, (id, bulkhead) ->
+        bulkhead != null && bulkhead.limit == limit ? bulkhead : new Bulkhead(limit, maxQueued));
+  }
+
+  private int getTemplateLimit(JasperReport report) {
+    String property = report == null ? null : report.getProperty(MAX_CONCURRENT_FILLS_PROPERTY);
+    if (isBlank(property)) {
+      return maxConcurrentPerTemplate;
+    }
+
+    try {
+      return Integer.parseInt(property.trim());
+    } catch (NumberFormatException ex) {
+      LOGGER.warn("Invalid {} property of report {}: {}", MAX_CONCURRENT_FILLS_PROPERTY,
+          report.getName(), property);
+      return maxConcurrentPerTemplate;
+    }
+  }
+
+  private void enter(Bulkhead bulkhead) {
+    if (bulkhead == null) {
+      return;
+    }
+
+    try {
+      if (bulkhead.permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+
+      if (bulkhead.waiting.incrementAndGet() > bulkhead.maxQueued) {
+        bulkhead.waiting.decrementAndGet();
+        throw reject();
+      }
+
+      try {
+        if (!bulkhead.permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+          throw reject();
+        }
+      } finally {
+        bulkhead.waiting.decrementAndGet();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw reject();
+    }
+  }
+
+  private void release(Bulkhead bulkhead) {
+    if (bulkhead != null) {
+      bulkhead.permits.release();
+    }
+  }
+
+  private TooManyRequestsMessageException reject() {
+    return new TooManyRequestsMessageException(new Message(ERROR_JASPER_REPORT_FILL_LIMIT),
+        retryAfter);
+  }
+
+  /**
+   * Permit to fill a report, released when closed. Closing it more than once releases it only
+   * once.
+   */
+  @FunctionalInterface
+  public interface FillPermit extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  private static final class Bulkhead {
+    private final int limit;
+    private final int maxQueued;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Bulkhead(int limit, int maxQueued) {
+      this.limit = limit;
+      this.maxQueued = maxQueued;
+      this.permits = new Semaphore(limit, true);
+    }
+  }
+}
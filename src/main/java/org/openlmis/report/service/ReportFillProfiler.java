@@ -0,0 +1,180 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Captures the SQL statements executed by report fills. Every fill is logged as a single JSON
+ * line with the time spent executing each statement and fetching its rows, at INFO level if it
+ * took longer than the slow fill threshold and at DEBUG level otherwise. The most recent fills
+ * are kept, so that the slowest of them can be listed, and a short summary of the statements
+ * can be returned to the client in a debug header.
+ */
+@Component
+public class ReportFillProfiler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportFillProfiler.class);
+
+  static final int MAX_HEADER_LENGTH = 2000;
+
+  private final Deque<FillProfile> fills = new ArrayDeque<>();
+
+  @Autowired
+  private Clock clock;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Value("${reports.sqlCapture.enabled}")
+  private boolean enabled;
+
+  @Value("${reports.sqlCapture.redactParameters}")
+  private boolean redactParameters;
+
+  @Value("${reports.sqlCapture.debugHeader}")
+  private boolean debugHeader;
+
+  @Value("${reports.sqlCapture.maxFills}")
+  private int maxFills;
+
+  @Value("${reports.sqlCapture.slowFillThreshold}")
+  private long slowFillThreshold;
+
+  /**
+   * Creates a log of the statements of a new fill.
+   *
+   * @return query log, or null if the capture is disabled
+   */
+  public ReportQueryLog createQueryLog() {
+    return enabled ? new ReportQueryLog(redactParameters) : null;
+  }
+
+  /**
+   * Records a finished or failed fill together with the statements it has executed.
+   *
+   * @param templateName  name of the filled template
+   * @param durationNanos duration of the fill, in nanoseconds
+   * @param pages         number of filled pages
+   * @param completed     whether the fill has completed successfully
+   * @param queryLog      log of the statements, or null if the capture is disabled
+   * @return profile of the fill, or null if the capture is disabled
+   */
+  public FillProfile record(String templateName, long durationNanos, int pages,
+      boolean completed, ReportQueryLog queryLog) {
+    if (queryLog == null) {
+      return null;
+    }
+
+    long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    FillProfile profile = new FillProfile(templateName,
+        ZonedDateTime.now(clock).minusNanos(durationNanos), durationMillis, pages, completed,
+        queryLog.getQueries());
+
+    if (durationMillis > slowFillThreshold) {
+      LOGGER.info("Slow report fill: {}", toJson(profile));
+    } else if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Report fill: {}", toJson(profile));
+    }
+
+    if (maxFills > 0) {
+      synchronized (fills) {
+        fills.addLast(profile);
+        while (fills.size() > maxFills) {
+          fills.removeFirst();
+        }
+      }
+    }
+    return profile;
+  }
+
+  /**
+   * Returns the slowest of the recently recorded fills.
+   *
+   * @param limit maximum number of fills to return
+   * @return fills sorted from the slowest one
+   */
+  public List<FillProfile> getSlowestFills(int limit) {
+    List<FillProfile> recent;
+    synchronized (fills) {
+      recent = new ArrayList<>(fills);
+    }
+
+    return recent.stream()
+        .sorted(Comparator.comparingLong(FillProfile::getDurationMillis).reversed())
+        .limit(Math.max(limit, 0))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns a summary of the statements of the fill to be sent in a debug header. The statements
+   * are sorted from the slowest one, and the summary is cut off at
+   * {@value #MAX_HEADER_LENGTH} characters.
+   *
+   * @param profile profile of the fill, may be null
+   * @return summary of the statements, or empty if the debug header is disabled
+   */
+  public Optional<String> getDebugHeader(FillProfile profile) {
+    if (!debugHeader || profile == null) {
+      return Optional.empty();
+    }
+
+    String header = profile.getQueries().stream()
+        .sorted(Comparator.comparingDouble(QueryProfile::getTotalMillis).reversed())
+        .map(query -> String.format(Locale.ENGLISH, "%.1fms/%.1fms x%d %d rows: %s",
+            query.getExecutionMillis(), query.getFetchMillis(), query.getExecutions(),
+            query.getRows(), query.getSql()))
+        .collect(Collectors.joining("; "));
+
+    header = toAscii(header);
+    if (header.length() > MAX_HEADER_LENGTH) {
+      header = header.substring(0, MAX_HEADER_LENGTH - 3) + "...";
+    }
+    return Optional.of(header);
+  }
+
+  private String toJson(FillProfile profile) {
+    try {
+      return objectMapper.writeValueAsString(profile);
+    } catch (JsonProcessingException ex) {
+      LOGGER.debug("Could not serialize report fill profile", ex);
+      return profile.getTemplateName();
+    }
+  }
+
+  private static String toAscii(String value) {
+    String ascii = new String(value.getBytes(StandardCharsets.US_ASCII),
+        StandardCharsets.US_ASCII);
+    return ascii.replaceAll("\\s+", " ").replaceAll("\\p{Cntrl}", "?").trim();
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_CANCELLED;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_TIMEOUT;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.AsynchronousFillHandle;
+import net.sf.jasperreports.engine.fill.AsynchronousFilllListener;
+import net.sf.jasperreports.engine.fill.FillListener;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fills reports in a separate thread, so that a fill can be cancelled. A fill is cancelled when
+ * it takes longer than the timeout, which can be overridden by a template with the
+ * {@value #TIMEOUT_PROPERTY} report property, or when the waiting thread is interrupted. Both the
+ * fill and the statements running on its connection are cancelled. Fills of a page range are
+ * stopped as soon as the last page of the range is complete. Fills which exceed the record or
+ * page limit of the report are cancelled as well.
+ */
+@Component
+public class ReportFiller {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportFiller.class);
+
+  static final String TIMEOUT_PROPERTY = "fillTimeout";
+
+  static final String REASON_TIMEOUT = "timeout";
+  static final String REASON_INTERRUPTED = "interrupted";
+  static final String REASON_LIMIT = "limit";
+
+  private static final long CANCEL_WAIT_SECONDS = 30;
+
+  @Autowired
+  private ReportMetrics reportMetrics;
+
+  @Value("${reports.fills.timeout}")
+  private long timeout;
+
+  /**
+   * Fills the report with data from the given connection and waits until the fill is finished.
+   * If a page range is given, the filled report contains only the pages of the range.
+   *
+   * @param templateName name of the filled template
+   * @param report       compiled report
+   * @param params       fill parameters
+   * @param connection   connection used by the report queries
+   * @param pageRange    pages to fill, or null to fill the whole report
+   * @param fillLimits   limits in which the records and pages of the fill are counted
+   * @return filled report
+   * @throws JRException if the fill fails
+   * @throws JasperReportViewException if the fill is cancelled or exceeds its limits
+   */
+  public JasperPrint fill(String templateName, JasperReport report, Map<String, Object> params,
+      ReportConnection connection, PageRange pageRange, FillLimits fillLimits)
+      throws JRException, JasperReportViewException {
+    final long seconds = getTimeout(report);
+    final long start = System.nanoTime();
+
+    FillResult result = new FillResult(
+        pageRange == null || pageRange.getTo() == null ? 0 : pageRange.getTo(), fillLimits);
+    AsynchronousFillHandle handle =
+        AsynchronousFillHandle.createHandle(report, params, connection);
+    handle.addListener(result);
+    handle.addFillListener(result);
+    handle.startFill();
+
+    try {
+      if (!result.await(seconds)) {
+        cancel(handle, connection, result);
+        reportMetrics.fillCancelled(templateName, REASON_TIMEOUT, System.nanoTime() - start,
+            result.pages.get());
+        throw new JasperReportViewException(new TimeoutException(),
+            ERROR_JASPER_REPORT_FILL_TIMEOUT, String.valueOf(seconds));
+      }
+    } catch (InterruptedException ex) {
+      cancel(handle, connection, result);
+      reportMetrics.fillCancelled(templateName, REASON_INTERRUPTED, System.nanoTime() - start,
+          result.pages.get());
+      Thread.currentThread().interrupt();
+      throw new JasperReportViewException(ex, ERROR_JASPER_REPORT_FILL_CANCELLED);
+    }
+
+    if (fillLimits.isExceeded()) {
+      cancel(handle, connection, result);
+      reportMetrics.fillCancelled(templateName, REASON_LIMIT, System.nanoTime() - start,
+          result.pages.get());
+      fillLimits.throwIfExceeded();
+    }
+
+    if (result.lastPageFilled) {
+      LOGGER.debug("Stopping fill of report {} after page {}", report.getName(),
+          result.lastPage);
+      cancel(handle, connection, result);
+    }
+
+    JasperPrint jasperPrint = result.getJasperPrint();
+    if (pageRange != null) {
+      pageRange.apply(jasperPrint);
+    }
+    return jasperPrint;
+  }
+
+  long getTimeout(JasperReport report) {
+    String property = report.getProperty(TIMEOUT_PROPERTY);
+    if (isBlank(property)) {
+      return timeout;
+    }
+
+    try {
+      return Long.parseLong(property.trim());
+    } catch (NumberFormatException ex) {
+      LOGGER.warn("Invalid {} property of report {}: {}", TIMEOUT_PROPERTY,
+          report.getName(), property);
+      return timeout;
+    }
+  }
+
+  private void cancel(AsynchronousFillHandle handle, ReportConnection connection,
+      FillResult result) {
+    try {
+      handle.cancellFill();
+    } catch (JRException | IllegalStateException ex) {
+      LOGGER.debug("Could not cancel report fill", ex);
+    }
+    result.cancelled.countDown();
+
+    if (connection != null) {
+      connection.cancel();
+    }
+
+    try {
+      if (!result.stopped.await(CANCEL_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        LOGGER.warn("Cancelled report fill did not stop within {} seconds", CANCEL_WAIT_SECONDS);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class FillResult implements AsynchronousFilllListener, FillListener {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private final AtomicInteger pages = new AtomicInteger();
+    private final int lastPage;
+    private final FillLimits fillLimits;
+    private volatile boolean lastPageFilled;
+    private volatile JasperPrint jasperPrint;
+    private volatile Throwable error;
+
+    FillResult(int lastPage, FillLimits fillLimits) {
+      this.lastPage = lastPage;
+      this.fillLimits = fillLimits;
+    }
+
+    boolean await(long seconds) throws InterruptedException {
+      if (seconds > 0) {
+        return done.await(seconds, TimeUnit.SECONDS);
+      }
+
+      done.await();
+      return true;
+    }
+
+    JasperPrint getJasperPrint() throws JRException {
+      if (lastPageFilled) {
+        return jasperPrint;
+      }
+      if (error instanceof JRException) {
+        throw (JRException) error;
+      }
+      if (error != null) {
+        throw new JRException(error);
+      }
+      if (jasperPrint == null) {
+        throw new JRException("Report fill was cancelled");
+      }
+      return jasperPrint;
+    }
+
+    @Override
+    public void reportFinished(JasperPrint jasperPrint) {
+      if (!lastPageFilled) {
+        this.jasperPrint = jasperPrint;
+      }
+      stop();
+    }
+
+    @Override
+    public void reportCancelled() {
+      stop();
+    }
+
+    @Override
+    public void reportFillError(Throwable error) {
+      this.error = error;
+      stop();
+    }
+
+    /**
+     * A page is generated once the previous one is complete, so the fill can be stopped when
+     * the page after the last one is started. The fill thread then waits until the fill is
+     * cancelled, so that it does not read further records in the meantime.
+     */
+    @Override
+    public void pageGenerated(JasperPrint jasperPrint, int pageIndex) {
+      pages.incrementAndGet();
+      if (!fillLimits.countPage()) {
+        done.countDown();
+        return;
+      }
+
+      if (lastPage > 0 && pageIndex >= lastPage && !lastPageFilled) {
+        this.jasperPrint = jasperPrint;
+        lastPageFilled = true;
+        done.countDown();
+        awaitCancel();
+      }
+    }
+
+    private void awaitCancel() {
+      try {
+        if (!cancelled.await(CANCEL_WAIT_SECONDS, TimeUnit.SECONDS)) {
+          LOGGER.warn("Fill stopped after the last page was not cancelled within {} seconds",
+              CANCEL_WAIT_SECONDS);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void pageUpdated(JasperPrint jasperPrint, int pageIndex) {
+      // only new pages are counted
+    }
+
+    private void stop() {
+      done.countDown();
+      stopped.countDown();
+    }
+  }
+}
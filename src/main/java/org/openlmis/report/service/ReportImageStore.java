@@ -0,0 +1,97 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps images of exported HTML reports, like report images and rendered charts, by the
+ * SHA-256 hash of their content. HTML reports refer to the images by the hash instead of
+ * embedding them, so that an image never changes under its URL and browsers can cache it.
+ * The store is bounded by the total size of kept images, and images expire once they have not
+ * been exported or requested for the time to live.
+ */
+@Component
+public class ReportImageStore {
+  private static final String IMAGE_PATH = "/api/reports/images/content/";
+
+  private final Cache<String, byte[]> images;
+  private final boolean enabled;
+  private final String serviceUrl;
+
+  /**
+   * Creates a store of exported images.
+   *
+   * @param enabled    whether HTML reports should refer to kept images instead of embedding them
+   * @param maxBytes   maximum total size of kept images
+   * @param timeToLive time in seconds after which unused images are removed
+   * @param serviceUrl base URL of the service
+   */
+  public ReportImageStore(@Value("${reports.html.images.enabled}") boolean enabled,
+      @Value("${reports.html.images.maxBytes}") long maxBytes,
+      @Value("${reports.html.images.timeToLive}") long timeToLive,
+      @Value("${service.url}") String serviceUrl) {
+    this.images = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((String key, byte[] value) -> value.length)
+        .expireAfterAccess(timeToLive, TimeUnit.SECONDS)
+        .build();
+    this.enabled = enabled;
+    this.serviceUrl = serviceUrl;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Keeps the image and returns its hash.
+   *
+   * @param data image data
+   * @return hex encoded SHA-256 hash of the data
+   */
+  public String put(byte[] data) {
+    String hash = DigestUtils.sha256Hex(data);
+    images.get(hash, key -> data);
+    return hash;
+  }
+
+  /**
+   * Returns the URL of the image with the given hash.
+   *
+   * @param hash hash returned when the image was kept
+   * @return absolute URL of the image
+   */
+  public String getUrl(String hash) {
+    return serviceUrl + IMAGE_PATH + hash;
+  }
+
+  /**
+   * Returns the image with the given hash, if it is still kept.
+   *
+   * @param hash hash returned when the image was kept
+   * @return image data
+   */
+  public Optional<byte[]> get(String hash) {
+    return Optional.ofNullable(images.getIfPresent(hash));
+  }
+}
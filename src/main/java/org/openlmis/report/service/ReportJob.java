@@ -0,0 +1,99 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import lombok.Getter;
+import org.openlmis.report.utils.Message;
+
+/**
+ * Report generated in the background. Jobs are kept in memory of the node that accepted them,
+ * and their output is stored in a file until the job expires. The output of compressible formats
+ * is stored compressed with gzip.
+ */
+@Getter
+public class ReportJob {
+  private final UUID id;
+  private final UUID templateId;
+  private final String templateName;
+  private final String format;
+  private final ZonedDateTime createdDate;
+
+  private volatile ReportJobStatus status = ReportJobStatus.QUEUED;
+  private volatile ZonedDateTime finishedDate;
+  private volatile Path output;
+  private volatile boolean compressed;
+  private volatile Message error;
+
+  ReportJob(UUID templateId, String templateName, String format, ZonedDateTime createdDate) {
+    this.id = UUID.randomUUID();
+    this.templateId = templateId;
+    this.templateName = templateName;
+    this.format = format;
+    this.createdDate = createdDate;
+  }
+
+  void start() {
+    status = ReportJobStatus.RUNNING;
+  }
+
+  void complete(Path output, boolean compressed, ZonedDateTime finishedDate) {
+    this.output = output;
+    this.compressed = compressed;
+    this.finishedDate = finishedDate;
+    this.status = ReportJobStatus.COMPLETED;
+  }
+
+  void fail(Message error, ZonedDateTime finishedDate) {
+    this.error = error;
+    this.finishedDate = finishedDate;
+    this.status = ReportJobStatus.FAILED;
+  }
+
+  boolean isFinished() {
+    return status == ReportJobStatus.COMPLETED || status == ReportJobStatus.FAILED;
+  }
+
+  /**
+   * Export this object to the specified exporter (DTO).
+   *
+   * @param exporter exporter to export to
+   */
+  public void export(Exporter exporter) {
+    exporter.setId(id);
+    exporter.setTemplateId(templateId);
+    exporter.setFormat(format);
+    exporter.setStatus(status);
+    exporter.setCreatedDate(createdDate);
+    exporter.setFinishedDate(finishedDate);
+  }
+
+  public interface Exporter {
+    void setId(UUID id);
+
+    void setTemplateId(UUID templateId);
+
+    void setFormat(String format);
+
+    void setStatus(ReportJobStatus status);
+
+    void setCreatedDate(ZonedDateTime createdDate);
+
+    void setFinishedDate(ZonedDateTime finishedDate);
+  }
+}
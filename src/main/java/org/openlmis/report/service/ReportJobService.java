@@ -0,0 +1,240 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_CANCELLED;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_GENERATION;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_OUTPUT;
+import static org.openlmis.report.i18n.ReportJobMessageKeys.ERROR_JOB_QUEUE_FULL;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.exception.BaseMessageException;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.OutputLimitExceededException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.utils.Message;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generates reports in the background on a bounded pool of workers, so that slow reports do not
+ * hold HTTP request threads. A job whose fill is rejected because too many reports are being
+ * filled is retried with a growing delay until its wait time runs out. Finished jobs and their
+ * output are removed after the retention period.
+ */
+@Service
+public class ReportJobService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportJobService.class);
+
+  private final Map<UUID, ReportJob> jobs = new ConcurrentHashMap<>();
+
+  @Autowired
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${reports.jobs.poolSize}")
+  private int poolSize;
+
+  @Value("${reports.jobs.queueCapacity}")
+  private int queueCapacity;
+
+  @Value("${reports.jobs.maxWait}")
+  private long maxWait;
+
+  @Value("${reports.jobs.retryDelay}")
+  private long retryDelay;
+
+  @Value("${reports.jobs.retentionMinutes}")
+  private long retentionMinutes;
+
+  @Value("${reports.jobs.directory}")
+  private String directory;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Creates the worker pool and the directory for job output.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    Files.createDirectories(Paths.get(directory));
+    executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("report-job-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues generation of a report. The report is generated in the locale of the caller. Throws
+   * {@link TooManyRequestsMessageException} if the queue is full.
+   *
+   * @param template template to generate the report from
+   * @param params   report parameters, including the format
+   * @return queued job
+   */
+  public ReportJob submit(JasperTemplate template, Map<String, Object> params) {
+    ReportJob job = new ReportJob(template.getId(), template.getName(),
+        (String) params.get("format"), ZonedDateTime.now(clock));
+    jobs.put(job.getId(), job);
+    Locale locale = LocaleContextHolder.getLocale();
+
+    try {
+      executor.execute(() -> run(job, template, params, locale));
+    } catch (RejectedExecutionException ex) {
+      jobs.remove(job.getId());
+      throw new TooManyRequestsMessageException(new Message(ERROR_JOB_QUEUE_FULL), ex);
+    }
+
+    LOGGER.debug("Queued report job {} for template {}", job.getId(), template.getId());
+    return job;
+  }
+
+  public Optional<ReportJob> findJob(UUID jobId) {
+    return Optional.ofNullable(jobs.get(jobId));
+  }
+
+  /**
+   * Removes jobs that finished before the retention period, together with their output.
+   */
+  @Scheduled(fixedDelayString = "${reports.jobs.cleanupInterval}")
+  public void removeExpiredJobs() {
+    ZonedDateTime expiryDate = ZonedDateTime.now(clock).minusMinutes(retentionMinutes);
+
+    jobs.values().removeIf(job -> {
+      if (!job.isFinished() || job.getFinishedDate().isAfter(expiryDate)) {
+        return false;
+      }
+      deleteOutput(job);
+      return true;
+    });
+  }
+
+  private void run(ReportJob job, JasperTemplate template, Map<String, Object> params,
+      Locale locale) {
+    LocaleContextHolder.setLocale(locale);
+    try {
+      generate(job, template, params);
+    } finally {
+      LocaleContextHolder.resetLocaleContext();
+    }
+  }
+
+  private void generate(ReportJob job, JasperTemplate template, Map<String, Object> params) {
+    job.start();
+
+    try (PreparedReport writer = prepareReport(template, params)) {
+      Path output = getOutputPath(job);
+      boolean compressed = ReportFormatHelper.isCompressible(job.getFormat());
+      try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(output))) {
+        if (compressed) {
+          ReportCompression.compress(writer).writeTo(outputStream);
+        } else {
+          writer.writeTo(outputStream);
+        }
+      }
+      job.complete(output, compressed, ZonedDateTime.now(clock));
+    } catch (JasperReportViewException ex) {
+      fail(job, ex, ex.asMessage());
+    } catch (BaseMessageException ex) {
+      fail(job, ex, ex.asMessage());
+    } catch (OutputLimitExceededException ex) {
+      fail(job, ex,
+          new Message(ERROR_JASPER_REPORT_LIMIT_OUTPUT, String.valueOf(ex.getLimit())));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      fail(job, ex, new Message(ERROR_JASPER_REPORT_FILL_CANCELLED));
+    } catch (IOException | RuntimeException ex) {
+      fail(job, ex, new Message(ERROR_JASPER_REPORT_GENERATION));
+    }
+  }
+
+  private PreparedReport prepareReport(JasperTemplate template, Map<String, Object> params)
+      throws JasperReportViewException, InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+    long delay = retryDelay;
+
+    while (true) {
+      try {
+        return jasperReportsViewService.prepareReport(template, params);
+      } catch (TooManyRequestsMessageException ex) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+          throw ex;
+        }
+
+        long maxDelay = ex.getRetryAfter() == null
+            ? remaining
+            : TimeUnit.SECONDS.toMillis(ex.getRetryAfter());
+        long wait = Math.min(Math.min(delay, maxDelay), remaining);
+        LOGGER.debug("Fill of template {} rejected, retrying in {} ms", template.getName(), wait);
+        Thread.sleep(wait);
+        delay *= 2;
+      }
+    }
+  }
+
+  private void fail(ReportJob job, Exception ex, Message message) {
+    LOGGER.error("Report job {} failed", job.getId(), ex);
+    job.fail(message, ZonedDateTime.now(clock));
+  }
+
+  private void deleteOutput(ReportJob job) {
+    try {
+      Files.deleteIfExists(getOutputPath(job));
+    } catch (IOException ex) {
+      LOGGER.warn("Could not delete output of report job {}", job.getId(), ex);
+    }
+  }
+
+  private Path getOutputPath(ReportJob job) {
+    String fileName = job.getId() + "." + job.getFormat();
+    if (ReportFormatHelper.isCompressible(job.getFormat())) {
+      fileName += ".gz";
+    }
+    return Paths.get(directory, fileName);
+  }
+}
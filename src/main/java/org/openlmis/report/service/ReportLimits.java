@@ -0,0 +1,254 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_PAGES;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_RECORDS;
+import static org.openlmis.report.i18n.ReportingMessageKeys.ERROR_REPORTING_LIMIT_INVALID;
+
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.jasperreports.engine.JRPropertiesHolder;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.OutputLimitExceededException;
+import org.openlmis.report.exception.ReportingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hard limits of a single report, which stop reports with unexpectedly large results before
+ * they exhaust the memory of the service. A template can override the configured limits with
+ * the {@value #MAX_RECORDS_PROPERTY}, {@value #MAX_PAGES_PROPERTY} and
+ * {@value #MAX_OUTPUT_BYTES_PROPERTY} report properties, and the fill duration with the
+ * {@value ReportFiller#TIMEOUT_PROPERTY} property. Zero disables a limit.
+ * Records are counted across all queries of a fill, including the queries of subreports and of
+ * all partitions, and pages are counted across all partitions.
+ */
+@Component
+public class ReportLimits {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportLimits.class);
+
+  static final String MAX_RECORDS_PROPERTY = "maxRecords";
+  static final String MAX_PAGES_PROPERTY = "maxPages";
+  static final String MAX_OUTPUT_BYTES_PROPERTY = "maxOutputBytes";
+
+  private static final String[] LIMIT_PROPERTIES = { MAX_RECORDS_PROPERTY, MAX_PAGES_PROPERTY,
+      MAX_OUTPUT_BYTES_PROPERTY, ReportFiller.TIMEOUT_PROPERTY };
+
+  @Value("${reports.limits.maxRecords}")
+  private long maxRecords;
+
+  @Value("${reports.limits.maxPages}")
+  private int maxPages;
+
+  @Value("${reports.limits.maxOutputBytes}")
+  private long maxOutputBytes;
+
+  /**
+   * Checks the limit properties of an uploaded report.
+   *
+   * @param report compiled report
+   * @throws ReportingException if any of the limits is not a non-negative number
+   */
+  public void validateTemplateLimits(JasperReport report) throws ReportingException {
+    for (String property : LIMIT_PROPERTIES) {
+      String value = report.getProperty(property);
+      if (!isBlank(value) && parseLimit(value) < 0) {
+        throw new ReportingException(ERROR_REPORTING_LIMIT_INVALID, property, value);
+      }
+    }
+  }
+
+  /**
+   * Creates the limits of a single fill of the given report.
+   *
+   * @param report compiled report that will be filled
+   * @return limits of the fill
+   */
+  public FillLimits getFillLimits(JasperReport report) {
+    return new FillLimits(getLimit(report, MAX_RECORDS_PROPERTY, maxRecords),
+        (int) getLimit(report, MAX_PAGES_PROPERTY, maxPages));
+  }
+
+  /**
+   * Returns the maximum number of records read by the queries of the given report.
+   *
+   * @param report compiled report
+   * @return maximum number of records, or zero if the records are not limited
+   */
+  public long getMaxRecords(JasperReport report) {
+    return getLimit(report, MAX_RECORDS_PROPERTY, maxRecords);
+  }
+
+  /**
+   * Returns the maximum size of the output of the given report.
+   *
+   * @param report compiled report
+   * @return maximum number of bytes, or zero if the output is not limited
+   */
+  public long getMaxOutputBytes(JasperReport report) {
+    return getLimit(report, MAX_OUTPUT_BYTES_PROPERTY, maxOutputBytes);
+  }
+
+  /**
+   * Returns the maximum size of the output of the given filled report. The limit of the report
+   * is copied to the filled report, so that it applies also to exports of cached fills.
+   *
+   * @param jasperPrint filled report
+   * @return maximum number of bytes, or zero if the output is not limited
+   */
+  public long getMaxOutputBytes(JasperPrint jasperPrint) {
+    return getLimit(jasperPrint, jasperPrint.getName(), MAX_OUTPUT_BYTES_PROPERTY,
+        maxOutputBytes);
+  }
+
+  /**
+   * Copies the output limit of the report to the filled report.
+   *
+   * @param report      compiled report
+   * @param jasperPrint filled report
+   */
+  public void copyOutputLimit(JasperReport report, JasperPrint jasperPrint) {
+    jasperPrint.setProperty(MAX_OUTPUT_BYTES_PROPERTY,
+        String.valueOf(getMaxOutputBytes(report)));
+  }
+
+  /**
+   * Wraps the given stream, so that the bytes written to it are counted and writes above the
+   * limit fail with {@link OutputLimitExceededException}.
+   *
+   * @param outputStream stream of the report output
+   * @param maxBytes     maximum number of bytes, or zero if the output is not limited
+   * @return counting stream
+   */
+  public CountingOutputStream limitOutput(OutputStream outputStream, long maxBytes) {
+    if (maxBytes <= 0) {
+      return new CountingOutputStream(outputStream);
+    }
+
+    return new CountingOutputStream(new ProxyOutputStream(outputStream) {
+      private long written;
+
+      @Override
+      protected void beforeWrite(int length) throws OutputLimitExceededException {
+        if (written + length > maxBytes) {
+          throw new OutputLimitExceededException(maxBytes);
+        }
+        written += length;
+      }
+    });
+  }
+
+  private long getLimit(JasperReport report, String property, long defaultLimit) {
+    return report == null
+        ? defaultLimit
+        : getLimit(report, report.getName(), property, defaultLimit);
+  }
+
+  private long getLimit(JRPropertiesHolder holder, String name, String property,
+      long defaultLimit) {
+    String value = holder.hasProperties()
+        ? holder.getPropertiesMap().getProperty(property)
+        : null;
+    if (isBlank(value)) {
+      return defaultLimit;
+    }
+
+    long limit = parseLimit(value);
+    if (limit < 0) {
+      LOGGER.warn("Invalid {} property of report {}: {}", property, name, value);
+      return defaultLimit;
+    }
+    return limit;
+  }
+
+  private static long parseLimit(String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * Counts the records and pages of a single fill. Once a limit is exceeded, further records
+   * fail and further pages stop the fill.
+   */
+  public static final class FillLimits {
+    private final long maxRecords;
+    private final int maxPages;
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicInteger pages = new AtomicInteger();
+    private volatile String exceededLimit;
+
+    FillLimits(long maxRecords, int maxPages) {
+      this.maxRecords = maxRecords;
+      this.maxPages = maxPages;
+    }
+
+    /**
+     * Counts a record read by one of the queries of the fill.
+     *
+     * @throws SQLException if the fill has read more records than allowed
+     */
+    public void countRecord() throws SQLException {
+      if (maxRecords > 0 && records.incrementAndGet() > maxRecords) {
+        exceededLimit = ERROR_JASPER_REPORT_LIMIT_RECORDS;
+        throw new SQLException("Report fill exceeds the limit of " + maxRecords + " records");
+      }
+    }
+
+    /**
+     * Counts a page generated by the fill.
+     *
+     * @return false if the fill has generated more pages than allowed
+     */
+    public boolean countPage() {
+      if (maxPages > 0 && pages.incrementAndGet() > maxPages) {
+        exceededLimit = ERROR_JASPER_REPORT_LIMIT_PAGES;
+      }
+      return !isExceeded();
+    }
+
+    public boolean isExceeded() {
+      return exceededLimit != null;
+    }
+
+    /**
+     * Throws an exception describing the exceeded limit, if any.
+     *
+     * @throws JasperReportViewException if any of the limits is exceeded
+     */
+    public void throwIfExceeded() throws JasperReportViewException {
+      String limit = exceededLimit;
+      if (ERROR_JASPER_REPORT_LIMIT_RECORDS.equals(limit)) {
+        throw new JasperReportViewException(null, limit, String.valueOf(maxRecords));
+      }
+      if (ERROR_JASPER_REPORT_LIMIT_PAGES.equals(limit)) {
+        throw new JasperReportViewException(null, limit, String.valueOf(maxPages));
+      }
+    }
+  }
+}
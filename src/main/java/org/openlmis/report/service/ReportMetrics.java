@@ -0,0 +1,215 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records metrics of report generation. Meters are registered in the application meter registry,
+ * or in the global one if the application does not define a registry. Every stage of the
+ * generation (template load and deserialization, parameter mapping, image decoding, fill and
+ * export) is timed and tagged by template and, where it is known, by format. Formats which are
+ * not supported are tagged as {@value #OTHER_FORMAT}, so that requested formats can not create
+ * new meters.
+ */
+@Component
+public class ReportMetrics {
+  static final String FILLS_CANCELLED = "reports.fills.cancelled";
+  static final String FILLS_CANCELLED_PAGES = "reports.fills.cancelled.pages";
+  static final String EXPORTS_ABORTED = "reports.exports.aborted";
+  static final String TEMPLATE_LOAD = "reports.template.load";
+  static final String TEMPLATE_DESERIALIZATION = "reports.template.deserialization";
+  static final String PARAMETER_MAPPING = "reports.parameters.mapping";
+  static final String IMAGE_DECODING = "reports.images.decoding";
+  static final String FILL = "reports.fill";
+  static final String FILL_PAGES = "reports.fill.pages";
+  static final String FILLS_IN_FLIGHT = "reports.fills.inflight";
+  static final String EXPORT = "reports.export";
+  static final String EXPORT_BYTES = "reports.export.bytes";
+  static final String POOL_UTILIZATION = "reports.datasource.utilization";
+
+  static final String TEMPLATE_TAG = "template";
+  static final String REASON_TAG = "reason";
+  static final String FORMAT_TAG = "format";
+  static final String OUTCOME_TAG = "outcome";
+  static final String POOL_TAG = "pool";
+  static final String OTHER_FORMAT = "other";
+
+  private final MeterRegistry registry;
+  private final AtomicInteger fillsInFlight = new AtomicInteger();
+
+  @Autowired
+  public ReportMetrics(ObjectProvider<MeterRegistry> registry) {
+    this(registry.getIfAvailable(() -> Metrics.globalRegistry));
+  }
+
+  ReportMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    registry.gauge(FILLS_IN_FLIGHT, fillsInFlight);
+  }
+
+  /**
+   * Records loading of a template from the database.
+   *
+   * @param template name of the template
+   * @param format   requested report format
+   * @param nanos    time of the load, in nanoseconds
+   */
+  public void templateLoaded(String template, String format, long nanos) {
+    registry.timer(TEMPLATE_LOAD, TEMPLATE_TAG, String.valueOf(template),
+        FORMAT_TAG, getFormatTag(format)).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records deserialization of a compiled report which was not cached yet.
+   *
+   * @param template name of the template
+   * @param nanos    time of the deserialization, in nanoseconds
+   */
+  public void templateDeserialized(String template, long nanos) {
+    registry.timer(TEMPLATE_DESERIALIZATION, TEMPLATE_TAG, String.valueOf(template))
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records mapping of request parameters to the parameters of a fill.
+   *
+   * @param template name of the template
+   * @param format   requested report format
+   * @param nanos    time of the mapping, in nanoseconds
+   */
+  public void parametersMapped(String template, String format, long nanos) {
+    registry.timer(PARAMETER_MAPPING, TEMPLATE_TAG, String.valueOf(template),
+        FORMAT_TAG, getFormatTag(format)).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records decoding of the images used by a template.
+   *
+   * @param template name of the template
+   * @param nanos    time of the decoding, in nanoseconds
+   */
+  public void imagesDecoded(String template, long nanos) {
+    registry.timer(IMAGE_DECODING, TEMPLATE_TAG, String.valueOf(template))
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Marks a fill as running, so that it is counted in the fills in flight.
+   */
+  public void fillStarted() {
+    fillsInFlight.incrementAndGet();
+  }
+
+  /**
+   * Records a finished fill together with the number of pages it has filled.
+   *
+   * @param template  name of the template
+   * @param format    requested report format
+   * @param nanos     time of the fill, in nanoseconds
+   * @param pages     number of filled pages
+   * @param completed whether the fill has completed successfully
+   */
+  public void fillFinished(String template, String format, long nanos, int pages,
+      boolean completed) {
+    fillsInFlight.decrementAndGet();
+    Tags tags = Tags.of(TEMPLATE_TAG, String.valueOf(template),
+        FORMAT_TAG, getFormatTag(format));
+    registry.timer(FILL, tags.and(OUTCOME_TAG, completed ? "completed" : "failed"))
+        .record(nanos, TimeUnit.NANOSECONDS);
+    if (completed) {
+      registry.summary(FILL_PAGES, tags).record(pages);
+    }
+  }
+
+  /**
+   * Records a finished export together with the number of bytes it has written.
+   *
+   * @param template name of the template
+   * @param format   report format
+   * @param nanos    time of the export, in nanoseconds
+   * @param bytes    number of written bytes
+   */
+  public void exportFinished(String template, String format, long nanos, long bytes) {
+    Tags tags = Tags.of(TEMPLATE_TAG, String.valueOf(template),
+        FORMAT_TAG, getFormatTag(format));
+    registry.timer(EXPORT, tags).record(nanos, TimeUnit.NANOSECONDS);
+    registry.summary(EXPORT_BYTES, tags).record(bytes);
+  }
+
+  /**
+   * Registers metrics of a connection pool: the Hikari pool metrics, and the share of its
+   * maximum size which is in use.
+   *
+   * @param pool connection pool
+   */
+  public void monitorPool(HikariDataSource pool) {
+    pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+    registry.gauge(POOL_UTILIZATION, Tags.of(POOL_TAG, pool.getPoolName()), pool,
+        ReportMetrics::getUtilization);
+  }
+
+  /**
+   * Records a fill which was cancelled before it was finished, together with the time and the
+   * number of pages it had taken until then.
+   *
+   * @param template name of the template
+   * @param reason   why the fill was cancelled
+   * @param nanos    time spent on the fill, in nanoseconds
+   * @param pages    number of pages filled before the fill was cancelled
+   */
+  public void fillCancelled(String template, String reason, long nanos, int pages) {
+    registry.timer(FILLS_CANCELLED, TEMPLATE_TAG, String.valueOf(template), REASON_TAG, reason)
+        .record(nanos, TimeUnit.NANOSECONDS);
+    registry.summary(FILLS_CANCELLED_PAGES, TEMPLATE_TAG, String.valueOf(template),
+        REASON_TAG, reason).record(pages);
+  }
+
+  /**
+   * Records an export which was aborted because the output was closed, e.g. when the client
+   * disconnected.
+   *
+   * @param template name of the template
+   * @param format   report format
+   */
+  public void exportAborted(String template, String format) {
+    registry.counter(EXPORTS_ABORTED, TEMPLATE_TAG, String.valueOf(template),
+        FORMAT_TAG, getFormatTag(format)).increment();
+  }
+
+  private static double getUtilization(HikariDataSource pool) {
+    HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+    if (bean == null || pool.getMaximumPoolSize() <= 0) {
+      return 0;
+    }
+    return bean.getActiveConnections() / (double) pool.getMaximumPoolSize();
+  }
+
+  private static String getFormatTag(String format) {
+    return ReportFormatHelper.SUPPORTED_FORMATS.contains(format) ? format : OTHER_FORMAT;
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import lombok.Getter;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openlmis.report.service.ReportResultCache.ResultKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps filled reports for a short time, compressed and serialized in memory or on local disk,
+ * so that a report can be exported to another format without filling it again. Every cached
+ * fill gets an ID which can be used by clients to request other formats of the same fill.
+ * Caching a fill serializes all of its pages before the report is exported, so only templates
+ * with the {@value #PRINT_CACHE_PROPERTY} report property set to true are cached. A cached fill
+ * is read back without a virtualizer, so fills with more pages than the virtualizer keeps in
+ * memory are not cached.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class ReportPrintCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportPrintCache.class);
+
+  static final String STORAGE_MEMORY = "memory";
+  static final String STORAGE_DISK = "disk";
+  static final String PRINT_CACHE_PROPERTY = "printCache";
+
+  private final Cache<UUID, StoredPrint> prints;
+  private final Cache<ResultKey, UUID> fillIds;
+  private final long maxBytes;
+  private final boolean onDisk;
+
+  @Value("${reports.printCache.directory}")
+  private String directory;
+
+  @Value("${reports.virtualizer.maxPages}")
+  private int maxPages;
+
+  /**
+   * Creates a cache of filled reports.
+   *
+   * @param maxBytes   maximum total size of cached reports, zero disables the cache
+   * @param timeToLive time to live of cached reports in seconds
+   * @param storage    where the reports are kept, in memory or on disk
+   */
+  public ReportPrintCache(@Value("${reports.printCache.maxBytes}") long maxBytes,
+      @Value("${reports.printCache.timeToLive}") long timeToLive,
+      @Value("${reports.printCache.storage}") String storage) {
+    if (!STORAGE_MEMORY.equals(storage) && !STORAGE_DISK.equals(storage)) {
+      throw new IllegalStateException("Unknown report print cache storage: " + storage);
+    }
+
+    this.maxBytes = maxBytes;
+    this.onDisk = STORAGE_DISK.equals(storage);
+    this.prints = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((UUID key, StoredPrint value) -> (int) Math.min(Integer.MAX_VALUE, value.size))
+        .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+        .removalListener((UUID key, StoredPrint value, RemovalCause cause) -> {
+          if (value != null) {
+            value.delete();
+          }
+        })
+        .build();
+    this.fillIds = Caffeine.newBuilder()
+        .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Creates the directory for reports kept on disk.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    if (onDisk) {
+      Files.createDirectories(Paths.get(directory));
+    }
+  }
+
+  /**
+   * Checks whether fills of the given report should be cached.
+   *
+   * @param report compiled report
+   * @return true if the cache is enabled and the report opts in
+   */
+  public boolean isEnabled(JasperReport report) {
+    return maxBytes > 0 && Boolean.parseBoolean(report.getProperty(PRINT_CACHE_PROPERTY));
+  }
+
+  /**
+   * Returns ID of the cached fill of the report with the given key.
+   *
+   * @param key key of the filled report
+   * @return ID of the fill, or empty if the fill is not cached
+   */
+  public Optional<UUID> findFillId(ResultKey key) {
+    return Optional
+        .ofNullable(fillIds.getIfPresent(key))
+        .filter(fillId -> prints.getIfPresent(fillId) != null);
+  }
+
+  /**
+   * Returns the cached filled report with the given key.
+   *
+   * @param key key of the filled report
+   * @return the filled report, or empty if it is not cached
+   */
+  public Optional<CachedPrint> get(ResultKey key) {
+    return Optional
+        .ofNullable(fillIds.getIfPresent(key))
+        .flatMap(this::get);
+  }
+
+  /**
+   * Returns the cached filled report with the given fill ID.
+   *
+   * @param fillId ID of the fill
+   * @return the filled report, or empty if it is not cached
+   */
+  public Optional<CachedPrint> get(UUID fillId) {
+    StoredPrint stored = prints.getIfPresent(fillId);
+    if (stored == null) {
+      return Optional.empty();
+    }
+
+    try (ObjectInputStream inputStream =
+        new ObjectInputStream(new GZIPInputStream(stored.open()))) {
+      JasperPrint jasperPrint = (JasperPrint) inputStream.readObject();
+      return Optional.of(new CachedPrint(fillId, stored.templateName, jasperPrint));
+    } catch (IOException | ClassNotFoundException ex) {
+      LOGGER.warn("Could not read cached fill {}", fillId, ex);
+      prints.invalidate(fillId);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Caches the filled report. Reports that do not fit in the cache, or have more pages than the
+   * virtualizer keeps in memory, are not cached.
+   *
+   * @param key          key of the filled report
+   * @param templateName name of the report template
+   * @param jasperPrint  filled report
+   * @return ID of the fill, or empty if the report was not cached
+   */
+  public Optional<UUID> put(ResultKey key, String templateName, JasperPrint jasperPrint) {
+    if (maxBytes <= 0) {
+      return Optional.empty();
+    }
+    if (jasperPrint.getPages().size() > maxPages) {
+      LOGGER.debug("Filled report {} was not cached: more than {} pages", templateName, maxPages);
+      return Optional.empty();
+    }
+
+    UUID fillId = UUID.randomUUID();
+    Path file = onDisk ? Paths.get(directory, fillId + ".jrprint.gz") : null;
+    ByteArrayOutputStream memory = onDisk ? null : new ByteArrayOutputStream();
+
+    try (LimitedOutputStream counter = new LimitedOutputStream(
+        onDisk ? Files.newOutputStream(file) : memory)) {
+      try (ObjectOutputStream outputStream =
+          new ObjectOutputStream(new GZIPOutputStream(counter))) {
+        outputStream.writeObject(jasperPrint);
+      }
+
+      StoredPrint stored = onDisk
+          ? new StoredPrint(templateName, file, null, counter.count)
+          : new StoredPrint(templateName, null, memory.toByteArray(), counter.count);
+      prints.put(fillId, stored);
+      fillIds.put(key, fillId);
+      return Optional.of(fillId);
+    } catch (IOException ex) {
+      LOGGER.debug("Filled report {} was not cached: {}", templateName, ex.getMessage());
+      deleteQuietly(file);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Removes all cached fills of the given template.
+   *
+   * @param templateId ID of the changed or removed template
+   */
+  public void evict(UUID templateId) {
+    if (templateId != null) {
+      fillIds.asMap().entrySet().removeIf(entry -> {
+        if (templateId.equals(entry.getKey().getTemplate().getTemplateId())) {
+          prints.invalidate(entry.getValue());
+          return true;
+        }
+        return false;
+      });
+    }
+  }
+
+  long size() {
+    prints.cleanUp();
+    return prints.estimatedSize();
+  }
+
+  private static void deleteQuietly(Path file) {
+    if (file != null) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException ex) {
+        LOGGER.warn("Could not delete cached fill {}", file, ex);
+      }
+    }
+  }
+
+  /**
+   * Filled report read from the cache.
+   */
+  @Getter
+  public static final class CachedPrint {
+    private final UUID fillId;
+    private final String templateName;
+    private final JasperPrint jasperPrint;
+
+    CachedPrint(UUID fillId, String templateName, JasperPrint jasperPrint) {
+      this.fillId = fillId;
+      this.templateName = templateName;
+      this.jasperPrint = jasperPrint;
+    }
+  }
+
+  private static final class StoredPrint {
+    private final String templateName;
+    private final Path file;
+    private final byte[] data;
+    private final long size;
+
+    private StoredPrint(String templateName, Path file, byte[] data, long size) {
+      this.templateName = templateName;
+      this.file = file;
+      this.data = data;
+      this.size = size;
+    }
+
+    private InputStream open() throws IOException {
+      return file == null ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+    }
+
+    private void delete() {
+      deleteQuietly(file);
+    }
+  }
+
+  private final class LimitedOutputStream extends FilterOutputStream {
+    private long count;
+
+    private LimitedOutputStream(OutputStream outputStream) {
+      super(outputStream);
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      count(1);
+      out.write(value);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      count(length);
+      out.write(bytes, offset, length);
+    }
+
+    private void count(int length) throws IOException {
+      count += length;
+      if (count > maxBytes) {
+        throw new IOException("Filled report exceeds " + maxBytes + " bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statements executed on the connections of a single report fill, in the order of their first
+ * execution. Statements are identified by their SQL; statements beyond the limit are counted
+ * together, so that a report building SQL dynamically can not exhaust memory. Bind values can be
+ * redacted, in which case only their types are kept.
+ */
+public class ReportQueryLog {
+  static final int MAX_QUERIES = 100;
+  static final String OTHER_QUERIES = "(other statements)";
+
+  private static final int MAX_PARAMETER_LENGTH = 100;
+
+  private final Map<String, QueryProfile> queries = new LinkedHashMap<>();
+  private final boolean redactParameters;
+
+  ReportQueryLog(boolean redactParameters) {
+    this.redactParameters = redactParameters;
+  }
+
+  /**
+   * Returns profiles of the executed statements.
+   *
+   * @return list of statement profiles
+   */
+  public synchronized List<QueryProfile> getQueries() {
+    return new ArrayList<>(queries.values());
+  }
+
+  synchronized QueryProfile getQuery(String sql) {
+    QueryProfile query = queries.get(sql);
+    if (query == null) {
+      String key = queries.size() < MAX_QUERIES ? sql : OTHER_QUERIES;
+      query = queries.computeIfAbsent(key, QueryProfile::new);
+    }
+    return query;
+  }
+
+  String describeParameter(Object value) {
+    if (value == null) {
+      return "NULL";
+    }
+    if (redactParameters) {
+      return "<" + value.getClass().getSimpleName() + ">";
+    }
+
+    String description = String.valueOf(value);
+    return description.length() > MAX_PARAMETER_LENGTH
+        ? description.substring(0, MAX_PARAMETER_LENGTH) + "..."
+        : description;
+  }
+}
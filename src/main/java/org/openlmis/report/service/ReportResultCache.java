@@ -0,0 +1,331 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.awt.Image;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.io.IOUtils;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportImage;
+import org.openlmis.report.service.JasperReportCache.TemplateKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps generated reports, so that requests for the same template version, parameters, format
+ * and locale are served without filling the report again. The cache is bounded by the total
+ * size of kept reports; entries expire after the time to live, which can be overridden or set
+ * to zero by a template with the {@value #TIME_TO_LIVE_PROPERTY} report property. Reports in
+ * compressible formats are kept compressed with gzip, so that more of them fit in the cache and
+ * they can be sent to clients accepting gzip without compressing them again.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class ReportResultCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportResultCache.class);
+
+  static final String TIME_TO_LIVE_PROPERTY = "resultCacheTtl";
+
+  private final Cache<ResultKey, CachedResult> results;
+  private final long timeToLive;
+  private final int maxEntryBytes;
+  private final boolean offHeap;
+
+  /**
+   * Creates a cache of generated reports.
+   *
+   * @param maxBytes      maximum total size of cached reports, zero disables the cache
+   * @param maxEntryBytes maximum size of a single cached report
+   * @param timeToLive    default time to live of cached reports in seconds
+   * @param offHeap       whether cached reports should be kept outside of the heap
+   */
+  public ReportResultCache(@Value("${reports.resultCache.maxBytes}") long maxBytes,
+      @Value("${reports.resultCache.maxEntryBytes}") int maxEntryBytes,
+      @Value("${reports.resultCache.timeToLive}") long timeToLive,
+      @Value("${reports.resultCache.offHeap}") boolean offHeap) {
+    this.results = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((ResultKey key, CachedResult value) -> value.getData().capacity())
+        .expireAfter(new ResultExpiry())
+        .build();
+    this.timeToLive = timeToLive;
+    this.maxEntryBytes = maxBytes > 0 ? (int) Math.min(maxEntryBytes, maxBytes) : 0;
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * Returns the time to live in seconds of reports generated from the given report. Zero means
+   * that the reports should not be cached.
+   *
+   * @param report compiled report
+   * @return time to live in seconds
+   */
+  public long getTimeToLive(JasperReport report) {
+    if (maxEntryBytes <= 0) {
+      return 0;
+    }
+
+    String property = report.getProperty(TIME_TO_LIVE_PROPERTY);
+    if (isBlank(property)) {
+      return timeToLive;
+    }
+
+    try {
+      return Math.max(0, Long.parseLong(property.trim()));
+    } catch (NumberFormatException ex) {
+      LOGGER.warn("Invalid {} property of report {}: {}", TIME_TO_LIVE_PROPERTY,
+          report.getName(), property);
+      return timeToLive;
+    }
+  }
+
+  /**
+   * Returns the generated report, written by the returned writer, if it is cached.
+   *
+   * @param key key of the report
+   * @return writer of the cached report
+   */
+  public Optional<ReportWriter> get(ResultKey key) {
+    return Optional
+        .ofNullable(results.getIfPresent(key))
+        .map(result -> result.isCompressed()
+            ? new CompressedReport(() -> new ByteBufferBackedInputStream(
+                result.getData().duplicate()))
+            : outputStream -> Channels.newChannel(outputStream)
+                .write(result.getData().duplicate()));
+  }
+
+  /**
+   * Wraps the given stream, so that the report written to it is cached once the writing
+   * completes, compressed with gzip if requested. Reports which are larger than the maximum
+   * entry size once compressed are written but not cached.
+   *
+   * @param key          key of the report
+   * @param timeToLive   time to live in seconds
+   * @param outputStream stream the report is written to
+   * @param compressed   whether the report should be cached compressed
+   * @return stream that should be used to write the report
+   * @throws IOException if the compressed copy can not be started
+   */
+  public CachingOutputStream cache(ResultKey key, long timeToLive, OutputStream outputStream,
+      boolean compressed) throws IOException {
+    return new CachingOutputStream(key, timeToLive, outputStream, compressed);
+  }
+
+  /**
+   * Removes all cached reports of the given template.
+   *
+   * @param templateId ID of the changed or removed template
+   */
+  public void evict(UUID templateId) {
+    if (templateId != null) {
+      results.asMap().keySet()
+          .removeIf(key -> templateId.equals(key.getTemplate().getTemplateId()));
+    }
+  }
+
+  long size() {
+    results.cleanUp();
+    return results.estimatedSize();
+  }
+
+  private void put(ResultKey key, long timeToLive, byte[] data, boolean compressed) {
+    ByteBuffer buffer;
+    if (offHeap) {
+      buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+      buffer.flip();
+    } else {
+      buffer = ByteBuffer.wrap(data);
+    }
+
+    results.put(key, new CachedResult(buffer.asReadOnlyBuffer(),
+        TimeUnit.SECONDS.toNanos(timeToLive), compressed));
+  }
+
+  /**
+   * Stream that copies the written report to the cache, as long as it does not exceed the
+   * maximum entry size. The copy is compressed while the report is written, if requested.
+   */
+  public final class CachingOutputStream extends OutputStream {
+    private final ResultKey key;
+    private final long timeToLive;
+    private final OutputStream outputStream;
+    private final boolean compressed;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private OutputStream copyStream;
+
+    private CachingOutputStream(ResultKey key, long timeToLive, OutputStream outputStream,
+        boolean compressed) throws IOException {
+      this.key = key;
+      this.timeToLive = timeToLive;
+      this.outputStream = outputStream;
+      this.compressed = compressed;
+      this.copyStream = compressed ? ReportCompression.compress(copy) : copy;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      outputStream.write(value);
+      if (copy != null) {
+        copyStream.write(value);
+        checkCopySize();
+      }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      outputStream.write(bytes, offset, length);
+      if (copy != null) {
+        copyStream.write(bytes, offset, length);
+        checkCopySize();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      outputStream.flush();
+    }
+
+    /**
+     * Caches the written report. Should be called only if the whole report has been written.
+     */
+    public void complete() throws IOException {
+      if (copy != null) {
+        copyStream.close();
+        if (copy.size() <= maxEntryBytes) {
+          put(key, timeToLive, copy.toByteArray(), compressed);
+        }
+        discardCopy();
+      }
+    }
+
+    private void checkCopySize() {
+      if (copy.size() > maxEntryBytes) {
+        discardCopy();
+      }
+    }
+
+    private void discardCopy() {
+      IOUtils.closeQuietly(copyStream);
+      copy = null;
+      copyStream = null;
+    }
+  }
+
+  /**
+   * Identifies a generated report by template version, fill parameters, format and locale.
+   * Report images are identified by their name and content rather than by the loaded image.
+   */
+  @Getter
+  @EqualsAndHashCode
+  public static final class ResultKey {
+    private final TemplateKey template;
+    private final Map<String, Object> parameters;
+    private final Map<String, Integer> images;
+    private final Locale locale;
+
+    private ResultKey(JasperTemplate template, Map<String, Object> params, Locale locale) {
+      this.template = TemplateKey.of(template);
+      this.locale = locale;
+
+      Map<String, Object> parameterMap = new HashMap<>();
+      params.forEach((name, value) -> {
+        if (!(value instanceof Image)) {
+          parameterMap.put(name, value);
+        }
+      });
+      this.parameters = Collections.unmodifiableMap(parameterMap);
+
+      Map<String, Integer> imageMap = new HashMap<>();
+      if (template.getReportImages() != null) {
+        for (ReportImage image : template.getReportImages()) {
+          imageMap.put(image.getName(), Arrays.hashCode(image.getData()));
+        }
+      }
+      this.images = Collections.unmodifiableMap(imageMap);
+    }
+
+    /**
+     * Creates a key of the report generated from the given template and fill parameters.
+     *
+     * @param template template of the report
+     * @param params   fill parameters, including the format
+     * @param locale   locale of the request
+     * @return key of the report
+     */
+    public static ResultKey of(JasperTemplate template, Map<String, Object> params,
+        Locale locale) {
+      return new ResultKey(template, params, locale);
+    }
+  }
+
+  @Getter
+  private static final class CachedResult {
+    private final ByteBuffer data;
+    private final long timeToLive;
+    private final boolean compressed;
+
+    private CachedResult(ByteBuffer data, long timeToLive, boolean compressed) {
+      this.data = data;
+      this.timeToLive = timeToLive;
+      this.compressed = compressed;
+    }
+  }
+
+  private static final class ResultExpiry implements Expiry<ResultKey, CachedResult> {
+
+    @Override
+    public long expireAfterCreate(ResultKey key, CachedResult value, long currentTime) {
+      return value.getTimeToLive();
+    }
+
+    @Override
+    public long expireAfterUpdate(ResultKey key, CachedResult value, long currentTime,
+        long currentDuration) {
+      return value.getTimeToLive();
+    }
+
+    @Override
+    public long expireAfterRead(ResultKey key, CachedResult value, long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
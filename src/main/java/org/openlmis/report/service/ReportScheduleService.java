@@ -0,0 +1,248 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.openlmis.report.i18n.ReportScheduleMessageKeys.ERROR_SCHEDULE_CRON_INVALID;
+import static org.openlmis.report.i18n.ReportScheduleMessageKeys.ERROR_SCHEDULE_FORMAT_INVALID;
+import static org.openlmis.report.i18n.ReportScheduleMessageKeys.ERROR_SCHEDULE_NOT_FOUND;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JasperReport;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportSchedule;
+import org.openlmis.report.exception.NotFoundMessageException;
+import org.openlmis.report.exception.ReportingException;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.repository.ReportScheduleRepository;
+import org.openlmis.report.utils.Message;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+import org.springframework.stereotype.Service;
+
+/**
+ * Manages schedules of report pre-generation. Schedules are created through the API or from
+ * the {@value #CRON_PROPERTY} and {@value #FORMATS_PROPERTY} report properties of a template.
+ */
+@Service
+public class ReportScheduleService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportScheduleService.class);
+
+  static final String CRON_PROPERTY = "preGenerateCron";
+  static final String FORMATS_PROPERTY = "preGenerateFormats";
+  private static final String DEFAULT_FORMAT = "pdf";
+
+  @Autowired
+  private ReportScheduleRepository reportScheduleRepository;
+
+  @Autowired
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Autowired
+  private ReportSnapshotService reportSnapshotService;
+
+  @Autowired
+  private JasperReportCache jasperReportCache;
+
+  @Autowired
+  private Clock clock;
+
+  @Value("${defaultLocale}")
+  private String defaultLocale;
+
+  public Iterable<ReportSchedule> findAll() {
+    return reportScheduleRepository.findAll();
+  }
+
+  /**
+   * Creates a schedule of the template. The report is generated in the locale of the caller at
+   * the next check, and then whenever the cron expression fires.
+   *
+   * @param template template to pre-generate
+   * @param importer cron expression, format and parameters of the schedule
+   * @return saved schedule
+   */
+  public ReportSchedule createSchedule(JasperTemplate template,
+      ReportSchedule.Importer importer) {
+    validate(importer.getCronExpression(), importer.getFormat());
+    return reportScheduleRepository.save(
+        ReportSchedule.newInstance(importer, template.getName(),
+            LocaleContextHolder.getLocale().toLanguageTag(), now()));
+  }
+
+  /**
+   * Deletes the schedule together with the report it has generated.
+   *
+   * @param scheduleId ID of the schedule
+   */
+  public void deleteSchedule(UUID scheduleId) {
+    ReportSchedule schedule = reportScheduleRepository.findById(scheduleId)
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_SCHEDULE_NOT_FOUND, scheduleId)));
+
+    reportScheduleRepository.delete(schedule);
+
+    JasperTemplate template = jasperTemplateRepository.findByName(schedule.getTemplateName());
+    if (template != null) {
+      reportSnapshotService.deleteSnapshot(template, schedule.getParameterMap(),
+          schedule.getFormat(), schedule.getReportLocale());
+    }
+  }
+
+  /**
+   * Checks the schedule properties of an uploaded report.
+   *
+   * @param report compiled report
+   * @throws ReportingException if the cron expression or any of the formats is invalid
+   */
+  public void validateTemplateSchedule(JasperReport report) throws ReportingException {
+    String cronExpression = report.getProperty(CRON_PROPERTY);
+    if (isBlank(cronExpression)) {
+      return;
+    }
+
+    if (!CronSequenceGenerator.isValidExpression(cronExpression.trim())) {
+      throw new ReportingException(ERROR_SCHEDULE_CRON_INVALID, cronExpression);
+    }
+    for (String format : getFormats(report)) {
+      if (!ReportFormatHelper.SUPPORTED_FORMATS.contains(format)) {
+        throw new ReportingException(ERROR_SCHEDULE_FORMAT_INVALID, format);
+      }
+    }
+  }
+
+  /**
+   * Replaces the schedules created from the report properties of the uploaded template, together
+   * with the reports they have generated, and moves other schedules of the template to the next
+   * check, so that reports of the new version are generated as soon as possible.
+   *
+   * @param template saved template
+   */
+  public void updateTemplateSchedules(JasperTemplate template) {
+    ZonedDateTime now = now();
+
+    for (ReportSchedule schedule : reportScheduleRepository.findByTemplateName(
+        template.getName())) {
+      if (schedule.isFromTemplate()) {
+        reportScheduleRepository.delete(schedule);
+        reportSnapshotService.deleteSnapshot(template, schedule.getParameterMap(),
+            schedule.getFormat(), schedule.getReportLocale());
+      } else {
+        schedule.setNextRunDate(now);
+        reportScheduleRepository.save(schedule);
+      }
+    }
+
+    JasperReport report = jasperReportCache.getReport(template);
+    String cronExpression = report.getProperty(CRON_PROPERTY);
+    if (isBlank(cronExpression)) {
+      return;
+    }
+
+    for (String format : getFormats(report)) {
+      ReportSchedule schedule = new ReportSchedule();
+      schedule.setTemplateName(template.getName());
+      schedule.setCronExpression(cronExpression.trim());
+      schedule.setFormat(format);
+      schedule.setLocale(defaultLocale);
+      schedule.setFromTemplate(true);
+      schedule.setNextRunDate(now);
+      reportScheduleRepository.save(schedule);
+    }
+  }
+
+  /**
+   * Deletes all schedules of the removed template.
+   *
+   * @param templateName name of the template
+   */
+  public void deleteTemplateSchedules(String templateName) {
+    reportScheduleRepository.deleteAll(reportScheduleRepository.findByTemplateName(templateName));
+  }
+
+  /**
+   * Claims the due run of the schedule by moving its next run according to the cron
+   * expression. Only one instance of the service succeeds, even if several of them check
+   * the schedules at the same time.
+   *
+   * @param schedule due schedule
+   * @return true if the run has been claimed and the report should be generated
+   */
+  public boolean claimRun(ReportSchedule schedule) {
+    ZonedDateTime now = now();
+    ZonedDateTime nextRunDate;
+    try {
+      nextRunDate = getNextRunDate(schedule.getCronExpression(), now);
+    } catch (IllegalArgumentException ex) {
+      LOGGER.warn("Invalid cron expression of report schedule {}: {}", schedule.getId(),
+          schedule.getCronExpression());
+      return false;
+    }
+
+    return reportScheduleRepository
+        .claimRun(schedule.getId(), schedule.getNextRunDate(), nextRunDate) == 1;
+  }
+
+  ZonedDateTime now() {
+    return ZonedDateTime.now(clock).truncatedTo(ChronoUnit.SECONDS);
+  }
+
+  private ZonedDateTime getNextRunDate(String cronExpression, ZonedDateTime after) {
+    CronSequenceGenerator generator =
+        new CronSequenceGenerator(cronExpression, TimeZone.getTimeZone(after.getZone()));
+    return ZonedDateTime.ofInstant(
+        generator.next(Date.from(after.toInstant())).toInstant(), after.getZone());
+  }
+
+  private List<String> getFormats(JasperReport report) {
+    String property = report.getProperty(FORMATS_PROPERTY);
+    List<String> formats = new ArrayList<>();
+    if (!isBlank(property)) {
+      for (String format : property.split(",")) {
+        if (!isBlank(format)) {
+          formats.add(format.trim());
+        }
+      }
+    }
+    if (formats.isEmpty()) {
+      formats.add(DEFAULT_FORMAT);
+    }
+    return formats;
+  }
+
+  private void validate(String cronExpression, String format) {
+    if (cronExpression == null || !CronSequenceGenerator.isValidExpression(cronExpression)) {
+      throw new ValidationMessageException(
+          new Message(ERROR_SCHEDULE_CRON_INVALID, cronExpression));
+    }
+    if (!ReportFormatHelper.SUPPORTED_FORMATS.contains(format)) {
+      throw new ValidationMessageException(new Message(ERROR_SCHEDULE_FORMAT_INVALID, format));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.ByteArrayOutputStream;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportSchedule;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.repository.ReportScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs due report schedules. Every instance of the service checks the schedules, but each run
+ * is claimed in the database first, so that only one instance of a cluster generates the
+ * report. Reports are always filled with current data, bypassing the report caches, in the
+ * locale of the schedule. The output limit of the report applies to the stored report.
+ */
+@Component
+public class ReportScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportScheduler.class);
+
+  @Autowired
+  private ReportScheduleRepository reportScheduleRepository;
+
+  @Autowired
+  private ReportScheduleService reportScheduleService;
+
+  @Autowired
+  private ReportSnapshotService reportSnapshotService;
+
+  @Autowired
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Autowired
+  private JasperTemplateService jasperTemplateService;
+
+  @Autowired
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Autowired
+  private ReportLimits reportLimits;
+
+  @Value("${reports.schedules.poolSize}")
+  private int poolSize;
+
+  private ExecutorService executor;
+
+  /**
+   * Creates the worker pool of scheduled generations.
+   */
+  @PostConstruct
+  public void init() {
+    executor = Executors.newFixedThreadPool(poolSize,
+        new CustomizableThreadFactory("report-schedule-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Claims the due schedules and queues generation of their reports.
+   */
+  @Scheduled(fixedDelayString = "${reports.schedules.checkInterval}")
+  public void runDueSchedules() {
+    ZonedDateTime now = reportScheduleService.now();
+
+    for (ReportSchedule schedule : reportScheduleRepository.findByNextRunDateLessThanEqual(now)) {
+      if (reportScheduleService.claimRun(schedule)) {
+        LOGGER.debug("Running report schedule {} of template {}", schedule.getId(),
+            schedule.getTemplateName());
+        executor.execute(() -> generate(schedule));
+      }
+    }
+  }
+
+  void generate(ReportSchedule schedule) {
+    JasperTemplate template = jasperTemplateRepository.findByName(schedule.getTemplateName());
+    if (template == null) {
+      LOGGER.warn("Template {} of report schedule {} does not exist",
+          schedule.getTemplateName(), schedule.getId());
+      return;
+    }
+
+    ZonedDateTime generatedDate = reportScheduleService.now();
+    Map<String, String[]> requestParameters = schedule.getParameterMap();
+    String format = schedule.getFormat();
+    Locale locale = schedule.getReportLocale();
+    LocaleContextHolder.setLocale(locale);
+
+    try {
+      Map<String, Object> params = jasperTemplateService
+          .mapReportParametersToTemplate(requestParameters, template, format);
+
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      try (FilledReport filledReport = jasperReportsViewService.fillReport(template, params)) {
+        jasperReportsViewService.getJasperExporter(filledReport, format)
+            .exportReport(reportLimits.limitOutput(outputStream,
+                reportLimits.getMaxOutputBytes(filledReport.getJasperPrint())));
+      }
+
+      reportSnapshotService.saveSnapshot(template, requestParameters, format, locale,
+          outputStream.toByteArray(), generatedDate);
+      LOGGER.info("Pre-generated report of template {} in format {}", template.getName(),
+          format);
+    } catch (Exception ex) {
+      LOGGER.error("Report schedule {} of template {} failed", schedule.getId(),
+          template.getName(), ex);
+    } finally {
+      LocaleContextHolder.resetLocaleContext();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.JasperTemplateParameter;
+import org.openlmis.report.domain.ReportSnapshot;
+import org.openlmis.report.repository.ReportSnapshotRepository;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Stores reports pre-generated by schedules and finds them for matching report requests.
+ * Snapshots are identified by the template, the format, the locale and the values of the
+ * template parameters, so that unrelated request parameters do not prevent a match, while
+ * a report generated in one language is not served to requests in another. Snapshots are
+ * removed together with their template.
+ */
+@Service
+public class ReportSnapshotService {
+
+  @Autowired
+  private ReportSnapshotRepository reportSnapshotRepository;
+
+  /**
+   * Finds the pre-generated report matching the request.
+   *
+   * @param template          template of the report
+   * @param requestParameters request parameters
+   * @param format            report format
+   * @param locale            locale of the request
+   * @return the snapshot, or empty if the report has not been pre-generated
+   */
+  public Optional<ReportSnapshot> findSnapshot(JasperTemplate template,
+      Map<String, String[]> requestParameters, String format, Locale locale) {
+    return reportSnapshotRepository.findByTemplateIdAndParametersKeyAndFormatAndLocale(
+        template.getId(), getParametersKey(template, requestParameters), format,
+        locale.toLanguageTag());
+  }
+
+  /**
+   * Stores the pre-generated report, replacing the previous one. Reports in compressible
+   * formats are stored compressed with gzip.
+   *
+   * @param template          template of the report
+   * @param requestParameters parameters the report has been generated with
+   * @param format            report format
+   * @param locale            locale the report has been generated in
+   * @param data              generated report
+   * @param generatedDate     date the generation started at
+   * @return stored snapshot
+   */
+  @Transactional
+  public ReportSnapshot saveSnapshot(JasperTemplate template,
+      Map<String, String[]> requestParameters, String format, Locale locale, byte[] data,
+      ZonedDateTime generatedDate) {
+    String parametersKey = getParametersKey(template, requestParameters);
+    boolean compressed = ReportFormatHelper.isCompressible(format);
+    reportSnapshotRepository.deleteByKey(template.getId(), parametersKey, format,
+        locale.toLanguageTag());
+    return reportSnapshotRepository.save(new ReportSnapshot(template.getId(), parametersKey,
+        format, locale.toLanguageTag(), compressed ? compress(data) : data, compressed,
+        generatedDate));
+  }
+
+  /**
+   * Returns the writer of the pre-generated report.
+   *
+   * @param snapshot the snapshot
+   * @return writer of the report, which can be sent compressed as it is stored
+   */
+  public ReportWriter getWriter(ReportSnapshot snapshot) {
+    byte[] data = snapshot.getData();
+    return snapshot.isCompressed()
+        ? new CompressedReport(new ByteArrayResource(data))
+        : outputStream -> outputStream.write(data);
+  }
+
+  /**
+   * Removes the pre-generated report, so that it is no longer served.
+   *
+   * @param template          template of the report
+   * @param requestParameters parameters the report has been generated with
+   * @param format            report format
+   * @param locale            locale the report has been generated in
+   */
+  @Transactional
+  public void deleteSnapshot(JasperTemplate template, Map<String, String[]> requestParameters,
+      String format, Locale locale) {
+    reportSnapshotRepository.deleteByKey(template.getId(),
+        getParametersKey(template, requestParameters), format, locale.toLanguageTag());
+  }
+
+  /**
+   * Returns the values of the template parameters as a query string sorted by parameter name.
+   * Blank values are skipped, the same way as when the report is filled.
+   */
+  static String getParametersKey(JasperTemplate template,
+      Map<String, String[]> requestParameters) {
+    List<JasperTemplateParameter> templateParameters = template.getTemplateParameters();
+    if (templateParameters == null) {
+      return "";
+    }
+
+    Map<String, String> values = new TreeMap<>();
+    for (JasperTemplateParameter templateParameter : templateParameters) {
+      String name = templateParameter.getName();
+      requestParameters.forEach((requestName, requestValues) -> {
+        if (name.equalsIgnoreCase(requestName) && requestValues.length > 0
+            && !isBlank(requestValues[0]) && !"null".equals(requestValues[0])
+            && !"undefined".equals(requestValues[0])) {
+          values.put(name, requestValues[0]);
+        }
+      });
+    }
+
+    return values.entrySet().stream()
+        .map(entry -> encode(entry.getKey()) + "=" + encode(entry.getValue()))
+        .collect(Collectors.joining("&"));
+  }
+
+  private static byte[] compress(byte[] data) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (OutputStream compressingStream = ReportCompression.compress(outputStream)) {
+      compressingStream.write(data);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.openlmis.report.service.Span.Kind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Creates spans of report requests and exports them. The current span of a thread is the parent
+ * of spans started on that thread; spans started on other threads, like exports of streamed
+ * reports, are given their parent explicitly. The trace context of incoming requests is taken
+ * from the W3C {@value #TRACEPARENT_HEADER} header, and the trace ID of the current span is put
+ * in the {@value #TRACE_ID_KEY} key of the logging context.
+ * Finished spans are exported in batches in the OTLP JSON encoding, either appended as lines to
+ * a file or posted to the traces endpoint of an OTLP/HTTP collector. Spans are dropped if the
+ * export queue is full.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class ReportTracer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportTracer.class);
+
+  public static final String TRACEPARENT_HEADER = "traceparent";
+  public static final String TEMPLATE_ATTRIBUTE = "report.template";
+  public static final String FORMAT_ATTRIBUTE = "report.format";
+  static final String TRACE_ID_KEY = "traceId";
+  static final String EXPORTER_NONE = "none";
+  static final String EXPORTER_FILE = "file";
+  static final String EXPORTER_OTLP = "otlp";
+  static final String SERVICE_NAME = "report";
+
+  private static final Pattern TRACEPARENT =
+      Pattern.compile("^00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}$");
+  private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+  private static final String INVALID_SPAN_ID = "0000000000000000";
+
+  private final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Value("${reports.tracing.exporter}")
+  private String exporter;
+
+  @Value("${reports.tracing.file}")
+  private String file;
+
+  @Value("${reports.tracing.otlpEndpoint}")
+  private String otlpEndpoint;
+
+  @Value("${reports.tracing.queueCapacity}")
+  private int queueCapacity;
+
+  @Value("${reports.tracing.exportInterval}")
+  private long exportInterval;
+
+  private RestOperations restTemplate = new RestTemplate();
+  private BlockingQueue<Span> queue;
+  private ScheduledExecutorService executor;
+
+  /**
+   * Validates the exporter and starts the periodic export of finished spans.
+   */
+  @PostConstruct
+  public void init() {
+    if (EXPORTER_NONE.equals(exporter)) {
+      return;
+    }
+    if (!EXPORTER_FILE.equals(exporter) && !EXPORTER_OTLP.equals(exporter)) {
+      throw new IllegalStateException("Unknown tracing exporter: " + exporter);
+    }
+
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "report-trace-export");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::flush, exportInterval, exportInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the export, exporting the spans which are still queued.
+   */
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      flush();
+    }
+  }
+
+  /**
+   * Starts an internal span, a child of the current span of this thread.
+   *
+   * @param name name of the stage
+   * @return started span, which becomes the current span until it is closed
+   */
+  public Span startSpan(String name) {
+    return startSpan(name, Kind.INTERNAL);
+  }
+
+  /**
+   * Starts a span of the given kind, a child of the current span of this thread.
+   *
+   * @param name name of the stage
+   * @param kind kind of the span
+   * @return started span, which becomes the current span until it is closed
+   */
+  public Span startSpan(String name, Kind kind) {
+    return startChild(name, kind, currentSpan.get());
+  }
+
+  /**
+   * Starts an internal span with the given parent, e.g. a stage running on another thread.
+   *
+   * @param name   name of the stage
+   * @param parent parent span, or null to start a new trace
+   * @return started span, which becomes the current span until it is closed
+   */
+  public Span startSpan(String name, Span parent) {
+    return startChild(name, Kind.INTERNAL, parent);
+  }
+
+  /**
+   * Starts the span of an incoming request. The span continues the trace of the caller if the
+   * request carries a valid trace context.
+   *
+   * @param name        name of the request
+   * @param traceparent value of the {@value #TRACEPARENT_HEADER} header, may be null
+   * @return started span, which becomes the current span until it is closed
+   */
+  public Span startServerSpan(String name, String traceparent) {
+    Matcher matcher = TRACEPARENT.matcher(String.valueOf(traceparent));
+    if (matcher.matches() && !INVALID_TRACE_ID.equals(matcher.group(1))
+        && !INVALID_SPAN_ID.equals(matcher.group(2))) {
+      return start(name, Kind.SERVER, matcher.group(1), matcher.group(2));
+    }
+    return start(name, Kind.SERVER, randomId(16), null);
+  }
+
+  /**
+   * Returns the current span of this thread.
+   *
+   * @return current span, or null if no span is started
+   */
+  public Span getCurrentSpan() {
+    return currentSpan.get();
+  }
+
+  /**
+   * Makes the span which was current before the given one the current span of this thread again,
+   * without ending the given span, e.g. because it is ended on another thread.
+   *
+   * @param span span started on this thread
+   */
+  public void detach(Span span) {
+    if (currentSpan.get() == span) {
+      setCurrent(span.getPrevious());
+    }
+  }
+
+  void end(Span span) {
+    detach(span);
+    if (queue != null && !queue.offer(span)) {
+      LOGGER.debug("Trace export queue is full, dropping span {}", span.getName());
+    }
+  }
+
+  void flush() {
+    if (queue == null || queue.isEmpty()) {
+      return;
+    }
+
+    List<Span> spans = new ArrayList<>();
+    queue.drainTo(spans);
+
+    try {
+      if (EXPORTER_FILE.equals(exporter)) {
+        writeToFile(spans);
+      } else {
+        restTemplate.postForEntity(otlpEndpoint,
+            OtlpSpans.toResourceSpans(SERVICE_NAME, spans), Void.class);
+      }
+    } catch (IOException | RestClientException ex) {
+      LOGGER.warn("Could not export {} trace spans: {}", spans.size(), ex.getMessage());
+    }
+  }
+
+  void setRestTemplate(RestOperations restTemplate) {
+    this.restTemplate = restTemplate;
+  }
+
+  private Span startChild(String name, Kind kind, Span parent) {
+    return parent == null
+        ? start(name, kind, randomId(16), null)
+        : start(name, kind, parent.getTraceId(), parent.getSpanId());
+  }
+
+  private Span start(String name, Kind kind, String traceId, String parentSpanId) {
+    Span span = new Span(this, traceId, randomId(8), parentSpanId, name, kind, currentSpan.get());
+    setCurrent(span);
+    return span;
+  }
+
+  private void setCurrent(Span span) {
+    if (span == null) {
+      currentSpan.remove();
+      MDC.remove(TRACE_ID_KEY);
+    } else {
+      currentSpan.set(span);
+      MDC.put(TRACE_ID_KEY, span.getTraceId());
+    }
+  }
+
+  private void writeToFile(List<Span> spans) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Span span : spans) {
+      lines.append(objectMapper.writeValueAsString(OtlpSpans.toSpan(span))).append('\n');
+    }
+
+    Path path = Paths.get(file);
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    Files.write(path, lines.toString().getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private static String randomId(int bytes) {
+    StringBuilder id = new StringBuilder(bytes * 2);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int index = 0; index < bytes; index++) {
+      id.append(String.format("%02x", random.nextInt(256)));
+    }
+    return id.toString();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.annotation.PostConstruct;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRAbstractLRUVirtualizer;
+import net.sf.jasperreports.engine.fill.JRFileVirtualizer;
+import net.sf.jasperreports.engine.fill.JRGzipVirtualizer;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.util.JRSwapFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates virtualizers which keep only a limited number of filled report pages in memory and
+ * move the rest to a swap file, to separate files or to compressed memory. The number of pages
+ * can be overridden by a template with the {@value #MAX_PAGES_PROPERTY} report property.
+ */
+@Component
+public class ReportVirtualizerFactory {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportVirtualizerFactory.class);
+
+  static final String MAX_PAGES_PROPERTY = "virtualizerMaxPages";
+
+  private static final int SWAP_FILE_MIN_GROW_COUNT = 100;
+
+  static final String TYPE_NONE = "none";
+  static final String TYPE_SWAP_FILE = "swapFile";
+  static final String TYPE_FILE = "file";
+  static final String TYPE_GZIP = "gzip";
+
+  @Value("${reports.virtualizer.type}")
+  private String type;
+
+  @Value("${reports.virtualizer.maxPages}")
+  private int maxPages;
+
+  @Value("${reports.virtualizer.directory}")
+  private String directory;
+
+  @Value("${reports.virtualizer.swapFileBlockSize}")
+  private int swapFileBlockSize;
+
+  /**
+   * Validates the virtualizer type and creates the directory for virtualized pages.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    switch (type) {
+      case TYPE_NONE:
+      case TYPE_GZIP:
+        break;
+      case TYPE_SWAP_FILE:
+      case TYPE_FILE:
+        Files.createDirectories(Paths.get(directory));
+        break;
+      default:
+        throw new IllegalStateException("Unknown report virtualizer type: " + type);
+    }
+  }
+
+  /**
+   * Creates a new virtualizer for a single fill of the given report. The virtualizer must be
+   * cleaned up when the filled report is no longer needed.
+   *
+   * @param report compiled report that will be filled
+   * @return new virtualizer or null if virtualization is disabled
+   */
+  public JRAbstractLRUVirtualizer createVirtualizer(JasperReport report) {
+    int pages = getMaxPages(report);
+
+    switch (type) {
+      case TYPE_SWAP_FILE:
+        return new JRSwapFileVirtualizer(pages,
+            new JRSwapFile(directory, swapFileBlockSize, SWAP_FILE_MIN_GROW_COUNT), true);
+      case TYPE_FILE:
+        return new JRFileVirtualizer(pages, directory);
+      case TYPE_GZIP:
+        return new JRGzipVirtualizer(pages);
+      default:
+        return null;
+    }
+  }
+
+  private int getMaxPages(JasperReport report) {
+    String property = report.getProperty(MAX_PAGES_PROPERTY);
+    if (isBlank(property)) {
+      return maxPages;
+    }
+
+    try {
+      return Math.max(1, Integer.parseInt(property.trim()));
+    } catch (NumberFormatException ex) {
+      LOGGER.warn("Invalid {} property of report {}: {}", MAX_PAGES_PROPERTY,
+          report.getName(), property);
+      return maxPages;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+
+/**
+ * Writes a prepared report to an output stream.
+ */
+@FunctionalInterface
+public interface ReportWriter {
+
+  void writeTo(OutputStream outputStream) throws IOException;
+
+  /**
+   * Returns the writer of the same report compressed with gzip, if the report is stored
+   * compressed, so that it can be sent without compressing it again.
+   *
+   * @return writer of the compressed report, or empty if the report is not stored compressed
+   */
+  default Optional<ReportWriter> getCompressedWriter() {
+    return Optional.empty();
+  }
+}
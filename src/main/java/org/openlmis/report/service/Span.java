@@ -0,0 +1,136 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Timed stage of a traced request. Spans of the same request share the trace ID, and every span
+ * except the first one points to its parent span. A span has to be closed once the stage is
+ * finished; it is exported then, and the parent span becomes the current span of the thread
+ * again.
+ */
+@Getter
+public final class Span implements AutoCloseable {
+  @Getter(AccessLevel.NONE)
+  private final ReportTracer tracer;
+  private final String traceId;
+  private final String spanId;
+  private final String parentSpanId;
+  private final String name;
+  private final Kind kind;
+  private final long startEpochNanos;
+  private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+  @Getter(AccessLevel.PACKAGE)
+  private final Span previous;
+
+  @Getter(AccessLevel.NONE)
+  private final long startNanos;
+
+  private long endEpochNanos;
+  private String errorMessage;
+  private boolean error;
+  private boolean ended;
+
+  Span(ReportTracer tracer, String traceId, String spanId, String parentSpanId, String name,
+      Kind kind, Span previous) {
+    this.tracer = tracer;
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.parentSpanId = parentSpanId;
+    this.name = name;
+    this.kind = kind;
+    this.previous = previous;
+    this.startEpochNanos = System.currentTimeMillis() * 1_000_000;
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Sets an attribute describing the stage, e.g. the template name.
+   *
+   * @param key   attribute name
+   * @param value attribute value; nulls are ignored
+   * @return this span
+   */
+  public synchronized Span setAttribute(String key, Object value) {
+    if (value != null) {
+      attributes.put(key, value);
+    }
+    return this;
+  }
+
+  /**
+   * Marks the stage as failed.
+   *
+   * @param cause why the stage failed
+   * @return this span
+   */
+  public synchronized Span setError(Throwable cause) {
+    this.error = true;
+    this.errorMessage = cause.getClass().getSimpleName();
+    return this;
+  }
+
+  public synchronized Map<String, Object> getAttributes() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+  }
+
+  /**
+   * Returns the W3C trace context of this span, to be sent in the {@code traceparent} header of
+   * outbound requests.
+   *
+   * @return trace context header value
+   */
+  public String getTraceparent() {
+    return "00-" + traceId + "-" + spanId + "-01";
+  }
+
+  /**
+   * Ends the stage. Spans are exported only once, even if they are closed several times.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (ended) {
+        return;
+      }
+      ended = true;
+      endEpochNanos = startEpochNanos + (System.nanoTime() - startNanos);
+    }
+    tracer.end(this);
+  }
+
+  /**
+   * Kind of a span, with the numbers used by OTLP.
+   */
+  public enum Kind {
+    INTERNAL(1),
+    SERVER(2),
+    CLIENT(3);
+
+    @Getter
+    private final int code;
+
+    Kind(int code) {
+      this.code = code;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import java.io.IOException;
+import java.net.URI;
+import org.openlmis.report.service.Span.Kind;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Records every outbound HTTP call in a client span and propagates the trace context to the
+ * called service in the {@value ReportTracer#TRACEPARENT_HEADER} header. Query strings are not
+ * recorded, as they may contain tokens.
+ */
+public class TracingRequestInterceptor implements ClientHttpRequestInterceptor {
+  private final ReportTracer reportTracer;
+
+  public TracingRequestInterceptor(ReportTracer reportTracer) {
+    this.reportTracer = reportTracer;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+      ClientHttpRequestExecution execution) throws IOException {
+    URI uri = request.getURI();
+    try (Span span = reportTracer.startSpan(request.getMethodValue() + " " + uri.getPath(),
+        Kind.CLIENT)) {
+      span.setAttribute("http.method", request.getMethodValue())
+          .setAttribute("http.url", uri.getScheme() + "://" + uri.getAuthority() + uri.getPath());
+      request.getHeaders().set(ReportTracer.TRACEPARENT_HEADER, span.getTraceparent());
+
+      try {
+        ClientHttpResponse response = execution.execute(request, body);
+        span.setAttribute("http.status_code", response.getRawStatusCode());
+        return response;
+      } catch (IOException | RuntimeException ex) {
+        span.setError(ex);
+        throw ex;
+      }
+    }
+  }
+}
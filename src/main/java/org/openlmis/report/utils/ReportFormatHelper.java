@@ -0,0 +1,90 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.http.MediaType;
+
+public final class ReportFormatHelper {
+  public static final String FILL_ID_HEADER = "X-Report-Fill-Id";
+  public static final String GENERATED_DATE_HEADER = "X-Report-Generated-Date";
+  public static final String FILL_QUERIES_HEADER = "X-Report-Fill-Queries";
+  private static final String CSV = "csv";
+
+  public static final List<String> SUPPORTED_FORMATS =
+      Collections.unmodifiableList(
+          Arrays.asList("pdf", CSV, "xls", "xlsx", "html", "json", "ndjson"));
+  public static final List<String> COMPRESSIBLE_FORMATS =
+      Collections.unmodifiableList(Arrays.asList(CSV, "xls", "html", "json", "ndjson"));
+
+  private ReportFormatHelper() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the media type of a report generated in the given format. Unknown formats are
+   * treated as PDF.
+   *
+   * @param format report format, e.g. pdf, csv
+   * @return media type of the report
+   */
+  public static MediaType getMediaType(String format) {
+    if (CSV.equals(format)) {
+      return new MediaType("text", CSV, StandardCharsets.UTF_8);
+    } else if ("xls".equals(format)) {
+      return new MediaType("application", "vnd.ms-excel", StandardCharsets.UTF_8);
+    } else if ("xlsx".equals(format)) {
+      return new MediaType("application",
+          "vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+    } else if ("html".equals(format)) {
+      return MediaType.TEXT_HTML;
+    } else if ("json".equals(format)) {
+      return MediaType.APPLICATION_JSON;
+    } else if ("ndjson".equals(format)) {
+      return MediaType.valueOf("application/x-ndjson");
+    } else if ("zip".equals(format)) {
+      return new MediaType("application", "zip");
+    } else {
+      return MediaType.APPLICATION_PDF;
+    }
+  }
+
+  /**
+   * Returns the value of the Content-Disposition header of a report.
+   *
+   * @param templateName name of the report template
+   * @param format       report format, used as the file extension
+   * @return inline content disposition with the report file name
+   */
+  public static String getContentDisposition(String templateName, String format) {
+    String fileName = templateName.replaceAll("\\s+", "_");
+    return "inline; filename=" + fileName + "." + format;
+  }
+
+  /**
+   * Checks whether reports in the given format are worth compressing. PDF and XLSX reports
+   * are compressed by their format already.
+   *
+   * @param format report format
+   * @return true for text based formats and XLS
+   */
+  public static boolean isCompressible(String format) {
+    return COMPRESSIBLE_FORMATS.contains(format);
+  }
+}
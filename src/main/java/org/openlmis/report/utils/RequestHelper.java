@@ -16,6 +16,8 @@
 package org.openlmis.report.utils;
 
 import java.net.URI;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.codec.Charsets;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -51,6 +53,15 @@ public final class RequestHelper {
     return builder.build(true).toUri();
   }
 
+  /**
+   * Returns the parameters of the given request. Older servlet APIs declare the parameter map
+   * as a raw map, so the cast is done once here.
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, String[]> getParameterMap(HttpServletRequest request) {
+    return (Map<String, String[]>) request.getParameterMap();
+  }
+
   /**
    * Creates an {@link HttpEntity} with the given payload as a body and adds an authorization
    * header with the provided token.
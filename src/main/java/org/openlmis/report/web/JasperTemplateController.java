@@ -18,41 +18,59 @@ package org.openlmis.report.web;
 import static org.apache.commons.lang3.BooleanUtils.isNotFalse;
 import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_TEMPLATE_NOT_FOUND;
 
-import java.nio.charset.StandardCharsets;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportSnapshot;
 import org.openlmis.report.dto.JasperTemplateDto;
+import org.openlmis.report.dto.ReportBatchRequestDto;
 import org.openlmis.report.exception.JasperReportViewException;
 import org.openlmis.report.exception.NotFoundMessageException;
 import org.openlmis.report.exception.ReportingException;
 import org.openlmis.report.repository.JasperTemplateRepository;
 import org.openlmis.report.service.JasperReportsViewService;
 import org.openlmis.report.service.JasperTemplateService;
+import org.openlmis.report.service.PageRange;
 import org.openlmis.report.service.PermissionService;
+import org.openlmis.report.service.PreparedReport;
+import org.openlmis.report.service.ReportBatchService;
+import org.openlmis.report.service.ReportCompression;
+import org.openlmis.report.service.ReportFillProfiler;
+import org.openlmis.report.service.ReportMetrics;
+import org.openlmis.report.service.ReportSnapshotService;
+import org.openlmis.report.service.ReportTracer;
+import org.openlmis.report.service.ReportWriter;
+import org.openlmis.report.service.Span;
 import org.openlmis.report.utils.Message;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.openlmis.report.utils.RequestHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Controller
 @Transactional
@@ -70,22 +88,25 @@ public class JasperTemplateController extends BaseController {
   private JasperReportsViewService jasperReportsViewService;
 
   @Autowired
-  private PermissionService permissionService;
+  private ReportBatchService reportBatchService;
+
+  @Autowired
+  private ReportSnapshotService reportSnapshotService;
 
-  @Value("${dateTimeFormat}")
-  private String dateTimeFormat;
+  @Autowired
+  private ReportCompression reportCompression;
 
-  @Value("${dateFormat}")
-  private String dateFormat;
+  @Autowired
+  private ReportFillProfiler reportFillProfiler;
 
-  @Value("${groupingSeparator}")
-  private String groupingSeparator;
+  @Autowired
+  private ReportMetrics reportMetrics;
 
-  @Value("${groupingSize}")
-  private String groupingSize;
+  @Autowired
+  private ReportTracer reportTracer;
 
-  @Value("${time.zoneId}")
-  private String timeZoneId;
+  @Autowired
+  private PermissionService permissionService;
 
   /**
    * Adding report templates with ".jrxml" format to database.
@@ -123,7 +144,7 @@ public class JasperTemplateController extends BaseController {
   public List<JasperTemplateDto> getVisibleTemplates() {
     permissionService.canViewReports();
     // we want to show only visible reports
-    return JasperTemplateDto.newInstance(jasperTemplateRepository.findByVisible(true));
+    return jasperTemplateService.getVisibleTemplates();
   }
 
   /**
@@ -138,11 +159,32 @@ public class JasperTemplateController extends BaseController {
   public JasperTemplateDto getTemplate(@PathVariable("id") UUID templateId) {
     permissionService.canViewReports();
 
+    return jasperTemplateService.getTemplate(templateId)
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
+  }
+
+  /**
+   * Download compiled report (".jasper" file) of chosen template.
+   *
+   * @param templateId UUID of template which data we want to get
+   * @return compiled report.
+   */
+  @RequestMapping(value = "/{id}/data", method = RequestMethod.GET)
+  @ResponseBody
+  public ResponseEntity<byte[]> getTemplateData(@PathVariable("id") UUID templateId) {
+    permissionService.canViewReports();
+
     JasperTemplate jasperTemplate = jasperTemplateRepository.findById(templateId)
         .orElseThrow(() -> new NotFoundMessageException(
             new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
+    String fileName = jasperTemplate.getName().replaceAll("\\s+", "_");
 
-    return JasperTemplateDto.newInstance(jasperTemplate);
+    return ResponseEntity
+        .ok()
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .header("Content-Disposition", "attachment; filename=" + fileName + ".jasper")
+        .body(jasperTemplate.getData());
   }
 
   /**
@@ -157,25 +199,43 @@ public class JasperTemplateController extends BaseController {
     JasperTemplate jasperTemplate = jasperTemplateRepository.findById(templateId)
         .orElseThrow(() -> new NotFoundMessageException(
             new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
-    jasperTemplateRepository.delete(jasperTemplate);
+    jasperTemplateService.deleteTemplate(jasperTemplate);
   }
 
   /**
-   * Generate a report based on the template, the format and the request parameters.
+   * Generate a report based on the template, the format and the request parameters. Only the
+   * given range of pages, or the first page of a preview, is generated if requested. Reports
+   * pre-generated by a schedule are returned together with the date of their generation.
+   * Reports in compressible formats are sent compressed to clients accepting gzip.
    *
    * @param request    request (to get the request parameters)
    * @param templateId report template ID
    * @param format     report format to generate, default is PDF
+   * @param pageFrom   first page to generate, numbered from one
+   * @param pageTo     last page to generate
+   * @param preview    whether only the first page should be generated
    * @return the generated report
    */
   @RequestMapping(value = "/{id}/{format}", method = RequestMethod.GET)
   @ResponseBody
-  public ResponseEntity<byte[]> generateReport(
+  public ResponseEntity<StreamingResponseBody> generateReport(
       HttpServletRequest request, @PathVariable("id") UUID templateId,
-      @PathVariable("format") String format) throws JasperReportViewException {
-    JasperTemplate template = jasperTemplateRepository.findById(templateId)
-        .orElseThrow(() -> new NotFoundMessageException(
-            new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
+      @PathVariable("format") String format,
+      @RequestParam(value = "pageFrom", required = false) Integer pageFrom,
+      @RequestParam(value = "pageTo", required = false) Integer pageTo,
+      @RequestParam(value = "preview", defaultValue = "false") boolean preview)
+      throws JasperReportViewException {
+    final PageRange pageRange = PageRange.of(pageFrom, pageTo, preview);
+
+    long start = System.nanoTime();
+    JasperTemplate template;
+    try (Span span = reportTracer.startSpan("template.load")) {
+      template = jasperTemplateRepository.findById(templateId)
+          .orElseThrow(() -> new NotFoundMessageException(
+              new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
+      span.setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, template.getName());
+    }
+    reportMetrics.templateLoaded(template.getName(), format, System.nanoTime() - start);
 
     if (isNotFalse(template.getVisible())) {
       // if template is hidden it means that it is generated from other view than 'report view'
@@ -188,39 +248,83 @@ public class JasperTemplateController extends BaseController {
     //permissionService.validatePermissions(
     //    requiredRights.toArray(new String[requiredRights.size()]));
 
-    Map<String, Object> map = jasperTemplateService.mapRequestParametersToTemplate(
-        request, template
-    );
-    map.putAll(jasperTemplateService.mapReportImagesToTemplate(template));
-
-    map.put("format", format);
-    map.put("dateTimeFormat", dateTimeFormat);
-    map.put("dateFormat", dateFormat);
-    map.put("timeZoneId", timeZoneId);
-    DecimalFormatSymbols decimalFormatSymbols = new DecimalFormatSymbols();
-    decimalFormatSymbols.setGroupingSeparator(groupingSeparator.charAt(0));
-    DecimalFormat decimalFormat = new DecimalFormat("", decimalFormatSymbols);
-    decimalFormat.setGroupingSize(Integer.parseInt(groupingSize));
-    map.put("decimalFormat", decimalFormat);
-
-    byte[] bytes = jasperReportsViewService.getJasperReportsView(template, map);
-
-    MediaType mediaType;
-    if ("csv".equals(format)) {
-      mediaType = new MediaType("text", "csv", StandardCharsets.UTF_8);
-    } else if ("xls".equals(format)) {
-      mediaType = new MediaType("application", "vnd.ms-excel", StandardCharsets.UTF_8);
-    } else if ("html".equals(format)) {
-      mediaType = MediaType.TEXT_HTML;
-    } else {
-      mediaType = MediaType.APPLICATION_PDF;
+    start = System.nanoTime();
+    Map<String, String[]> parameterMap = RequestHelper.getParameterMap(request);
+    Map<String, Object> map;
+    try (Span span = reportTracer.startSpan("parameters.map")) {
+      span.setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, template.getName());
+      map = jasperTemplateService.mapReportParametersToTemplate(
+          parameterMap, template, format
+      );
+    }
+    reportMetrics.parametersMapped(template.getName(), format, System.nanoTime() - start);
+
+    BodyBuilder response = ResponseEntity
+        .ok()
+        .contentType(ReportFormatHelper.getMediaType(format))
+        .header("Content-Disposition",
+            ReportFormatHelper.getContentDisposition(template.getName(), format));
+    String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+
+    if (pageRange == null) {
+      Optional<ReportSnapshot> snapshot =
+          reportSnapshotService.findSnapshot(template, parameterMap, format,
+              LocaleContextHolder.getLocale());
+      if (snapshot.isPresent()) {
+        ReportWriter writer = reportCompression.negotiate(acceptEncoding, format,
+            reportSnapshotService.getWriter(snapshot.get()), response);
+        return response
+            .header(ReportFormatHelper.GENERATED_DATE_HEADER,
+                snapshot.get().getGeneratedDate().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+            .body(writer::writeTo);
+      }
+    }
+
+    PreparedReport report = jasperReportsViewService.prepareReport(template, map, pageRange);
+
+    try {
+      if (report.getFillId() != null) {
+        response.header(ReportFormatHelper.FILL_ID_HEADER, report.getFillId().toString());
+      }
+      reportFillProfiler.getDebugHeader(report.getFillProfile())
+          .ifPresent(queries -> response.header(ReportFormatHelper.FILL_QUERIES_HEADER, queries));
+
+      return response.body(
+          reportCompression.negotiate(acceptEncoding, format, report, response)::writeTo);
+    } catch (RuntimeException ex) {
+      report.close();
+      throw ex;
     }
-    String fileName = template.getName().replaceAll("\\s+", "_");
+  }
+
+  /**
+   * Generate several reports of the template at once, one for every set of parameters. The
+   * reports are returned as a ZIP archive, or as a single PDF if they should be merged.
+   *
+   * @param templateId report template ID
+   * @param request    format, parameter sets and whether the reports should be merged
+   * @return the ZIP archive or the merged PDF
+   */
+  @RequestMapping(value = "/{id}/batch", method = RequestMethod.POST)
+  @ResponseBody
+  public ResponseEntity<StreamingResponseBody> generateReportBatch(
+      @PathVariable("id") UUID templateId, @RequestBody ReportBatchRequestDto request)
+      throws JasperReportViewException {
+    JasperTemplate template = jasperTemplateRepository.findById(templateId)
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, templateId)));
+
+    List<Map<String, Object>> paramsList = jasperTemplateService.mapReportParametersToTemplate(
+        request.getParameterMaps(), template, request.getFormat());
+    ReportWriter writer = reportBatchService.prepareBatch(template, paramsList,
+        request.getFormat(), request.isMerge());
 
+    String outputFormat = request.isMerge() ? request.getFormat() : "zip";
     return ResponseEntity
         .ok()
-        .contentType(mediaType)
-        .header("Content-Disposition", "inline; filename=" + fileName + "." + format)
-        .body(bytes);
+        .contentType(ReportFormatHelper.getMediaType(outputFormat))
+        .header("Content-Disposition",
+            ReportFormatHelper.getContentDisposition(template.getName(), outputFormat))
+        .body(writer::writeTo);
   }
 }
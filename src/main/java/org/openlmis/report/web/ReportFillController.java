@@ -0,0 +1,114 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.web;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_NOT_FOUND;
+
+import java.util.List;
+import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.NotFoundMessageException;
+import org.openlmis.report.service.FillProfile;
+import org.openlmis.report.service.JasperReportsViewService;
+import org.openlmis.report.service.PermissionService;
+import org.openlmis.report.service.PreparedReport;
+import org.openlmis.report.service.ReportCompression;
+import org.openlmis.report.service.ReportFillProfiler;
+import org.openlmis.report.service.ReportPrintCache.CachedPrint;
+import org.openlmis.report.utils.Message;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@Controller
+@RequestMapping("/api/reports/fills")
+public class ReportFillController extends BaseController {
+
+  @Autowired
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Autowired
+  private ReportFillProfiler reportFillProfiler;
+
+  @Autowired
+  private ReportCompression reportCompression;
+
+  @Autowired
+  private PermissionService permissionService;
+
+  /**
+   * Get the slowest of the recent report fills, together with the SQL statements they have
+   * executed. Fills are recorded only if SQL capture is enabled.
+   *
+   * @param limit maximum number of fills to return
+   * @return fills sorted from the slowest one
+   */
+  @RequestMapping(value = "/slowest", method = RequestMethod.GET)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public List<FillProfile> getSlowestFills(
+      @RequestParam(value = "limit", defaultValue = "10") int limit) {
+    permissionService.canEditReportTemplates();
+    return reportFillProfiler.getSlowestFills(limit);
+  }
+
+  /**
+   * Export a recently generated report to another format without filling it again.
+   *
+   * @param fillId ID of the fill, returned in the {@value ReportFormatHelper#FILL_ID_HEADER}
+   *               header together with the generated report
+   * @param format report format to export
+   * @param request request (to get the accepted encodings)
+   * @return the exported report
+   */
+  @RequestMapping(value = "/{id}/{format}", method = RequestMethod.GET)
+  @ResponseBody
+  public ResponseEntity<StreamingResponseBody> exportReport(@PathVariable("id") UUID fillId,
+      @PathVariable("format") String format, HttpServletRequest request)
+      throws JasperReportViewException {
+    CachedPrint cachedPrint = jasperReportsViewService.getCachedFill(fillId)
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JASPER_REPORT_FILL_NOT_FOUND, fillId)));
+
+    PreparedReport report = jasperReportsViewService.prepareCachedFill(cachedPrint, format);
+
+    try {
+      BodyBuilder response = ResponseEntity
+          .ok()
+          .contentType(ReportFormatHelper.getMediaType(format))
+          .header("Content-Disposition",
+              ReportFormatHelper.getContentDisposition(cachedPrint.getTemplateName(), format))
+          .header(ReportFormatHelper.FILL_ID_HEADER, fillId.toString());
+      return response.body(reportCompression.negotiate(
+          request.getHeader(HttpHeaders.ACCEPT_ENCODING), format, report, response)::writeTo);
+    } catch (RuntimeException ex) {
+      report.close();
+      throw ex;
+    }
+  }
+}
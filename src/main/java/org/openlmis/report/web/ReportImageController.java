@@ -19,17 +19,23 @@ import static org.openlmis.report.i18n.ReportImageMessageKeys.ERROR_NOT_FOUND;
 
 import java.util.Collections;
 import java.util.UUID;
+import net.sf.jasperreports.engine.type.ImageTypeEnum;
+import net.sf.jasperreports.engine.util.JRTypeSniffer;
 import org.openlmis.report.domain.ReportImage;
 import org.openlmis.report.exception.NotFoundMessageException;
 import org.openlmis.report.exception.ReportingException;
 import org.openlmis.report.repository.ReportImageRepository;
 import org.openlmis.report.service.PermissionService;
 import org.openlmis.report.service.ReportImageService;
+import org.openlmis.report.service.ReportImageStore;
 import org.openlmis.report.utils.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -47,6 +53,8 @@ public class ReportImageController extends BaseController {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ReportImageController.class);
 
+  private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
   @Autowired
   private ReportImageRepository reportImageRepository;
 
@@ -56,6 +64,9 @@ public class ReportImageController extends BaseController {
   @Autowired
   private ReportImageService reportImageService;
 
+  @Autowired
+  private ReportImageStore reportImageStore;
+
   /**
    * Saves image to the database.
    *
@@ -109,6 +120,32 @@ public class ReportImageController extends BaseController {
         .orElseThrow(() -> new NotFoundMessageException(new Message(ERROR_NOT_FOUND)));
   }
 
+  /**
+   * Get an image of an exported HTML report by the hash of its content. The content of a hash
+   * never changes, so browsers may cache the image for good. Browsers load the image without
+   * the token of the report request, and the hash is only known from the exported report, so
+   * no permission is checked.
+   *
+   * @param hash SHA-256 hash of the image content
+   * @return the image.
+   */
+  @RequestMapping(value = "/content/{hash}", method = RequestMethod.GET)
+  @ResponseBody
+  public ResponseEntity<byte[]> getImageContent(@PathVariable("hash") String hash) {
+    byte[] data = reportImageStore.get(hash)
+        .orElseThrow(() -> new NotFoundMessageException(new Message(ERROR_NOT_FOUND)));
+    ImageTypeEnum type = JRTypeSniffer.getImageTypeValue(data);
+
+    return ResponseEntity
+        .ok()
+        .contentType(type.getMimeType() == null
+            ? MediaType.APPLICATION_OCTET_STREAM
+            : MediaType.parseMediaType(type.getMimeType()))
+        .eTag(hash)
+        .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL)
+        .body(data);
+  }
+
   /**
    * Allows deleting reportImage.
    *
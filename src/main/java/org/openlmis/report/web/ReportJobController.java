@@ -0,0 +1,170 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.web;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_TEMPLATE_NOT_FOUND;
+import static org.openlmis.report.i18n.ReportJobMessageKeys.ERROR_JOB_FORMAT_INVALID;
+import static org.openlmis.report.i18n.ReportJobMessageKeys.ERROR_JOB_NOT_COMPLETED;
+import static org.openlmis.report.i18n.ReportJobMessageKeys.ERROR_JOB_NOT_FOUND;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.dto.ReportJobDto;
+import org.openlmis.report.dto.ReportJobRequestDto;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.NotFoundMessageException;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.openlmis.report.i18n.MessageService;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.service.JasperTemplateService;
+import org.openlmis.report.service.ReportCompression;
+import org.openlmis.report.service.ReportJob;
+import org.openlmis.report.service.ReportJobService;
+import org.openlmis.report.service.ReportJobStatus;
+import org.openlmis.report.utils.Message;
+import org.openlmis.report.utils.ReportFormatHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Controller
+@Transactional
+@RequestMapping("/api/reports/jobs")
+public class ReportJobController extends BaseController {
+
+  @Autowired
+  private ReportJobService reportJobService;
+
+  @Autowired
+  private JasperTemplateService jasperTemplateService;
+
+  @Autowired
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Autowired
+  private MessageService messageService;
+
+  @Autowired
+  private ReportCompression reportCompression;
+
+  /**
+   * Queue generation of a report based on the template, the format and the parameters.
+   *
+   * @param request template ID, format and parameters of the report
+   * @return queued job.
+   */
+  @RequestMapping(method = RequestMethod.POST)
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public ReportJobDto submitJob(@RequestBody ReportJobRequestDto request)
+      throws JasperReportViewException {
+    if (!ReportFormatHelper.SUPPORTED_FORMATS.contains(request.getFormat())) {
+      throw new ValidationMessageException(
+          new Message(ERROR_JOB_FORMAT_INVALID, request.getFormat()));
+    }
+
+    JasperTemplate template = jasperTemplateRepository.findById(request.getTemplateId())
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, request.getTemplateId())));
+
+    Map<String, Object> map = jasperTemplateService.mapReportParametersToTemplate(
+        request.getParameterMap(), template, request.getFormat()
+    );
+
+    return toDto(reportJobService.submit(template, map));
+  }
+
+  /**
+   * Get status of chosen job.
+   *
+   * @param jobId UUID of job which we want to get
+   * @return job.
+   */
+  @RequestMapping(value = "/{id}", method = RequestMethod.GET)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public ReportJobDto getJob(@PathVariable("id") UUID jobId) {
+    return toDto(findJob(jobId));
+  }
+
+  /**
+   * Download report generated by chosen job. Output stored compressed is sent as it is to
+   * clients accepting gzip, and decompressed for other clients.
+   *
+   * @param jobId   UUID of job which output we want to get
+   * @param request request (to get the accepted encodings)
+   * @return the generated report.
+   */
+  @RequestMapping(value = "/{id}/output", method = RequestMethod.GET)
+  @ResponseBody
+  public ResponseEntity<Resource> getJobOutput(@PathVariable("id") UUID jobId,
+      HttpServletRequest request) throws IOException {
+    ReportJob job = findJob(jobId);
+
+    if (job.getStatus() != ReportJobStatus.COMPLETED) {
+      throw new ValidationMessageException(new Message(ERROR_JOB_NOT_COMPLETED, jobId));
+    }
+
+    BodyBuilder response = ResponseEntity
+        .ok()
+        .contentType(ReportFormatHelper.getMediaType(job.getFormat()))
+        .header("Content-Disposition",
+            ReportFormatHelper.getContentDisposition(job.getTemplateName(), job.getFormat()));
+    Resource output = new FileSystemResource(job.getOutput().toFile());
+
+    if (job.isCompressed()) {
+      response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+      if (reportCompression.isAccepted(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+        response.header(HttpHeaders.CONTENT_ENCODING, ReportCompression.GZIP);
+      } else {
+        output = new InputStreamResource(new GZIPInputStream(output.getInputStream()));
+      }
+    }
+
+    return response.body(output);
+  }
+
+  private ReportJob findJob(UUID jobId) {
+    return reportJobService.findJob(jobId)
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JOB_NOT_FOUND, jobId)));
+  }
+
+  private ReportJobDto toDto(ReportJob job) {
+    ReportJobDto dto = ReportJobDto.newInstance(job);
+    if (job.getError() != null) {
+      dto.setError(messageService.localize(job.getError()));
+    }
+    return dto;
+  }
+}
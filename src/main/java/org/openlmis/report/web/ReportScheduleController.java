@@ -0,0 +1,105 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.web;
+
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_TEMPLATE_NOT_FOUND;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.dto.ReportScheduleDto;
+import org.openlmis.report.exception.NotFoundMessageException;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.service.PermissionService;
+import org.openlmis.report.service.ReportScheduleService;
+import org.openlmis.report.utils.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Controller
+@Transactional
+@RequestMapping("/api/reports/schedules")
+public class ReportScheduleController extends BaseController {
+
+  @Autowired
+  private ReportScheduleService reportScheduleService;
+
+  @Autowired
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Autowired
+  private PermissionService permissionService;
+
+  /**
+   * Get all schedules of report pre-generation.
+   *
+   * @return schedules.
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public List<ReportScheduleDto> getSchedules() {
+    permissionService.canEditReportTemplates();
+
+    List<ReportScheduleDto> schedules = new ArrayList<>();
+    reportScheduleService.findAll()
+        .forEach(schedule -> schedules.add(ReportScheduleDto.newInstance(schedule)));
+    return schedules;
+  }
+
+  /**
+   * Schedule pre-generation of a report based on the template, the format and the parameters.
+   *
+   * @param request template ID, cron expression, format and parameters of the schedule
+   * @return created schedule.
+   */
+  @RequestMapping(method = RequestMethod.POST)
+  @ResponseStatus(HttpStatus.CREATED)
+  @ResponseBody
+  public ReportScheduleDto createSchedule(@RequestBody ReportScheduleDto request) {
+    permissionService.canEditReportTemplates();
+
+    JasperTemplate template = jasperTemplateRepository.findById(request.getTemplateId())
+        .orElseThrow(() -> new NotFoundMessageException(
+            new Message(ERROR_JASPER_TEMPLATE_NOT_FOUND, request.getTemplateId())));
+
+    ReportScheduleDto dto =
+        ReportScheduleDto.newInstance(reportScheduleService.createSchedule(template, request));
+    dto.setTemplateId(template.getId());
+    return dto;
+  }
+
+  /**
+   * Delete chosen schedule together with the report it has pre-generated.
+   *
+   * @param scheduleId UUID of schedule which we want to delete
+   */
+  @RequestMapping(value = "/{id}", method = RequestMethod.DELETE)
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void deleteSchedule(@PathVariable("id") UUID scheduleId) {
+    permissionService.canEditReportTemplates();
+    reportScheduleService.deleteSchedule(scheduleId);
+  }
+}
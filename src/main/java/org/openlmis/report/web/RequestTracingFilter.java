@@ -0,0 +1,111 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.web;
+
+import java.io.IOException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openlmis.report.service.ReportTracer;
+import org.openlmis.report.service.Span;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Records every request in a server span, which is the parent of the spans of its stages and
+ * outbound calls. The filter runs before the security filters, so that token checks are part of
+ * the trace. Spans of streamed responses end once the response is complete.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestTracingFilter extends OncePerRequestFilter {
+
+  @Autowired
+  private ReportTracer reportTracer;
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    Span span = reportTracer.startServerSpan(request.getMethod() + " " + request.getRequestURI(),
+        request.getHeader(ReportTracer.TRACEPARENT_HEADER));
+    span.setAttribute("http.method", request.getMethod())
+        .setAttribute("http.target", request.getRequestURI());
+
+    boolean async = false;
+    try {
+      filterChain.doFilter(request, response);
+      async = request.isAsyncStarted();
+      if (async) {
+        request.getAsyncContext().addListener(new SpanListener(span, response));
+      }
+    } catch (IOException | ServletException | RuntimeException ex) {
+      span.setError(ex);
+      throw ex;
+    } finally {
+      Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+      span.setAttribute("http.route", pattern);
+      if (async) {
+        reportTracer.detach(span);
+      } else {
+        end(span, response);
+      }
+    }
+  }
+
+  private static void end(Span span, HttpServletResponse response) {
+    span.setAttribute("http.status_code", response.getStatus());
+    span.close();
+  }
+
+  private static final class SpanListener implements AsyncListener {
+    private final Span span;
+    private final HttpServletResponse response;
+
+    SpanListener(Span span, HttpServletResponse response) {
+      this.span = span;
+      this.response = response;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      end(span, response);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      span.setAttribute("timeout", true);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      if (event.getThrowable() != null) {
+        span.setError(event.getThrowable());
+      }
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+CREATE TABLE report_schedules (
+    id uuid NOT NULL,
+    templatename text NOT NULL,
+    cronexpression text NOT NULL,
+    format text NOT NULL,
+    fromtemplate boolean NOT NULL DEFAULT false,
+    nextrundate timestamp with time zone NOT NULL
+);
+
+ALTER TABLE ONLY report_schedules
+    ADD CONSTRAINT report_schedules_pkey PRIMARY KEY (id);
+
+CREATE INDEX report_schedules_nextrundate_idx ON report_schedules (nextrundate);
+
+CREATE TABLE report_schedule_parameters (
+    scheduleid uuid NOT NULL,
+    name text NOT NULL,
+    value text
+);
+
+ALTER TABLE ONLY report_schedule_parameters
+    ADD CONSTRAINT report_schedule_parameters_pkey PRIMARY KEY (scheduleid, name);
+
+ALTER TABLE ONLY report_schedule_parameters
+    ADD CONSTRAINT report_schedule_parameters_scheduleid_fk FOREIGN KEY (scheduleid) REFERENCES report_schedules(id) ON DELETE CASCADE;
+
+CREATE TABLE report_snapshots (
+    id uuid NOT NULL,
+    templateid uuid NOT NULL,
+    parameterskey text NOT NULL,
+    format text NOT NULL,
+    data bytea NOT NULL,
+    generateddate timestamp with time zone NOT NULL
+);
+
+ALTER TABLE ONLY report_snapshots
+    ADD CONSTRAINT report_snapshots_pkey PRIMARY KEY (id);
+
+ALTER TABLE ONLY report_snapshots
+    ADD CONSTRAINT report_snapshots_unq UNIQUE (templateid, parameterskey, format);
+
+ALTER TABLE ONLY report_snapshots
+    ADD CONSTRAINT report_snapshots_templateid_fk FOREIGN KEY (templateid) REFERENCES jasper_templates(id) ON DELETE CASCADE;
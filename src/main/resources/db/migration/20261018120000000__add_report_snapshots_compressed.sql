@@ -0,0 +1 @@
+ALTER TABLE report_snapshots ADD COLUMN compressed boolean NOT NULL DEFAULT false;
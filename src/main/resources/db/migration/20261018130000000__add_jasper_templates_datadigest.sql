@@ -0,0 +1,3 @@
+ALTER TABLE jasper_templates ADD COLUMN datadigest text;
+
+UPDATE jasper_templates SET datadigest = encode(sha256(data), 'hex') WHERE data IS NOT NULL;
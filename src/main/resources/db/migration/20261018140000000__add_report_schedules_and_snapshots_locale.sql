@@ -0,0 +1,8 @@
+ALTER TABLE report_schedules ADD COLUMN locale text NOT NULL DEFAULT 'en';
+
+ALTER TABLE report_snapshots ADD COLUMN locale text NOT NULL DEFAULT 'en';
+
+ALTER TABLE ONLY report_snapshots DROP CONSTRAINT report_snapshots_unq;
+
+ALTER TABLE ONLY report_snapshots
+    ADD CONSTRAINT report_snapshots_unq UNIQUE (templateid, parameterskey, format, locale);
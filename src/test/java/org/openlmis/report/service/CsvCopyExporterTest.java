@@ -0,0 +1,213 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.design.JRDesignExpression;
+import net.sf.jasperreports.engine.design.JRDesignParameter;
+import net.sf.jasperreports.engine.design.JRDesignQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CsvCopyExporterTest {
+  private static final String QUERY = "SELECT code, name FROM facilities WHERE name = $P{name}";
+  private static final String COPY_SQL =
+      "COPY (SELECT code, name FROM facilities WHERE name = 'O''Brien') TO STDOUT WITH CSV HEADER";
+  private static final String LIMITED_COPY_SQL = "COPY (SELECT * FROM ("
+      + "SELECT code, name FROM facilities WHERE name = 'O''Brien') AS data LIMIT 11)"
+      + " TO STDOUT WITH CSV HEADER";
+  private static final String NAME = "name";
+
+  @Mock
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Mock
+  private ReportLimits reportLimits;
+
+  @Mock
+  private JasperReport report;
+
+  @Mock
+  private ReportConnection connection;
+
+  @Mock
+  private BaseConnection baseConnection;
+
+  @Mock
+  private PGConnection pgConnection;
+
+  @Mock
+  private CopyManager copyManager;
+
+  @InjectMocks
+  private CsvCopyExporter exporter;
+
+  private Map<String, Object> params;
+
+  @Before
+  public void setUp() throws SQLException {
+    ReflectionTestUtils.setField(exporter, "enabled", true);
+    when(report.getProperty(CsvCopyExporter.DATA_ONLY_CSV_PROPERTY)).thenReturn("true");
+    setQuery(QUERY);
+    when(report.getParameters()).thenReturn(new JRParameter[0]);
+
+    params = new HashMap<>();
+    params.put(NAME, "O'Brien");
+
+    when(reportConnectionFactory.getConnection(report)).thenReturn(connection);
+    when(connection.unwrap(BaseConnection.class)).thenReturn(baseConnection);
+    when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    when(baseConnection.getStandardConformingStrings()).thenReturn(true);
+    when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+  }
+
+  @Test
+  public void shouldSupportTemplateWithDataOnlyProperty() {
+    assertTrue(exporter.supports(report, params));
+  }
+
+  @Test
+  public void shouldNotSupportTemplateWithoutDataOnlyProperty() {
+    when(report.getProperty(CsvCopyExporter.DATA_ONLY_CSV_PROPERTY)).thenReturn(null);
+
+    assertFalse(exporter.supports(report, params));
+  }
+
+  @Test
+  public void shouldNotSupportTemplateIfDisabled() {
+    ReflectionTestUtils.setField(exporter, "enabled", false);
+
+    assertFalse(exporter.supports(report, params));
+  }
+
+  @Test
+  public void shouldNotSupportQueryWithClauses() {
+    setQuery("SELECT code FROM facilities WHERE $X{IN, code, codes}");
+
+    assertFalse(exporter.supports(report, params));
+  }
+
+  @Test
+  public void shouldNotSupportMissingParameterWithDefaultValue() {
+    JRDesignParameter parameter = new JRDesignParameter();
+    parameter.setName(NAME);
+    parameter.setDefaultValueExpression(new JRDesignExpression("\"default\""));
+    when(report.getParameters()).thenReturn(new JRParameter[] { parameter });
+
+    assertTrue(exporter.supports(report, params));
+    assertFalse(exporter.supports(report, new HashMap<>()));
+  }
+
+  @Test
+  public void shouldNotSupportCollectionOrArrayParameters() {
+    params.put(NAME, Arrays.asList("a", "b"));
+    assertFalse(exporter.supports(report, params));
+
+    params.put(NAME, new String[] { "a", "b" });
+    assertFalse(exporter.supports(report, params));
+  }
+
+  @Test
+  public void shouldRenderParametersAsLiterals() throws SQLException {
+    setQuery("SELECT * FROM t WHERE a = $P{name} AND b = $P{count} AND c = $P{flag}"
+        + " AND d = $P{missing} AND e = $P{nan} ORDER BY $P!{order};");
+    params.put("count", 10);
+    params.put("flag", true);
+    params.put("nan", Double.NaN);
+    params.put("order", "code DESC");
+
+    assertEquals("COPY (SELECT * FROM t WHERE a = 'O''Brien' AND b = 10 AND c = TRUE"
+        + " AND d = NULL AND e = 'NaN' ORDER BY code DESC) TO STDOUT WITH CSV HEADER",
+        exporter.getCopySql(report, params, true, 0));
+  }
+
+  @Test
+  public void shouldEscapeBackslashesWithoutStandardConformingStrings() throws SQLException {
+    params.put(NAME, "a\\b");
+
+    assertEquals(
+        "COPY (SELECT code, name FROM facilities WHERE name = E'a\\\\b') TO STDOUT WITH CSV HEADER",
+        exporter.getCopySql(report, params, false, 0));
+  }
+
+  @Test
+  public void shouldCopyQueryWithTimeout() throws SQLException, IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(copyManager.copyOut(COPY_SQL, outputStream)).thenReturn(2L);
+
+    assertEquals(2L, exporter.copy(report, params, 30, outputStream));
+
+    verify(connection).setStatementTimeout(30);
+    verify(connection).close();
+  }
+
+  @Test
+  public void shouldCopyQueryIntoStream() throws SQLException, IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    exporter.copy(report, params, 0, outputStream);
+
+    verify(copyManager).copyOut(COPY_SQL, outputStream);
+  }
+
+  @Test
+  public void shouldLimitCopiedRowsToRecordLimit() throws SQLException, IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(reportLimits.getMaxRecords(report)).thenReturn(10L);
+    when(copyManager.copyOut(LIMITED_COPY_SQL, outputStream)).thenReturn(10L);
+
+    assertEquals(10L, exporter.copy(report, params, 0, outputStream));
+  }
+
+  @Test(expected = SQLException.class)
+  public void shouldFailWhenCopyExceedsRecordLimit() throws SQLException, IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    when(reportLimits.getMaxRecords(report)).thenReturn(10L);
+    when(copyManager.copyOut(LIMITED_COPY_SQL, outputStream)).thenReturn(11L);
+
+    exporter.copy(report, params, 0, outputStream);
+  }
+
+  private void setQuery(String text) {
+    JRDesignQuery query = new JRDesignQuery();
+    query.setLanguage("sql");
+    query.setText(text);
+    when(report.getQuery()).thenReturn(query);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.imageio.ImageIO;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.base.JRBasePrintImage;
+import net.sf.jasperreports.engine.base.JRBasePrintPage;
+import net.sf.jasperreports.renderers.SimpleDataRenderer;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JasperHtmlExporterTest {
+  private static final String SERVICE_URL = "http://localhost";
+  private static final String EMBEDDED_IMAGE = "data:image/png;base64,";
+
+  private JasperPrint jasperPrint;
+  private byte[] png;
+
+  @Before
+  public void setUp() throws IOException {
+    BufferedImage bufferedImage = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream imageStream = new ByteArrayOutputStream();
+    ImageIO.write(bufferedImage, "png", imageStream);
+    png = imageStream.toByteArray();
+
+    jasperPrint = new JasperPrint();
+    jasperPrint.setName("images");
+    jasperPrint.setPageWidth(200);
+    jasperPrint.setPageHeight(200);
+
+    for (int i = 0; i < 2; i++) {
+      JRBasePrintImage image = new JRBasePrintImage(jasperPrint.getDefaultStyleProvider());
+      image.setY(i * 50);
+      image.setWidth(50);
+      image.setHeight(50);
+      image.setRenderer(SimpleDataRenderer.getInstance(png.clone()));
+
+      JRBasePrintPage page = new JRBasePrintPage();
+      page.addElement(image);
+      jasperPrint.addPage(page);
+    }
+  }
+
+  @Test
+  public void shouldReferToStoredImages() throws JRException {
+    ReportImageStore store = new ReportImageStore(true, 1024, 60, SERVICE_URL);
+
+    String html = export(store);
+
+    String url = store.getUrl(store.put(png));
+    assertEquals(2, StringUtils.countMatches(html, "src=\"" + url + "\""));
+    assertFalse(html.contains(EMBEDDED_IMAGE));
+  }
+
+  @Test
+  public void shouldEmbedImagesIfStoreIsDisabled() throws JRException {
+    String html = export(new ReportImageStore(false, 1024, 60, SERVICE_URL));
+
+    assertTrue(html.contains(EMBEDDED_IMAGE));
+  }
+
+  private String export(ReportImageStore store) throws JRException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new JasperHtmlExporter(jasperPrint, store).exportReport(outputStream);
+    return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.imageio.ImageIO;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.base.JRBasePrintImage;
+import net.sf.jasperreports.engine.base.JRBasePrintPage;
+import net.sf.jasperreports.engine.type.ScaleImageEnum;
+import net.sf.jasperreports.renderers.SimpleDataRenderer;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JasperPdfExporterTest {
+  private static final int PAGES = 5;
+  private static final String IMAGE_OBJECT = "/Subtype/Image";
+
+  @Mock
+  private PdfExportProfile profile;
+
+  private JasperPrint jasperPrint;
+
+  @Before
+  public void setUp() throws IOException {
+    byte[] logo = createImage();
+    jasperPrint = new JasperPrint();
+    jasperPrint.setName("images");
+    jasperPrint.setPageWidth(200);
+    jasperPrint.setPageHeight(200);
+
+    for (int i = 0; i < PAGES; i++) {
+      JRBasePrintImage image = new JRBasePrintImage(jasperPrint.getDefaultStyleProvider());
+      image.setWidth(100);
+      image.setHeight(100);
+      image.setScaleImage(ScaleImageEnum.RETAIN_SHAPE);
+      image.setRenderer(SimpleDataRenderer.getInstance(logo.clone()));
+
+      JRBasePrintPage page = new JRBasePrintPage();
+      page.addElement(image);
+      jasperPrint.addPage(page);
+    }
+  }
+
+  @Test
+  public void shouldEmbedImageOnEveryPageWithoutDeduplication() throws JRException {
+    assertEquals(PAGES, StringUtils.countMatches(export(), IMAGE_OBJECT));
+  }
+
+  @Test
+  public void shouldEmbedSameImageOnce() throws JRException {
+    when(profile.isDeduplicatingImages()).thenReturn(true);
+
+    assertEquals(1, StringUtils.countMatches(export(), IMAGE_OBJECT));
+  }
+
+  @Test
+  public void shouldWriteSmallerCompressedPdf() throws JRException {
+    int uncompressed = export().length();
+    when(profile.isCompressed()).thenReturn(true);
+
+    String compressed = export();
+
+    assertTrue(compressed.startsWith("%PDF-1.5"));
+    assertTrue(compressed.length() < uncompressed);
+  }
+
+  private String export() throws JRException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new JasperPdfExporter(jasperPrint, profile).exportReport(outputStream);
+    return new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+  }
+
+  private byte[] createImage() throws IOException {
+    BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+    for (int i = 0; i < 64; i++) {
+      image.setRGB(i, i, 0xFF0000);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", outputStream);
+    return outputStream.toByteArray();
+  }
+}
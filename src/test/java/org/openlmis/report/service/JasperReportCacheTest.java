@@ -0,0 +1,118 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.report.domain.JasperTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class JasperReportCacheTest {
+  private static final String EMPTY_REPORT_RESOURCE = "/empty-report.jrxml";
+
+  private JasperReportCache cache;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws JRException, IOException {
+    cache = new JasperReportCache(2, new ReportMetrics(new SimpleMeterRegistry()));
+    data = serialize(JasperCompileManager
+        .compileReport(getClass().getResourceAsStream(EMPTY_REPORT_RESOURCE)));
+  }
+
+  @Test
+  public void shouldReturnSameReportForSameTemplateVersion() {
+    JasperTemplate template = createTemplate(UUID.randomUUID(), data);
+
+    JasperReport first = cache.getReport(template);
+    JasperReport second = cache.getReport(template);
+
+    assertSame(first, second);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldReadReportAgainWhenTemplateDataChanges() throws JRException, IOException {
+    UUID id = UUID.randomUUID();
+    JasperReport first = cache.getReport(createTemplate(id, data));
+
+    JasperReport changedReport = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream(EMPTY_REPORT_RESOURCE));
+    changedReport.setProperty("changed", "true");
+    JasperReport second = cache.getReport(createTemplate(id, serialize(changedReport)));
+
+    assertNotSame(first, second);
+    assertEquals("true", second.getProperty("changed"));
+  }
+
+  @Test
+  public void shouldKeyReportOnDigestStoredWithTemplate() {
+    JasperTemplate template = createTemplate(UUID.randomUUID(), data);
+    ReflectionTestUtils.setField(template, "dataDigest", "stored");
+
+    assertEquals(DigestUtils.sha256Hex(data), createTemplate(null, data).getDataDigest());
+    assertEquals("stored", JasperReportCache.TemplateKey.of(template).getDataDigest());
+  }
+
+  @Test
+  public void shouldNotCacheTemplateWithoutId() {
+    JasperTemplate template = createTemplate(null, data);
+
+    assertNotSame(cache.getReport(template), cache.getReport(template));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void shouldEvictAllVersionsOfTemplate() {
+    UUID id = UUID.randomUUID();
+    JasperTemplate template = createTemplate(id, data);
+    final JasperReport first = cache.getReport(template);
+    cache.getReport(createTemplate(UUID.randomUUID(), data));
+
+    cache.evict(id);
+
+    assertEquals(1, cache.size());
+    assertNotSame(first, cache.getReport(template));
+  }
+
+  private JasperTemplate createTemplate(UUID id, byte[] data) {
+    JasperTemplate template = new JasperTemplate();
+    template.setId(id);
+    template.setData(data);
+    return template;
+  }
+
+  private byte[] serialize(JasperReport report) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+      out.writeObject(report);
+    }
+    return bos.toByteArray();
+  }
+}
@@ -15,23 +15,39 @@
 
 package org.openlmis.report.service;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_OUTPUT;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.sql.Connection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import javax.sql.DataSource;
-import net.sf.jasperreports.engine.JasperFillManager;
+import java.util.Optional;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRAbstractLRUVirtualizer;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,16 +57,23 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.service.ReportFillLimiter.FillPermit;
+import org.openlmis.report.service.ReportPrintCache.CachedPrint;
+import org.openlmis.report.service.ReportResultCache.ResultKey;
+import org.openlmis.report.utils.Message;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @RunWith(PowerMockRunner.class)
 @PowerMockRunnerDelegate(BlockJUnit4ClassRunner.class)
-@PrepareForTest({JasperReportsViewService.class, JasperFillManager.class, DataSource.class})
+@PrepareForTest({JasperReportsViewService.class})
 public class JasperReportsViewServiceTest {
 
   private static final String FORMAT_PARAM = "format";
+  private static final byte[] REPORT = {1, 2, 3};
 
   @Mock
   private JasperCsvExporter jasperCsvExporter;
@@ -58,6 +81,9 @@ public class JasperReportsViewServiceTest {
   @Mock
   private JasperXlsExporter jasperXlsExporter;
 
+  @Mock
+  private JasperXlsxExporter jasperXlsxExporter;
+
   @Mock
   private JasperHtmlExporter jasperHtmlExporter;
 
@@ -65,10 +91,46 @@ public class JasperReportsViewServiceTest {
   private JasperPdfExporter jasperPdfExporter;
 
   @Mock
-  private ObjectInputStream inputStream;
+  private JasperReportCache jasperReportCache;
+
+  @Mock
+  private ReportVirtualizerFactory reportVirtualizerFactory;
+
+  @Mock
+  private JRAbstractLRUVirtualizer virtualizer;
+
+  @Mock
+  private ReportResultCache reportResultCache;
+
+  @Mock
+  private ReportPrintCache reportPrintCache;
+
+  @Mock
+  private ReportFillLimiter reportFillLimiter;
+
+  @Mock
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Mock
+  private ReportFiller reportFiller;
+
+  @Mock
+  private PartitionedReportFiller partitionedReportFiller;
 
   @Mock
-  private DataSource replicationDataSource;
+  private ReportMetrics reportMetrics;
+
+  @Mock
+  private ReportFillProfiler reportFillProfiler;
+
+  @Mock
+  private CsvCopyExporter csvCopyExporter;
+
+  @Spy
+  private ReportTracer reportTracer = new ReportTracer();
+
+  @Spy
+  private ReportLimits reportLimits = new ReportLimits();
 
   @Spy
   private final JasperTemplate jasperTemplate = new JasperTemplate();
@@ -80,43 +142,342 @@ public class JasperReportsViewServiceTest {
   @Before
   public void init() throws Exception {
     initializeExporterMocks();
-    whenNew(ObjectInputStream.class).withAnyArguments().thenReturn(inputStream);
-    whenNew(ByteArrayInputStream.class).withAnyArguments().thenReturn(null);
-    mockStatic(JasperFillManager.class);
-    when(JasperFillManager.fillReport(any(InputStream.class), any(), any(Connection.class)))
-        .thenReturn(new JasperPrint());
+    jasperTemplate.setData(REPORT);
+    when(reportFiller.fill(any(), any(), any(), any(), any(), any())).thenReturn(new JasperPrint());
   }
 
   @Test
   public void shouldSelectCsvExporterForCsvFormat() throws Exception {
     viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("csv"));
-    verify(jasperCsvExporter, times(1)).exportReport();
+    verify(jasperCsvExporter, times(1)).exportReport(any(OutputStream.class));
   }
 
   @Test
   public void shouldSelectPdfExporterForPdfFormat() throws Exception {
     viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
-    verify(jasperPdfExporter, times(1)).exportReport();
+    verify(jasperPdfExporter, times(1)).exportReport(any(OutputStream.class));
   }
 
   @Test
   public void shouldSelectXlsExporterForXlsFormat() throws Exception {
     viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("xls"));
-    verify(jasperXlsExporter, times(1)).exportReport();
+    verify(jasperXlsExporter, times(1)).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldSelectXlsxExporterForXlsxFormat() throws Exception {
+    viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("xlsx"));
+    verify(jasperXlsxExporter, times(1)).exportReport(any(OutputStream.class));
   }
 
   @Test
   public void shouldSelectHtmlExporterForHtmlFormat() throws Exception {
     viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("html"));
-    verify(jasperHtmlExporter, times(1)).exportReport();
+    verify(jasperHtmlExporter, times(1)).exportReport(any(OutputStream.class));
   }
 
   @Test(expected = JasperReportViewException.class)
   public void shouldThrowJasperReportViewExceptionWhenConnectionCantBeOpen() throws Exception {
-    when(replicationDataSource.getConnection()).thenThrow(new SQLException());
+    when(reportConnectionFactory.getConnection(any(), any(), any())).thenThrow(new SQLException());
     viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
   }
 
+  @Test
+  public void shouldFillReportWithVirtualizerAndCleanItUpAfterExport() throws Exception {
+    when(reportVirtualizerFactory.createVirtualizer(any())).thenReturn(virtualizer);
+
+    viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+
+    verify(virtualizer).setReadOnly(true);
+    verify(virtualizer).cleanup();
+  }
+
+  @Test
+  public void shouldCleanUpVirtualizerWhenPreparedReportIsClosedWithoutExport()
+      throws Exception {
+    when(reportVirtualizerFactory.createVirtualizer(any())).thenReturn(virtualizer);
+
+    viewService.prepareReport(jasperTemplate, getParamsWithFormat("pdf")).close();
+
+    verify(virtualizer).cleanup();
+    verify(jasperPdfExporter, never()).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldReleaseDataExportPermitWhenPreparedReportIsClosedWithoutWriting()
+      throws Exception {
+    FillPermit permit = mock(FillPermit.class);
+    when(reportFillLimiter.acquire(any(), any())).thenReturn(permit);
+    when(csvCopyExporter.supports(any(), any())).thenReturn(true);
+
+    viewService.prepareReport(jasperTemplate, getParamsWithFormat("csv")).close();
+
+    verify(permit).close();
+    verify(csvCopyExporter, never()).copy(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldCleanUpVirtualizerWhenFormatIsUnknown() throws Exception {
+    when(reportVirtualizerFactory.createVirtualizer(any())).thenReturn(virtualizer);
+    FilledReport filledReport =
+        viewService.fillReport(jasperTemplate, getParamsWithFormat("txt"));
+
+    try {
+      viewService.getJasperExporter(filledReport, "txt");
+    } catch (JasperReportViewException ex) {
+      verify(virtualizer).cleanup();
+      return;
+    }
+    fail();
+  }
+
+  @Test
+  public void shouldReturnCachedReportWithoutFill() throws Exception {
+    when(reportResultCache.getTimeToLive(any())).thenReturn(60L);
+    when(reportResultCache.get(any()))
+        .thenReturn(Optional.of(outputStream -> outputStream.write(REPORT)));
+
+    byte[] result = viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+
+    assertArrayEquals(REPORT, result);
+    verify(jasperPdfExporter, never()).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldExportReportOnceAndServeItFromCache() throws Exception {
+    ReflectionTestUtils.setField(viewService, "reportResultCache",
+        new ReportResultCache(1024, 1024, 60, false));
+    when(jasperReportCache.getReport(any())).thenReturn(mock(JasperReport.class));
+    doAnswer(invocation -> {
+      invocation.getArgument(0, OutputStream.class).write(REPORT);
+      return null;
+    }).when(jasperPdfExporter).exportReport(any(OutputStream.class));
+    jasperTemplate.setId(UUID.randomUUID());
+
+    viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+    byte[] result = viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+
+    assertArrayEquals(REPORT, result);
+    verify(jasperPdfExporter, times(1)).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldExportCachedFillWithoutFillingReportAgain() throws Exception {
+    UUID fillId = UUID.randomUUID();
+    when(reportPrintCache.get(any(ResultKey.class))).thenReturn(Optional.of(
+        new CachedPrint(fillId, "report", new JasperPrint())));
+
+    PreparedReport report = viewService.prepareReport(jasperTemplate, getParamsWithFormat("csv"));
+    report.writeTo(new ByteArrayOutputStream());
+
+    assertEquals(fillId, report.getFillId());
+    verify(reportConnectionFactory, never()).getConnection(any(), any(), any());
+    verify(jasperCsvExporter).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldCopyDataOnlyCsvWithoutFill() throws Exception {
+    FillPermit permit = mock(FillPermit.class);
+    when(reportFillLimiter.acquire(any(), any())).thenReturn(permit);
+    when(csvCopyExporter.supports(any(), any())).thenReturn(true);
+    when(csvCopyExporter.copy(any(), any(), anyLong(), any())).thenAnswer(invocation -> {
+      invocation.getArgument(3, OutputStream.class).write(REPORT);
+      return 1L;
+    });
+
+    PreparedReport report = viewService.prepareReport(jasperTemplate, getParamsWithFormat("csv"));
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    report.writeTo(outputStream);
+
+    assertArrayEquals(REPORT, outputStream.toByteArray());
+    verify(reportFiller, never()).fill(any(), any(), any(), any(), any(), any());
+    verify(jasperCsvExporter, never()).exportReport(any(OutputStream.class));
+    verify(permit).close();
+  }
+
+  @Test(expected = TooManyRequestsMessageException.class)
+  public void shouldNotPrepareDataOnlyCsvWhenTooManyReportsAreFilled() throws Exception {
+    when(reportFillLimiter.acquire(any(), any()))
+        .thenThrow(new TooManyRequestsMessageException(new Message("key"), 1));
+    when(csvCopyExporter.supports(any(), any())).thenReturn(true);
+
+    viewService.prepareReport(jasperTemplate, getParamsWithFormat("csv"));
+  }
+
+  @Test
+  public void shouldFillDataOnlyCsvForPageRange() throws Exception {
+    when(csvCopyExporter.supports(any(), any())).thenReturn(true);
+
+    viewService.prepareReport(jasperTemplate, getParamsWithFormat("csv"), PageRange.of(1, 1, false))
+        .writeTo(new ByteArrayOutputStream());
+
+    verify(csvCopyExporter, never()).copy(any(), any(), anyLong(), any());
+    verify(jasperCsvExporter).exportReport(any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldCacheFillAndReturnItsId() throws Exception {
+    UUID fillId = UUID.randomUUID();
+    when(reportPrintCache.isEnabled(any())).thenReturn(true);
+    when(reportPrintCache.put(any(), any(), any())).thenReturn(Optional.of(fillId));
+
+    PreparedReport report = viewService.prepareReport(jasperTemplate, getParamsWithFormat("pdf"));
+
+    assertEquals(fillId, report.getFillId());
+  }
+
+  @Test
+  public void shouldNotCacheFillOfTemplateWithoutPrintCache() throws Exception {
+    PreparedReport report = viewService.prepareReport(jasperTemplate, getParamsWithFormat("pdf"));
+
+    assertNull(report.getFillId());
+    verify(reportPrintCache, never()).put(any(), any(), any());
+  }
+
+  @Test
+  public void shouldNotCacheFillOfPageRange() throws Exception {
+    when(reportPrintCache.isEnabled(any())).thenReturn(true);
+
+    PreparedReport report = viewService.prepareReport(jasperTemplate,
+        getParamsWithFormat("pdf"), PageRange.of(1, 1, false));
+
+    assertNull(report.getFillId());
+    verify(reportPrintCache, never()).put(any(), any(), any());
+  }
+
+  @Test
+  public void shouldReleaseFillPermitAfterFill() throws Exception {
+    FillPermit permit = mock(FillPermit.class);
+    when(reportFillLimiter.acquire(any(), any())).thenReturn(permit);
+
+    viewService.fillReport(jasperTemplate, getParamsWithFormat("pdf"));
+
+    verify(permit).close();
+  }
+
+  @Test(expected = TooManyRequestsMessageException.class)
+  public void shouldNotFillReportWhenTooManyReportsAreFilled() throws Exception {
+    when(reportFillLimiter.acquire(any(), any()))
+        .thenThrow(new TooManyRequestsMessageException(new Message("key"), 1));
+
+    viewService.fillReport(jasperTemplate, getParamsWithFormat("pdf"));
+  }
+
+  @Test
+  public void shouldCleanUpVirtualizerAndKeepErrorWhenFillIsCancelled() throws Exception {
+    when(reportVirtualizerFactory.createVirtualizer(any())).thenReturn(virtualizer);
+    JasperReportViewException cancelled = new JasperReportViewException(null, "key");
+    when(reportFiller.fill(any(), any(), any(), any(), any(), any())).thenThrow(cancelled);
+
+    try {
+      viewService.fillReport(jasperTemplate, getParamsWithFormat("pdf"));
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertSame(cancelled, ex);
+      verify(virtualizer).cleanup();
+    }
+  }
+
+  @Test
+  public void shouldRecordAbortedExportWhenOutputIsClosed() throws Exception {
+    jasperTemplate.setName("report");
+    doThrow(new JRException(new IOException())).when(jasperPdfExporter)
+        .exportReport(any(OutputStream.class));
+
+    try {
+      viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+      fail();
+    } catch (JasperReportViewException ex) {
+      verify(reportMetrics).exportAborted("report", "pdf");
+    }
+  }
+
+  @Test
+  public void shouldThrowLocalizedErrorWhenOutputExceedsLimit() throws Exception {
+    ReflectionTestUtils.setField(reportLimits, "maxOutputBytes", 4L);
+    doAnswer(invocation -> {
+      try {
+        invocation.<OutputStream>getArgument(0).write(new byte[8]);
+      } catch (IOException ex) {
+        throw new JRException(ex);
+      }
+      return null;
+    }).when(jasperPdfExporter).exportReport(any(OutputStream.class));
+
+    try {
+      viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertEquals(new Message(ERROR_JASPER_REPORT_LIMIT_OUTPUT, "4"), ex.asMessage());
+    }
+  }
+
+  @Test
+  public void shouldFillOnlyRequestedPages() throws Exception {
+    PageRange pageRange = PageRange.of(1, 2, false);
+
+    viewService.prepareReport(jasperTemplate, getParamsWithFormat("html"), pageRange);
+
+    verify(reportFiller).fill(any(), any(), any(), any(), eq(pageRange), any());
+  }
+
+  @Test
+  public void shouldFillPartitionedReportInPartitions() throws Exception {
+    when(partitionedReportFiller.isPartitioned(any())).thenReturn(true);
+    when(partitionedReportFiller.fill(any(), any(), any(), any(), any(), any()))
+        .thenReturn(new JasperPrint());
+
+    viewService.fillReport(jasperTemplate, getParamsWithFormat("pdf"));
+
+    verify(reportConnectionFactory, never()).getConnection(any(), any(), any());
+    verify(partitionedReportFiller).fill(any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  public void shouldRecordMetricsOfFillAndExport() throws Exception {
+    viewService.getJasperReportsView(jasperTemplate, getParamsWithFormat("pdf"));
+
+    verify(reportMetrics).fillStarted();
+    verify(reportMetrics).fillFinished(any(), eq("pdf"), anyLong(), eq(0), eq(true));
+    verify(reportMetrics).exportFinished(any(), eq("pdf"), anyLong(), anyLong());
+  }
+
+  @Test
+  public void shouldRecordStatementsOfFill() throws Exception {
+    ReportQueryLog queryLog = new ReportQueryLog(true);
+    FillProfile profile = new FillProfile(jasperTemplate.getName(), ZonedDateTime.now(), 1, 0,
+        true, Collections.emptyList());
+    when(reportFillProfiler.createQueryLog()).thenReturn(queryLog);
+    when(reportFillProfiler.record(any(), anyLong(), eq(0), eq(true), same(queryLog)))
+        .thenReturn(profile);
+
+    PreparedReport report =
+        viewService.prepareReport(jasperTemplate, getParamsWithFormat("pdf"), null);
+
+    verify(reportConnectionFactory).getConnection(any(), same(queryLog), any());
+    assertSame(profile, report.getFillProfile());
+  }
+
+  @Test
+  public void shouldRecordStatementsOfFailedFill() throws Exception {
+    ReportQueryLog queryLog = new ReportQueryLog(true);
+    when(reportFillProfiler.createQueryLog()).thenReturn(queryLog);
+    when(reportFiller.fill(any(), any(), any(), any(), any(), any()))
+        .thenThrow(new JRException("x"));
+
+    try {
+      viewService.fillReport(jasperTemplate, getParamsWithFormat("pdf"));
+      fail();
+    } catch (JasperReportViewException ex) {
+      verify(reportFillProfiler).record(any(), anyLong(), eq(0), eq(false), same(queryLog));
+    }
+  }
+
+  @Test(expected = JasperReportViewException.class)
+  public void shouldThrowJasperReportViewExceptionForUnknownFormat() throws Exception {
+    viewService.getJasperExporter(new JasperPrint(), "txt");
+  }
+
   private Map<String, Object> getParamsWithFormat(String format) {
     Map<String, Object> params = new HashMap<>();
     params.put(FORMAT_PARAM, format);
@@ -126,6 +487,7 @@ public class JasperReportsViewServiceTest {
   private void initializeExporterMocks() throws Exception {
     whenNew(JasperCsvExporter.class).withAnyArguments().thenReturn(jasperCsvExporter);
     whenNew(JasperXlsExporter.class).withAnyArguments().thenReturn(jasperXlsExporter);
+    whenNew(JasperXlsxExporter.class).withAnyArguments().thenReturn(jasperXlsxExporter);
     whenNew(JasperHtmlExporter.class).withAnyArguments().thenReturn(jasperHtmlExporter);
     whenNew(JasperPdfExporter.class).withAnyArguments().thenReturn(jasperPdfExporter);
   }
@@ -77,11 +77,13 @@ import org.mockito.Mock;
 import org.openlmis.report.domain.JasperTemplate;
 import org.openlmis.report.domain.JasperTemplateParameter;
 import org.openlmis.report.domain.ReportImage;
+import org.openlmis.report.dto.JasperTemplateDto;
 import org.openlmis.report.dto.external.referencedata.RightDto;
 import org.openlmis.report.exception.JasperReportViewException;
 import org.openlmis.report.exception.ReportingException;
 import org.openlmis.report.exception.ValidationMessageException;
 import org.openlmis.report.i18n.ReportImageMessageKeys;
+import org.openlmis.report.repository.JasperTemplateMetadata;
 import org.openlmis.report.repository.JasperTemplateRepository;
 import org.openlmis.report.repository.ReportImageRepository;
 import org.openlmis.report.service.referencedata.RightReferenceDataService;
@@ -106,6 +108,24 @@ public class JasperTemplateServiceTest {
   @Mock
   private ReportImageRepository reportImageRepository;
 
+  @Mock
+  private JasperReportCache jasperReportCache;
+
+  @Mock
+  private ReportResultCache reportResultCache;
+
+  @Mock
+  private ReportPrintCache reportPrintCache;
+
+  @Mock
+  private ReportScheduleService reportScheduleService;
+
+  @Mock
+  private ReportMetrics reportMetrics;
+
+  @Mock
+  private ReportLimits reportLimits;
+
   @InjectMocks
   private JasperTemplateService jasperTemplateService;
 
@@ -159,6 +179,27 @@ public class JasperTemplateServiceTest {
 
     // then
     assertEquals(template.getId(), oldId);
+    verify(jasperReportCache).evict(oldId);
+    verify(reportResultCache).evict(oldId);
+    verify(reportPrintCache).evict(oldId);
+  }
+
+  @Test
+  public void shouldDeleteTemplateAndEvictCompiledReport() {
+    // given
+    JasperTemplate jasperTemplate = new JasperTemplate();
+    jasperTemplate.setId(UUID.randomUUID());
+    jasperTemplate.setName("report");
+
+    // when
+    jasperTemplateService.deleteTemplate(jasperTemplate);
+
+    // then
+    verify(jasperTemplateRepository).delete(jasperTemplate);
+    verify(jasperReportCache).evict(jasperTemplate.getId());
+    verify(reportResultCache).evict(jasperTemplate.getId());
+    verify(reportPrintCache).evict(jasperTemplate.getId());
+    verify(reportScheduleService).deleteTemplateSchedules(jasperTemplate.getName());
   }
 
   private JasperTemplate testSaveTemplate(String name) throws ReportingException {
@@ -181,6 +222,7 @@ public class JasperTemplateServiceTest {
     assertEquals(name, resultTemplate.getName());
     assertEquals(description, resultTemplate.getDescription());
     assertEquals(requiredRights, resultTemplate.getRequiredRights());
+    verify(reportScheduleService).updateTemplateSchedules(resultTemplate);
 
     return resultTemplate;
   }
@@ -371,6 +413,7 @@ public class JasperTemplateServiceTest {
     jasperTemplateService.validateFileAndInsertTemplate(jasperTemplate, file);
 
     verify(jasperTemplateRepository).save(jasperTemplate);
+    verify(reportLimits).validateTemplateLimits(report);
 
     assertEquals("test type", jasperTemplate.getType());
     assertThat(jasperTemplate.getTemplateParameters().get(0).getDisplayName(),
@@ -433,6 +476,33 @@ public class JasperTemplateServiceTest {
         is(PARAM_DISPLAY_NAME));
   }
 
+  @Test
+  public void getVisibleTemplatesShouldJoinMetadataWithParameters() {
+    // given
+    JasperTemplateMetadata metadata = mock(JasperTemplateMetadata.class);
+    UUID templateId = UUID.randomUUID();
+    when(metadata.getId()).thenReturn(templateId);
+    when(metadata.getName()).thenReturn(DISPLAY_NAME);
+
+    JasperTemplateParameter parameter = mock(JasperTemplateParameter.class);
+    when(parameter.getTemplateId()).thenReturn(templateId);
+
+    given(jasperTemplateRepository.findMetadataByVisible(true))
+        .willReturn(Collections.singletonList(metadata));
+    given(jasperTemplateRepository.findParametersByTemplateIdIn(
+        Collections.singleton(templateId))).willReturn(Collections.singletonList(parameter));
+
+    // when
+    List<JasperTemplateDto> result = jasperTemplateService.getVisibleTemplates();
+
+    // then
+    assertEquals(1, result.size());
+    assertEquals(templateId, result.get(0).getId());
+    assertEquals(DISPLAY_NAME, result.get(0).getName());
+    assertEquals(1, result.get(0).getTemplateParameters().size());
+    verify(jasperTemplateRepository, never()).findByVisible(true);
+  }
+
   @Test
   public void mapRequestParametersToTemplateShouldReturnEmptyMapIfNoParameters() {
     when(request.getParameterMap()).thenReturn(Collections.emptyMap());
@@ -0,0 +1,64 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+public class JasperXlsxExporterTest {
+  private static final int RECORDS = 70000;
+
+  @Test
+  public void shouldExportRowsOfAllPagesToOneSheet() throws JRException, IOException {
+    JasperReport report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/data-report.jrxml"));
+    JasperPrint jasperPrint = JasperFillManager
+        .fillReport(report, new HashMap<>(), new JREmptyDataSource(RECORDS));
+    assertTrue(jasperPrint.getPages().size() > 1);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new JasperXlsxExporter(jasperPrint, 100).exportReport(outputStream);
+
+    try (XSSFWorkbook workbook =
+        new XSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()))) {
+      assertEquals(1, workbook.getNumberOfSheets());
+      Sheet sheet = workbook.getSheetAt(0);
+      assertEquals(RECORDS, sheet.getLastRowNum());
+      assertEquals("Number", sheet.getRow(0).getCell(0).getStringCellValue());
+      assertEquals("Label", sheet.getRow(0).getCell(1).getStringCellValue());
+
+      Cell lastNumber = sheet.getRow(RECORDS).getCell(0);
+      assertEquals(RECORDS, lastNumber.getNumericCellValue(), 0);
+      assertEquals("#,##0", lastNumber.getCellStyle().getDataFormatString());
+      assertEquals("Row " + RECORDS, sheet.getRow(RECORDS).getCell(1).getStringCellValue());
+    }
+  }
+}
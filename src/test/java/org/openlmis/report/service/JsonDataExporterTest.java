@@ -0,0 +1,183 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_DATA_PARAMETER;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_DATA_QUERY;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.utils.Message;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JsonDataExporterTest {
+  private static final String[] COLUMNS = {"code", "quantity", "price", "created", "active"};
+  private static final String ROW =
+      "{\"code\":\"%s\",\"quantity\":5,\"price\":1.50,\"created\":\"2024-01-31T10:00:00Z\","
+          + "\"active\":true}";
+  private static final String JSON = "json";
+
+  @Mock
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Spy
+  private ReportLimits reportLimits = new ReportLimits();
+
+  @Mock
+  private ReportConnection connection;
+
+  @Mock
+  private DatabaseMetaData databaseMetaData;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @Mock
+  private ResultSetMetaData metaData;
+
+  @InjectMocks
+  private JsonDataExporter exporter;
+
+  private JasperReport report;
+  private Map<String, Object> params;
+
+  @Before
+  public void setUp() throws JRException, SQLException {
+    report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/query-report.jrxml"));
+    params = new HashMap<>();
+    params.put("code", "C1");
+    params.put("regions", Arrays.asList("north", "south"));
+    params.put("active", true);
+
+    when(reportConnectionFactory.getConnection(eq(report), isNull(), any()))
+        .thenReturn(connection);
+    when(connection.getMetaData()).thenReturn(databaseMetaData);
+    when(databaseMetaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+    when(statement.executeQuery()).thenReturn(resultSet);
+
+    when(resultSet.getMetaData()).thenReturn(metaData);
+    when(metaData.getColumnCount()).thenReturn(COLUMNS.length);
+    for (int i = 0; i < COLUMNS.length; i++) {
+      when(metaData.getColumnName(i + 1)).thenReturn(COLUMNS[i]);
+    }
+
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getString(1)).thenReturn("C1", "C2");
+    when(resultSet.getInt(2)).thenReturn(5);
+    when(resultSet.getBigDecimal(3)).thenReturn(new BigDecimal("1.50"));
+    Timestamp created = Timestamp.from(Instant.parse("2024-01-31T10:00:00Z"));
+    when(resultSet.getTimestamp(4)).thenReturn(created);
+    when(resultSet.getBoolean(5)).thenReturn(true);
+  }
+
+  @Test
+  public void shouldWriteRowsAsJsonArray() throws Exception {
+    assertEquals("[" + String.format(ROW, "C1") + "," + String.format(ROW, "C2") + "]",
+        export(JSON));
+  }
+
+  @Test
+  public void shouldWriteRowsAsNewlineDelimitedJson() throws Exception {
+    assertEquals(String.format(ROW, "C1") + "\n" + String.format(ROW, "C2") + "\n",
+        export("ndjson"));
+  }
+
+  @Test
+  public void shouldRunQueryWithParametersAndClauses() throws Exception {
+    export(JSON);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(connection).prepareStatement(sql.capture());
+    assertEquals("SELECT code, quantity, price, created, active FROM items\n"
+        + "WHERE code = ? AND region IN (?, ?) AND active = ?", sql.getValue());
+    verify(statement).setString(1, "C1");
+    verify(statement).setString(2, "north");
+    verify(statement).setString(3, "south");
+    verify(statement).setBoolean(4, true);
+    verify(connection).setStatementTimeout(30);
+    verify(connection).close();
+  }
+
+  @Test
+  public void shouldRequireParametersWithDefaultValue() {
+    params.remove("active");
+
+    try {
+      exporter.validate(report, params, JSON);
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertEquals(new Message(ERROR_JASPER_REPORT_DATA_PARAMETER, "active", JSON),
+          ex.asMessage());
+    }
+  }
+
+  @Test
+  public void shouldRequireSqlQuery() throws JRException {
+    JasperReport empty = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/empty-report.jrxml"));
+
+    try {
+      exporter.validate(empty, params, JSON);
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertEquals(new Message(ERROR_JASPER_REPORT_DATA_QUERY, JSON), ex.asMessage());
+    }
+  }
+
+  private String export(String format) throws SQLException, JRException, IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    exporter.export(report, params, format, 30, outputStream);
+    return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.base.JRBasePrintPage;
+import org.junit.Test;
+import org.openlmis.report.exception.ValidationMessageException;
+
+public class PageRangeTest {
+
+  @Test
+  public void shouldReturnNullWhenNoPagesAreRequested() {
+    assertNull(PageRange.of(null, null, false));
+  }
+
+  @Test
+  public void shouldReturnFirstPageForPreview() {
+    PageRange range = PageRange.of(null, null, true);
+
+    assertEquals(1, range.getFrom());
+    assertEquals(Integer.valueOf(1), range.getTo());
+  }
+
+  @Test
+  public void shouldStartFromFirstPageByDefault() {
+    assertEquals(1, PageRange.of(null, 3, false).getFrom());
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldRejectPageBelowOne() {
+    PageRange.of(0, 3, false);
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldRejectLastPageBeforeFirstPage() {
+    PageRange.of(3, 2, false);
+  }
+
+  @Test
+  public void shouldRemovePagesOutsideOfRange() {
+    JasperPrint print = createPrint(5);
+
+    PageRange.of(2, 3, false).apply(print);
+
+    assertEquals(2, print.getPages().size());
+  }
+
+  @Test
+  public void shouldKeepPagesUntilEndWhenLastPageIsNotGiven() {
+    JasperPrint print = createPrint(5);
+
+    PageRange.of(4, null, false).apply(print);
+
+    assertEquals(2, print.getPages().size());
+  }
+
+  private JasperPrint createPrint(int pages) {
+    JasperPrint print = new JasperPrint();
+    for (int page = 0; page < pages; page++) {
+      print.addPage(new JRBasePrintPage());
+    }
+    return print;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRPrintPage;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.base.JRBasePrintPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.OngoingStubbing;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PartitionedReportFillerTest {
+  private static final String TEMPLATE_NAME = "report";
+  private static final String PARTITION_PARAMETER = "facilityId";
+  private static final String FIRST_PARTITION = "facility-1";
+  private static final String SECOND_PARTITION = "facility-2";
+  private static final long TIMEOUT_SECONDS = 5;
+
+  @Mock
+  private ReportConnectionFactory reportConnectionFactory;
+
+  @Mock
+  private ReportFiller reportFiller;
+
+  @Mock
+  private ReportConnection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @Mock
+  private JasperReport report;
+
+  @InjectMocks
+  private PartitionedReportFiller filler;
+
+  private final Map<String, Object> params = new HashMap<>();
+  private final FillLimits fillLimits = new FillLimits(0, 0);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(filler, "parallelism", 2);
+    filler.init();
+
+    when(report.getProperty(PartitionedReportFiller.PARTITION_QUERY_PROPERTY))
+        .thenReturn("SELECT id FROM facilities WHERE program = $P{program} ORDER BY name");
+    when(report.getProperty(PartitionedReportFiller.PARTITION_PARAMETER_PROPERTY))
+        .thenReturn(PARTITION_PARAMETER);
+    params.put("program", "program-1");
+  }
+
+  @After
+  public void tearDown() {
+    filler.shutdown();
+  }
+
+  @Test
+  public void shouldBePartitionedWhenReportDeclaresPartitions() {
+    assertTrue(filler.isPartitioned(report));
+  }
+
+  @Test
+  public void shouldNotBePartitionedWhenPartitioningIsDisabled() {
+    ReflectionTestUtils.setField(filler, "pool", null);
+
+    assertFalse(filler.isPartitioned(report));
+  }
+
+  @Test
+  public void shouldFillPartitionsAndConcatenatePagesInOrder() throws Exception {
+    mockPartitions();
+    JasperPrint first = createPrint(1);
+    JasperPrint second = createPrint(2);
+    final JRPrintPage lastPage = second.getPages().get(1);
+    mockFill(FIRST_PARTITION).thenReturn(first);
+    mockFill(SECOND_PARTITION).thenReturn(second);
+
+    JasperPrint result = filler.fill(TEMPLATE_NAME, report, params, null, null, fillLimits);
+
+    assertSame(first, result);
+    assertEquals(3, result.getPages().size());
+    assertSame(lastPage, result.getPages().get(2));
+    verify(connection)
+        .prepareStatement("SELECT id FROM facilities WHERE program = ? ORDER BY name");
+    verify(statement).setObject(1, "program-1");
+  }
+
+  @Test
+  public void shouldKeepOnlyPagesOfRange() throws Exception {
+    mockPartitions();
+    PageRange partitionRange = PageRange.of(1, 2, false);
+    mockFill(FIRST_PARTITION, partitionRange).thenReturn(createPrint(1));
+    mockFill(SECOND_PARTITION, partitionRange).thenReturn(createPrint(2));
+
+    JasperPrint result = filler.fill(TEMPLATE_NAME, report, params, PageRange.of(2, 2, false),
+        null, fillLimits);
+
+    assertEquals(1, result.getPages().size());
+  }
+
+  @Test
+  public void shouldCancelRemainingPartitionsOnceLastPageOfRangeIsFilled() throws Exception {
+    mockPartitions();
+    PageRange partitionRange = PageRange.of(1, 1, false);
+    CountDownLatch secondStarted = new CountDownLatch(1);
+    AtomicBoolean secondInterrupted = new AtomicBoolean();
+    mockFill(FIRST_PARTITION, partitionRange).thenAnswer(invocation -> {
+      assertTrue(secondStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      return createPrint(1);
+    });
+    mockFill(SECOND_PARTITION, partitionRange).thenAnswer(invocation -> {
+      secondStarted.countDown();
+      try {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        return createPrint(1);
+      } catch (InterruptedException ex) {
+        // the fill takes a while to release its resources once cancelled
+        Thread.sleep(100);
+        secondInterrupted.set(true);
+        throw ex;
+      }
+    });
+
+    JasperPrint result = filler.fill(TEMPLATE_NAME, report, params, PageRange.of(1, 1, false),
+        null, fillLimits);
+
+    assertEquals(1, result.getPages().size());
+    assertTrue(secondInterrupted.get());
+  }
+
+  @Test(expected = JRException.class)
+  public void shouldThrowErrorOfFailedPartition() throws Exception {
+    mockPartitions();
+    mockFill(FIRST_PARTITION).thenReturn(createPrint(1));
+    mockFill(SECOND_PARTITION).thenThrow(new JRException("error"));
+
+    filler.fill(TEMPLATE_NAME, report, params, null, null, fillLimits);
+  }
+
+  private void mockPartitions() throws SQLException {
+    when(reportConnectionFactory.getConnection(report, null)).thenReturn(connection);
+    when(reportConnectionFactory.getConnection(report, null, fillLimits)).thenReturn(connection);
+    when(connection.prepareStatement(any())).thenReturn(statement);
+    when(statement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getObject(1)).thenReturn(FIRST_PARTITION, SECOND_PARTITION);
+  }
+
+  private OngoingStubbing<JasperPrint> mockFill(String partition)
+      throws Exception {
+    return mockFill(partition, null);
+  }
+
+  private OngoingStubbing<JasperPrint> mockFill(String partition, PageRange pageRange)
+      throws Exception {
+    return when(reportFiller.fill(eq(TEMPLATE_NAME), eq(report),
+        argThat(fillParams -> partition.equals(fillParams.get(PARTITION_PARAMETER))),
+        eq(connection), pageRange == null ? isNull() : eq(pageRange), same(fillLimits)));
+  }
+
+  private JasperPrint createPrint(int pages) {
+    JasperPrint print = new JasperPrint();
+    for (int page = 0; page < pages; page++) {
+      print.addPage(new JRBasePrintPage());
+    }
+    return print;
+  }
+}
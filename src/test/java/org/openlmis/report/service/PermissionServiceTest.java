@@ -26,6 +26,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openlmis.report.dto.external.ResultDto;
 import org.openlmis.report.dto.external.referencedata.RightDto;
@@ -44,6 +45,9 @@ public class PermissionServiceTest {
   @Mock
   private UserReferenceDataService userReferenceDataService;
 
+  @Spy
+  private ReportTracer reportTracer = new ReportTracer();
+
   @InjectMocks
   private PermissionService permissionService;
 
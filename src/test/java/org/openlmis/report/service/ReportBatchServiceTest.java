@@ -0,0 +1,270 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FORMAT_UNKNOWN;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_GENERATION;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_EMPTY;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_MERGE_FORMAT;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_QUEUE_FULL;
+import static org.openlmis.report.i18n.ReportBatchMessageKeys.ERROR_BATCH_TOO_LARGE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRVirtualizer;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportBatchServiceTest {
+  private static final String CSV_FORMAT = "csv";
+
+  @Mock
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Mock
+  private PdfExportProfile pdfExportProfile;
+
+  @InjectMocks
+  private ReportBatchService batchService;
+
+  private JasperTemplate template;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(batchService, "poolSize", 2);
+    ReflectionTestUtils.setField(batchService, "maxSize", 3);
+    ReflectionTestUtils.setField(batchService, "queueCapacity", 3);
+    batchService.init();
+
+    template = new JasperTemplate();
+    template.setName("Stock Card");
+  }
+
+  @After
+  public void tearDown() {
+    batchService.shutdown();
+  }
+
+  @Test
+  public void shouldRejectEmptyBatch() throws JasperReportViewException {
+    assertValidationError(Collections.emptyList(), CSV_FORMAT, false, ERROR_BATCH_EMPTY);
+  }
+
+  @Test
+  public void shouldRejectTooLargeBatch() throws JasperReportViewException {
+    assertValidationError(createParamsList(4), CSV_FORMAT, false, ERROR_BATCH_TOO_LARGE);
+  }
+
+  @Test
+  public void shouldRejectMergingReportsOtherThanPdf() throws JasperReportViewException {
+    assertValidationError(createParamsList(2), CSV_FORMAT, true, ERROR_BATCH_MERGE_FORMAT);
+  }
+
+  @Test
+  public void shouldRejectFormatWithoutExporterBeforeFilling() throws JasperReportViewException {
+    assertValidationError(createParamsList(2), "json", false,
+        ERROR_JASPER_REPORT_FORMAT_UNKNOWN);
+    verify(jasperReportsViewService, never()).fillReport(any(), any());
+  }
+
+  @Test
+  public void shouldWriteEveryReportToZipArchive() throws Exception {
+    List<Map<String, Object>> paramsList = createParamsList(2);
+    List<JRVirtualizer> virtualizers = new ArrayList<>();
+    for (Map<String, Object> params : paramsList) {
+      JasperPrint jasperPrint = new JasperPrint();
+      jasperPrint.setName(params.get("index").toString());
+      JRVirtualizer virtualizer = mock(JRVirtualizer.class);
+      virtualizers.add(virtualizer);
+      when(jasperReportsViewService.fillReport(template, params))
+          .thenReturn(new FilledReport(jasperPrint, virtualizer));
+      when(jasperReportsViewService.getJasperExporter(jasperPrint, CSV_FORMAT))
+          .thenReturn(outputStream -> write(outputStream, jasperPrint.getName()));
+    }
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    batchService.prepareBatch(template, paramsList, CSV_FORMAT, false).writeTo(outputStream);
+
+    Map<String, String> entries = readZip(outputStream.toByteArray());
+    assertEquals(2, entries.size());
+    assertEquals("0", entries.get("Stock_Card-1.csv"));
+    assertEquals("1", entries.get("Stock_Card-2.csv"));
+    virtualizers.forEach(virtualizer -> verify(virtualizer).cleanup());
+  }
+
+  @Test
+  public void shouldMergeReportsIntoSinglePdf() throws Exception {
+    JasperReport report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/empty-report.jrxml"));
+    List<Map<String, Object>> paramsList = createParamsList(2);
+    for (Map<String, Object> params : paramsList) {
+      JasperPrint jasperPrint = JasperFillManager
+          .fillReport(report, new HashMap<>(), new JREmptyDataSource());
+      when(jasperReportsViewService.fillReport(template, params))
+          .thenReturn(new FilledReport(jasperPrint, null));
+    }
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    batchService.prepareBatch(template, paramsList, ReportBatchService.PDF_FORMAT, true)
+        .writeTo(outputStream);
+
+    String pdf = new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+    assertTrue(pdf.startsWith("%PDF"));
+    verify(pdfExportProfile).isCompressed();
+    verify(pdfExportProfile).isDeduplicatingImages();
+    verify(jasperReportsViewService, never()).getJasperExporter(any(JasperPrint.class), any());
+  }
+
+  @Test
+  public void shouldCloseFilledReportsWhenAnyReportFails() throws Exception {
+    List<Map<String, Object>> paramsList = createParamsList(2);
+    JRVirtualizer virtualizer = mock(JRVirtualizer.class);
+    when(jasperReportsViewService.fillReport(template, paramsList.get(0)))
+        .thenReturn(new FilledReport(new JasperPrint(), virtualizer));
+    doAnswer(invocation -> {
+      verify(jasperReportsViewService).fillReport(template, paramsList.get(0));
+      throw new JasperReportViewException(new JRException("error"),
+          ERROR_JASPER_REPORT_GENERATION);
+    }).when(jasperReportsViewService).fillReport(eq(template), eq(paramsList.get(1)));
+
+    try {
+      batchService.prepareBatch(template, paramsList, CSV_FORMAT, false);
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertEquals(ERROR_JASPER_REPORT_GENERATION, ex.getMessageKey());
+    }
+
+    verify(virtualizer).cleanup();
+  }
+
+  @Test
+  public void shouldRejectBatchWhichDoesNotFitInQueue() throws Exception {
+    batchService.shutdown();
+    ReflectionTestUtils.setField(batchService, "poolSize", 1);
+    ReflectionTestUtils.setField(batchService, "queueCapacity", 1);
+    batchService.init();
+    CountDownLatch busy = new CountDownLatch(1);
+    ThreadPoolExecutor executor =
+        (ThreadPoolExecutor) ReflectionTestUtils.getField(batchService, "executor");
+    executor.execute(() -> awaitQuietly(busy));
+
+    try {
+      batchService.prepareBatch(template, createParamsList(2), CSV_FORMAT, false);
+      fail();
+    } catch (TooManyRequestsMessageException ex) {
+      assertTrue(ex.getMessage().startsWith(ERROR_BATCH_QUEUE_FULL + ":"));
+    } finally {
+      busy.countDown();
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    verify(jasperReportsViewService, never()).fillReport(any(), any());
+  }
+
+  private void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void assertValidationError(List<Map<String, Object>> paramsList, String format,
+      boolean merge, String messageKey) throws JasperReportViewException {
+    try {
+      batchService.prepareBatch(template, paramsList, format, merge);
+      fail();
+    } catch (ValidationMessageException ex) {
+      assertTrue(ex.getMessage().startsWith(messageKey + ":"));
+    }
+  }
+
+  private List<Map<String, Object>> createParamsList(int size) {
+    List<Map<String, Object>> paramsList = new ArrayList<>();
+    for (int index = 0; index < size; index++) {
+      Map<String, Object> params = new HashMap<>();
+      params.put("index", index);
+      paramsList.add(params);
+    }
+    return paramsList;
+  }
+
+  private void write(OutputStream outputStream, String content) throws JRException {
+    try {
+      outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException ex) {
+      throw new JRException(ex);
+    }
+  }
+
+  private Map<String, String> readZip(byte[] data) throws IOException {
+    Map<String, String> entries = new HashMap<>();
+    try (ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(data))) {
+      ZipEntry entry;
+      while ((entry = zipStream.getNextEntry()) != null) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = zipStream.read(buffer)) > 0) {
+          content.write(buffer, 0, read);
+        }
+        entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+
+public class ReportCompressionTest {
+  private static final byte[] REPORT =
+      "code,name\nC1,First\nC2,Second\n".getBytes(StandardCharsets.UTF_8);
+  private static final String GZIP_DEFLATE = "gzip, deflate";
+  private static final String CSV = "csv";
+
+  private ReportCompression compression = new ReportCompression(true);
+  private ReportWriter writer = outputStream -> outputStream.write(REPORT);
+
+  @Test
+  public void shouldAcceptGzipUnlessRejected() {
+    assertTrue(compression.isAccepted(GZIP_DEFLATE));
+    assertTrue(compression.isAccepted("br;q=1.0, gzip;q=0.8"));
+    assertTrue(compression.isAccepted("*"));
+    assertFalse(compression.isAccepted("gzip;q=0, *"));
+    assertFalse(compression.isAccepted("deflate, br"));
+    assertFalse(compression.isAccepted(null));
+    assertFalse(new ReportCompression(false).isAccepted(GZIP_DEFLATE));
+  }
+
+  @Test
+  public void shouldCompressReportInCompressibleFormat() throws IOException {
+    BodyBuilder response = ResponseEntity.ok();
+
+    ReportWriter negotiated = compression.negotiate(GZIP_DEFLATE, CSV, writer, response);
+
+    HttpHeaders headers = response.build().getHeaders();
+    assertEquals(ReportCompression.GZIP, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.getFirst(HttpHeaders.VARY));
+    assertArrayEquals(REPORT, decompress(write(negotiated)));
+  }
+
+  @Test
+  public void shouldNotCompressReportForClientNotAcceptingGzip() {
+    BodyBuilder response = ResponseEntity.ok();
+
+    ReportWriter negotiated = compression.negotiate("identity", CSV, writer, response);
+
+    assertSame(writer, negotiated);
+    HttpHeaders headers = response.build().getHeaders();
+    assertNull(headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.getFirst(HttpHeaders.VARY));
+  }
+
+  @Test
+  public void shouldNotCompressPdf() {
+    BodyBuilder response = ResponseEntity.ok();
+
+    assertSame(writer, compression.negotiate(GZIP_DEFLATE, "pdf", writer, response));
+    assertNull(response.build().getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  @Test
+  public void shouldSendCompressedReportAsStored() throws IOException {
+    byte[] stored = compress(REPORT);
+    CompressedReport report = new CompressedReport(new ByteArrayResource(stored));
+    BodyBuilder response = ResponseEntity.ok();
+
+    ReportWriter negotiated = compression.negotiate(GZIP_DEFLATE, CSV, report, response);
+
+    assertArrayEquals(stored, write(negotiated));
+    assertArrayEquals(REPORT, write(compression.negotiate(null, CSV, report, response)));
+  }
+
+  private byte[] write(ReportWriter reportWriter) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    reportWriter.writeTo(outputStream);
+    return outputStream.toByteArray();
+  }
+
+  private byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (OutputStream compressingStream = ReportCompression.compress(outputStream)) {
+      compressingStream.write(data);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private byte[] decompress(byte[] data) throws IOException {
+    return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+  }
+}
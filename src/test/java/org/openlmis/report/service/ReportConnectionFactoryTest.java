@@ -0,0 +1,280 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportConnectionFactoryTest {
+  private static final String QUERY = "SELECT 1";
+  private static final int FETCH_SIZE = 1000;
+
+  @Mock
+  private ReportDataSource reportDataSource;
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement preparedStatement;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @Mock
+  private JasperReport report;
+
+  @InjectMocks
+  private ReportConnectionFactory factory;
+
+  @Before
+  public void setUp() throws SQLException {
+    ReflectionTestUtils.setField(factory, "fetchSize", FETCH_SIZE);
+    when(reportDataSource.getConnection()).thenReturn(connection);
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(QUERY)).thenReturn(preparedStatement);
+  }
+
+  @Test
+  public void shouldOpenReadOnlyConnectionWithoutAutoCommit() throws SQLException {
+    factory.getConnection(report);
+
+    verify(connection).setReadOnly(true);
+    verify(connection).setAutoCommit(false);
+  }
+
+  @Test
+  public void shouldSetFetchSizeOfStatements() throws SQLException {
+    factory.getConnection(report).prepareStatement(QUERY);
+
+    verify(preparedStatement).setFetchSize(FETCH_SIZE);
+  }
+
+  @Test
+  public void shouldUseFetchSizeFromReportProperty() throws SQLException {
+    when(report.getProperty(ReportConnectionFactory.FETCH_SIZE_PROPERTY)).thenReturn("50");
+
+    factory.getConnection(report).prepareStatement(QUERY);
+
+    verify(preparedStatement).setFetchSize(50);
+  }
+
+  @Test
+  public void shouldUseDefaultFetchSizeWhenReportPropertyIsInvalid() throws SQLException {
+    when(report.getProperty(ReportConnectionFactory.FETCH_SIZE_PROPERTY)).thenReturn("many");
+
+    factory.getConnection(report).prepareStatement(QUERY);
+
+    verify(preparedStatement).setFetchSize(FETCH_SIZE);
+  }
+
+  @Test
+  public void shouldNotSetFetchSizeWhenItIsZero() throws SQLException {
+    when(report.getProperty(ReportConnectionFactory.FETCH_SIZE_PROPERTY)).thenReturn("0");
+
+    factory.getConnection(report).prepareStatement(QUERY);
+
+    verify(preparedStatement, never()).setFetchSize(0);
+  }
+
+  @Test
+  public void shouldRestoreConnectionStateOnClose() throws SQLException {
+    factory.getConnection(report).close();
+
+    InOrder order = inOrder(connection);
+    order.verify(connection).rollback();
+    order.verify(connection).setAutoCommit(true);
+    order.verify(connection).setReadOnly(false);
+    order.verify(connection).close();
+  }
+
+  @Test
+  public void shouldCloseConnectionWhenItCanNotBeRestored() throws SQLException {
+    doThrow(new SQLException()).when(connection).rollback();
+
+    try {
+      factory.getConnection(report).close();
+      fail();
+    } catch (SQLException ex) {
+      verify(connection).close();
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionWhenItCanNotBeConfigured() throws SQLException {
+    doThrow(new SQLException()).when(connection).setReadOnly(true);
+
+    try {
+      factory.getConnection(report);
+      fail();
+    } catch (SQLException ex) {
+      verify(connection).close();
+    }
+  }
+
+  @Test
+  public void shouldCancelRunningStatements() throws SQLException {
+    ReportConnection reportConnection = factory.getConnection(report);
+    reportConnection.prepareStatement(QUERY);
+
+    reportConnection.cancel();
+
+    verify(preparedStatement).cancel();
+    verify(connection, never()).close();
+  }
+
+  @Test
+  public void shouldNotCancelClosedStatements() throws SQLException {
+    when(preparedStatement.isClosed()).thenReturn(true);
+    ReportConnection reportConnection = factory.getConnection(report);
+    reportConnection.prepareStatement(QUERY);
+
+    reportConnection.cancel();
+
+    verify(preparedStatement, never()).cancel();
+  }
+
+  @Test
+  public void shouldSetStatementTimeoutOfTransaction() throws SQLException {
+    Statement statement = mock(Statement.class);
+    when(connection.createStatement()).thenReturn(statement);
+
+    factory.getConnection(report).setStatementTimeout(30);
+
+    verify(statement).execute("SET LOCAL statement_timeout = 30000");
+    verify(statement).close();
+  }
+
+  @Test
+  public void shouldNotSetStatementTimeoutIfUnlimited() throws SQLException {
+    factory.getConnection(report).setStatementTimeout(0);
+
+    verify(connection, never()).createStatement();
+  }
+
+  @Test
+  public void shouldPassOtherCallsToConnection() throws SQLException {
+    Statement statement = factory.getConnection(report).createStatement();
+
+    verify(connection).createStatement();
+    verify(connection, never()).close();
+    assertNull(statement);
+  }
+
+  @Test
+  public void shouldRecordStatementsWithRowCounts() throws SQLException {
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+    ReportQueryLog queryLog = new ReportQueryLog(false);
+
+    PreparedStatement statement = factory.getConnection(report, queryLog).prepareStatement(QUERY);
+    statement.setInt(1, 10);
+    statement.setNull(2, 0);
+    ResultSet result = statement.executeQuery();
+    while (result.next()) {
+      result.getObject(1);
+    }
+
+    QueryProfile query = queryLog.getQueries().get(0);
+    assertEquals(QUERY, query.getSql());
+    assertEquals(1, query.getExecutions());
+    assertEquals(2, query.getRows());
+    assertEquals(Arrays.asList("10", "NULL"), query.getParameters());
+    verify(preparedStatement).setInt(1, 10);
+    verify(resultSet, times(2)).getObject(1);
+  }
+
+  @Test
+  public void shouldRedactParameters() throws SQLException {
+    ReportQueryLog queryLog = new ReportQueryLog(true);
+
+    PreparedStatement statement = factory.getConnection(report, queryLog).prepareStatement(QUERY);
+    statement.setString(1, "secret");
+    statement.execute();
+
+    assertEquals(Arrays.asList("<String>"), queryLog.getQueries().get(0).getParameters());
+  }
+
+  @Test
+  public void shouldCombineExecutionsOfSameStatement() throws SQLException {
+    ReportQueryLog queryLog = new ReportQueryLog(false);
+    ReportConnection reportConnection = factory.getConnection(report, queryLog);
+
+    reportConnection.prepareStatement(QUERY).execute();
+    reportConnection.prepareStatement(QUERY).execute();
+
+    assertEquals(1, queryLog.getQueries().size());
+    assertEquals(2, queryLog.getQueries().get(0).getExecutions());
+  }
+
+  @Test
+  public void shouldFailToReadRowsAboveRecordLimit() throws SQLException {
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    FillLimits fillLimits = new FillLimits(2, 0);
+
+    ResultSet result = factory.getConnection(report, null, fillLimits)
+        .prepareStatement(QUERY).executeQuery();
+    result.next();
+    result.next();
+
+    try {
+      result.next();
+      fail();
+    } catch (SQLException ex) {
+      assertTrue(fillLimits.isExceeded());
+    }
+  }
+
+  @Test
+  public void shouldCancelRecordedStatements() throws SQLException {
+    ReportConnection reportConnection =
+        factory.getConnection(report, new ReportQueryLog(false));
+    reportConnection.prepareStatement(QUERY);
+
+    reportConnection.cancel();
+
+    verify(preparedStatement).cancel();
+  }
+}
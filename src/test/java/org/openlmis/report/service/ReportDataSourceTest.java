@@ -0,0 +1,155 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Clock;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportDataSourceTest {
+  private static final long RECHECK_INTERVAL = 30000;
+
+  @Mock
+  private Clock clock;
+
+  @Mock
+  private DataSource reporting;
+
+  @Mock
+  private DataSource primary;
+
+  @Mock
+  private Connection reportingConnection;
+
+  @Mock
+  private Connection primaryConnection;
+
+  @Mock
+  private ReportMetrics reportMetrics;
+
+  @InjectMocks
+  private ReportDataSource reportDataSource;
+
+  @Before
+  public void setUp() throws SQLException {
+    ReflectionTestUtils.setField(reportDataSource, "reporting", reporting);
+    ReflectionTestUtils.setField(reportDataSource, "primary", primary);
+    ReflectionTestUtils.setField(reportDataSource, "fallback",
+        ReportDataSource.FALLBACK_UNAVAILABLE);
+    ReflectionTestUtils.setField(reportDataSource, "maxReplicationLag", 300L);
+    ReflectionTestUtils.setField(reportDataSource, "recheckInterval", RECHECK_INTERVAL);
+
+    when(clock.millis()).thenReturn(1000L);
+    when(reporting.getConnection()).thenReturn(reportingConnection);
+    when(primary.getConnection()).thenReturn(primaryConnection);
+  }
+
+  @Test
+  public void shouldUseReportingDatabase() throws SQLException {
+    assertSame(reportingConnection, reportDataSource.getConnection());
+  }
+
+  @Test
+  public void shouldFallBackWhileReportingDatabaseIsUnavailable() throws SQLException {
+    when(reporting.getConnection())
+        .thenThrow(new SQLException("Connection refused"))
+        .thenReturn(reportingConnection);
+
+    assertSame(primaryConnection, reportDataSource.getConnection());
+    assertSame(primaryConnection, reportDataSource.getConnection());
+    verify(reporting).getConnection();
+
+    when(clock.millis()).thenReturn(1000L + RECHECK_INTERVAL);
+    assertSame(reportingConnection, reportDataSource.getConnection());
+  }
+
+  @Test(expected = SQLTransientConnectionException.class)
+  public void shouldNotFallBackWhenAllConnectionsAreBusy() throws SQLException {
+    when(reporting.getConnection())
+        .thenThrow(new SQLTransientConnectionException("Connection is not available"));
+
+    reportDataSource.getConnection();
+  }
+
+  @Test(expected = SQLException.class)
+  public void shouldNotFallBackIfPolicyIsNever() throws SQLException {
+    ReflectionTestUtils.setField(reportDataSource, "fallback", ReportDataSource.FALLBACK_NEVER);
+    when(reporting.getConnection()).thenThrow(new SQLException("Connection refused"));
+
+    reportDataSource.getConnection();
+  }
+
+  @Test
+  public void shouldFallBackWhileReplicaIsLagging() throws SQLException {
+    ReflectionTestUtils.setField(reportDataSource, "fallback",
+        ReportDataSource.FALLBACK_LAGGING);
+    mockReplicationLag(600);
+
+    assertSame(primaryConnection, reportDataSource.getConnection());
+    assertSame(primaryConnection, reportDataSource.getConnection());
+    verify(reportingConnection).close();
+    verify(reporting).getConnection();
+
+    mockReplicationLag(10);
+    when(clock.millis()).thenReturn(1000L + RECHECK_INTERVAL);
+    assertSame(reportingConnection, reportDataSource.getConnection());
+  }
+
+  @Test
+  public void shouldCheckReplicationLagOncePerInterval() throws SQLException {
+    ReflectionTestUtils.setField(reportDataSource, "fallback",
+        ReportDataSource.FALLBACK_LAGGING);
+    mockReplicationLag(10);
+
+    assertSame(reportingConnection, reportDataSource.getConnection());
+    assertSame(reportingConnection, reportDataSource.getConnection());
+    verify(reportingConnection, times(1)).createStatement();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectUnknownFallbackPolicy() {
+    ReflectionTestUtils.setField(reportDataSource, "fallback", "always");
+
+    reportDataSource.init();
+  }
+
+  private void mockReplicationLag(double lag) throws SQLException {
+    Statement statement = mock(Statement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+    when(reportingConnection.createStatement()).thenReturn(statement);
+    when(statement.executeQuery(ReportDataSource.REPLICATION_LAG_QUERY)).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getDouble(1)).thenReturn(lag);
+  }
+}
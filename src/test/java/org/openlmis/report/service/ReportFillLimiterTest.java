@@ -0,0 +1,149 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.service.ReportFillLimiter.FillPermit;
+
+public class ReportFillLimiterTest {
+  private static final long RETRY_AFTER = 30;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private ReportFillLimiter limiter;
+  private JasperReport report;
+
+  @Before
+  public void setUp() {
+    limiter = new ReportFillLimiter(2, 1, 0, 10, RETRY_AFTER);
+    report = mock(JasperReport.class);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldRejectFillOverTemplateLimitWithRetryAfter() {
+    UUID templateId = UUID.randomUUID();
+
+    try (FillPermit permit = limiter.acquire(templateId, report)) {
+      limiter.acquire(templateId, report);
+      fail();
+    } catch (TooManyRequestsMessageException ex) {
+      assertEquals(Long.valueOf(RETRY_AFTER), ex.getRetryAfter());
+    }
+  }
+
+  @Test
+  public void shouldReleasePermitWhenFillIsFinished() {
+    UUID templateId = UUID.randomUUID();
+
+    limiter.acquire(templateId, report).close();
+
+    assertEquals(1, limiter.getAvailablePermits(templateId));
+    limiter.acquire(templateId, report).close();
+  }
+
+  @Test
+  public void shouldReleasePermitOnlyOnceWhenClosedTwice() {
+    UUID templateId = UUID.randomUUID();
+    FillPermit permit = limiter.acquire(templateId, report);
+
+    permit.close();
+    permit.close();
+
+    assertEquals(1, limiter.getAvailablePermits(templateId));
+  }
+
+  @Test
+  public void shouldNotLimitOtherTemplatesBelowGlobalLimit() {
+    UUID templateId = UUID.randomUUID();
+
+    try (FillPermit first = limiter.acquire(UUID.randomUUID(), report);
+        FillPermit second = limiter.acquire(templateId, report)) {
+      assertEquals(0, limiter.getAvailablePermits(templateId));
+    } catch (TooManyRequestsMessageException ex) {
+      fail();
+    }
+  }
+
+  @Test(expected = TooManyRequestsMessageException.class)
+  public void shouldRejectFillOverGlobalLimit() {
+    try (FillPermit first = limiter.acquire(UUID.randomUUID(), report);
+        FillPermit second = limiter.acquire(UUID.randomUUID(), report)) {
+      limiter.acquire(UUID.randomUUID(), report);
+    }
+  }
+
+  @Test
+  public void shouldReleaseTemplatePermitWhenGlobalLimitIsReached() {
+    UUID templateId = UUID.randomUUID();
+
+    try (FillPermit first = limiter.acquire(UUID.randomUUID(), report);
+        FillPermit second = limiter.acquire(UUID.randomUUID(), report)) {
+      limiter.acquire(templateId, report);
+      fail();
+    } catch (TooManyRequestsMessageException ex) {
+      assertEquals(1, limiter.getAvailablePermits(templateId));
+    }
+  }
+
+  @Test
+  public void shouldUseLimitFromReportProperty() {
+    UUID templateId = UUID.randomUUID();
+    when(report.getProperty(ReportFillLimiter.MAX_CONCURRENT_FILLS_PROPERTY)).thenReturn("2");
+
+    try (FillPermit first = limiter.acquire(templateId, report);
+        FillPermit second = limiter.acquire(templateId, report)) {
+      assertEquals(0, limiter.getAvailablePermits(templateId));
+    }
+  }
+
+  @Test
+  public void shouldWaitInQueueForReleasedPermit() throws Exception {
+    limiter = new ReportFillLimiter(0, 1, 1, 5000, RETRY_AFTER);
+    UUID templateId = UUID.randomUUID();
+    CountDownLatch waiting = new CountDownLatch(1);
+
+    FillPermit permit = limiter.acquire(templateId, report);
+    final Future<?> queued = executor.submit(() -> {
+      waiting.countDown();
+      limiter.acquire(templateId, report).close();
+    });
+    waiting.await();
+    Thread.sleep(50);
+    permit.close();
+
+    queued.get(5, TimeUnit.SECONDS);
+    assertEquals(1, limiter.getAvailablePermits(templateId));
+  }
+}
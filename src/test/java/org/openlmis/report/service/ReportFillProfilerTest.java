@@ -0,0 +1,152 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReportFillProfilerTest {
+  private static final String TEMPLATE_NAME = "template";
+  private static final String QUERY = "SELECT * FROM stock WHERE facility = ?";
+
+  private ReportFillProfiler profiler;
+
+  @Before
+  public void setUp() {
+    profiler = new ReportFillProfiler();
+    ReflectionTestUtils.setField(profiler, "clock",
+        Clock.fixed(Instant.parse("2026-10-18T10:00:00Z"), ZoneOffset.UTC));
+    ReflectionTestUtils.setField(profiler, "objectMapper", new ObjectMapper()
+        .registerModule(new JavaTimeModule()));
+    ReflectionTestUtils.setField(profiler, "enabled", true);
+    ReflectionTestUtils.setField(profiler, "redactParameters", true);
+    ReflectionTestUtils.setField(profiler, "debugHeader", true);
+    ReflectionTestUtils.setField(profiler, "maxFills", 2);
+    ReflectionTestUtils.setField(profiler, "slowFillThreshold", 5000L);
+  }
+
+  @Test
+  public void shouldNotCreateQueryLogWhenCaptureIsDisabled() {
+    ReflectionTestUtils.setField(profiler, "enabled", false);
+
+    assertNull(profiler.createQueryLog());
+    assertNull(profiler.record(TEMPLATE_NAME, 1, 1, true, null));
+  }
+
+  @Test
+  public void shouldRecordFillWithItsStatements() {
+    ReportQueryLog queryLog = profiler.createQueryLog();
+    queryLog.getQuery(QUERY).addExecution(TimeUnit.MILLISECONDS.toNanos(3),
+        Collections.singletonList("<UUID>"));
+    queryLog.getQuery(QUERY).addFetch(TimeUnit.MILLISECONDS.toNanos(1), true);
+
+    FillProfile profile = profiler.record(TEMPLATE_NAME, TimeUnit.SECONDS.toNanos(2), 4, true,
+        queryLog);
+
+    assertEquals(TEMPLATE_NAME, profile.getTemplateName());
+    assertEquals(2000, profile.getDurationMillis());
+    assertEquals(4, profile.getPages());
+    assertEquals(1, profile.getRows());
+    assertEquals(3, profile.getExecutionMillis(), 0.001);
+    assertEquals(Instant.parse("2026-10-18T09:59:58Z"), profile.getStartDate().toInstant());
+  }
+
+  @Test
+  public void shouldKeepOnlyRecentFillsSortedBySlowest() {
+    profiler.record("first", TimeUnit.SECONDS.toNanos(9), 1, true, profiler.createQueryLog());
+    profiler.record("second", TimeUnit.SECONDS.toNanos(1), 1, true, profiler.createQueryLog());
+    profiler.record("third", TimeUnit.SECONDS.toNanos(3), 1, false, profiler.createQueryLog());
+
+    List<String> names = profiler.getSlowestFills(10).stream()
+        .map(FillProfile::getTemplateName)
+        .collect(Collectors.toList());
+
+    assertEquals(2, names.size());
+    assertEquals("third", names.get(0));
+    assertEquals("second", names.get(1));
+  }
+
+  @Test
+  public void shouldReturnDebugHeaderWithSlowestStatementFirst() {
+    ReportQueryLog queryLog = profiler.createQueryLog();
+    queryLog.getQuery("SELECT 1").addExecution(TimeUnit.MILLISECONDS.toNanos(1),
+        Collections.emptyList());
+    queryLog.getQuery("SELECT\n  2").addExecution(TimeUnit.MILLISECONDS.toNanos(5),
+        Collections.emptyList());
+
+    Optional<String> header = profiler.getDebugHeader(
+        profiler.record(TEMPLATE_NAME, 1, 1, true, queryLog));
+
+    assertTrue(header.isPresent());
+    assertEquals("5.0ms/0.0ms x1 0 rows: SELECT 2; 1.0ms/0.0ms x1 0 rows: SELECT 1",
+        header.get());
+  }
+
+  @Test
+  public void shouldCutOffLongDebugHeader() {
+    ReportQueryLog queryLog = profiler.createQueryLog();
+    StringBuilder sql = new StringBuilder("SELECT 'ä'");
+    for (int index = 0; index < ReportFillProfiler.MAX_HEADER_LENGTH; index++) {
+      sql.append(" ");
+      sql.append(index);
+    }
+    queryLog.getQuery(sql.toString()).addExecution(1, Collections.emptyList());
+
+    String header = profiler.getDebugHeader(
+        profiler.record(TEMPLATE_NAME, 1, 1, true, queryLog)).get();
+
+    assertEquals(ReportFillProfiler.MAX_HEADER_LENGTH, header.length());
+    assertTrue(header.contains("SELECT '?'"));
+  }
+
+  @Test
+  public void shouldNotReturnDebugHeaderWhenItIsDisabled() {
+    ReflectionTestUtils.setField(profiler, "debugHeader", false);
+
+    assertFalse(profiler.getDebugHeader(
+        profiler.record(TEMPLATE_NAME, 1, 1, true, profiler.createQueryLog())).isPresent());
+  }
+
+  @Test
+  public void shouldCountStatementsAboveLimitTogether() {
+    ReportQueryLog queryLog = profiler.createQueryLog();
+    for (int index = 0; index <= ReportQueryLog.MAX_QUERIES; index++) {
+      queryLog.getQuery("SELECT " + index).addExecution(1, Collections.emptyList());
+    }
+    queryLog.getQuery("SELECT 0").addExecution(1, Collections.emptyList());
+
+    List<QueryProfile> queries = queryLog.getQueries();
+    assertEquals(ReportQueryLog.MAX_QUERIES + 1, queries.size());
+    assertEquals(2, queries.get(0).getExecutions());
+    assertEquals(ReportQueryLog.OTHER_QUERIES, queries.get(ReportQueryLog.MAX_QUERIES).getSql());
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_LIMIT_PAGES;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.AsynchronousFillHandle;
+import net.sf.jasperreports.engine.fill.AsynchronousFilllListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.service.ReportConnectionFactory.ReportConnection;
+import org.openlmis.report.service.ReportLimits.FillLimits;
+import org.openlmis.report.utils.Message;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(BlockJUnit4ClassRunner.class)
+@PrepareForTest({AsynchronousFillHandle.class})
+public class ReportFillerTest {
+  private static final String TEMPLATE_NAME = "report";
+  private static final int RECORDS = 100000;
+
+  @Mock
+  private ReportMetrics reportMetrics;
+
+  @Mock
+  private ReportConnection connection;
+
+  @InjectMocks
+  private ReportFiller filler;
+
+  private final AtomicReference<AsynchronousFilllListener> listener = new AtomicReference<>();
+  private AsynchronousFillHandle handle;
+  private JasperReport report;
+
+  @Before
+  public void setUp() throws JRException {
+    ReflectionTestUtils.setField(filler, "timeout", 1L);
+    report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/empty-report.jrxml"));
+  }
+
+  @Test
+  public void shouldFillReport() throws Exception {
+    ReflectionTestUtils.setField(filler, "timeout", 0L);
+
+    assertNotNull(filler.fill(TEMPLATE_NAME, report, new HashMap<>(), null, null, noLimits()));
+  }
+
+  @Test
+  public void shouldStopFillAfterLastPageOfRange() throws Exception {
+    ReflectionTestUtils.setField(filler, "timeout", 0L);
+    JasperReport multiPageReport = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/multi-page-report.jrxml"));
+    AtomicInteger records = new AtomicInteger();
+    Map<String, Object> params = new HashMap<>();
+    params.put(JRParameter.REPORT_DATA_SOURCE, new JREmptyDataSource(RECORDS) {
+      @Override
+      public boolean next() {
+        records.incrementAndGet();
+        return super.next();
+      }
+    });
+
+    JasperPrint print = filler.fill(TEMPLATE_NAME, multiPageReport, params, null,
+        PageRange.of(2, 3, false), noLimits());
+
+    assertEquals(2, print.getPages().size());
+    assertTrue(records.get() < RECORDS);
+    verify(reportMetrics, never()).fillCancelled(any(), any(), anyLong(), anyInt());
+  }
+
+  @Test
+  public void shouldStopFillAbovePageLimit() throws Exception {
+    ReflectionTestUtils.setField(filler, "timeout", 0L);
+    JasperReport multiPageReport = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/multi-page-report.jrxml"));
+    Map<String, Object> params = new HashMap<>();
+    params.put(JRParameter.REPORT_DATA_SOURCE, new JREmptyDataSource(RECORDS));
+
+    try {
+      filler.fill(TEMPLATE_NAME, multiPageReport, params, null, null, new FillLimits(0, 2));
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertEquals(new Message(ERROR_JASPER_REPORT_LIMIT_PAGES, "2"), ex.asMessage());
+      verify(reportMetrics).fillCancelled(eq(TEMPLATE_NAME), eq(ReportFiller.REASON_LIMIT),
+          anyLong(), anyInt());
+    }
+  }
+
+  @Test
+  public void shouldCancelFillAndStatementsAfterTimeout() throws Exception {
+    mockHandle();
+    doAnswer(invocation -> {
+      listener.get().reportCancelled();
+      return null;
+    }).when(handle).cancellFill();
+
+    try {
+      filler.fill(TEMPLATE_NAME, report, new HashMap<>(), connection, null, noLimits());
+      fail();
+    } catch (JasperReportViewException ex) {
+      verify(handle).cancellFill();
+      verify(connection).cancel();
+      verify(reportMetrics).fillCancelled(eq(TEMPLATE_NAME), eq(ReportFiller.REASON_TIMEOUT),
+          anyLong(), eq(0));
+    }
+  }
+
+  @Test(expected = JasperReportViewException.class)
+  public void shouldUseTimeoutFromReportProperty() throws Exception {
+    ReflectionTestUtils.setField(filler, "timeout", 0L);
+    report.setProperty(ReportFiller.TIMEOUT_PROPERTY, "1");
+    mockHandle();
+
+    filler.fill(TEMPLATE_NAME, report, new HashMap<>(), connection, null, noLimits());
+  }
+
+  @Test
+  public void shouldCancelFillWhenThreadIsInterrupted() throws Exception {
+    mockHandle();
+    Thread.currentThread().interrupt();
+
+    try {
+      filler.fill(TEMPLATE_NAME, report, new HashMap<>(), connection, null, noLimits());
+      fail();
+    } catch (JasperReportViewException ex) {
+      assertTrue(Thread.interrupted());
+      verify(handle).cancellFill();
+      verify(reportMetrics).fillCancelled(eq(TEMPLATE_NAME),
+          eq(ReportFiller.REASON_INTERRUPTED), anyLong(), eq(0));
+    }
+  }
+
+  @Test(expected = JRException.class)
+  public void shouldThrowFillError() throws Exception {
+    mockHandle();
+    doAnswer(invocation -> {
+      listener.get().reportFillError(new JRException("error"));
+      return null;
+    }).when(handle).startFill();
+
+    filler.fill(TEMPLATE_NAME, report, new HashMap<>(), connection, null, noLimits());
+  }
+
+  private FillLimits noLimits() {
+    return new FillLimits(0, 0);
+  }
+
+  private void mockHandle() throws JRException {
+    handle = mock(AsynchronousFillHandle.class);
+    doAnswer(invocation -> {
+      listener.set(invocation.getArgument(0));
+      return null;
+    }).when(handle).addListener(any());
+
+    mockStatic(AsynchronousFillHandle.class);
+    when(AsynchronousFillHandle.createHandle(any(JasperReport.class), any(),
+        any(Connection.class))).thenReturn(handle);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class ReportImageStoreTest {
+  private static final byte[] IMAGE = {1, 2, 3};
+
+  private ReportImageStore store = new ReportImageStore(true, 1024, 60, "http://localhost");
+
+  @Test
+  public void shouldKeepImageByHashOfItsContent() {
+    String hash = store.put(IMAGE);
+
+    assertEquals("039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81", hash);
+    assertArrayEquals(IMAGE, store.get(hash).get());
+  }
+
+  @Test
+  public void shouldReturnSameHashForSameContent() {
+    assertEquals(store.put(IMAGE), store.put(IMAGE.clone()));
+    assertNotEquals(store.put(IMAGE), store.put(new byte[] {3, 2, 1}));
+  }
+
+  @Test
+  public void shouldNotReturnUnknownImage() {
+    assertFalse(store.get("unknown").isPresent());
+  }
+
+  @Test
+  public void shouldReturnUrlOfImage() {
+    assertEquals("http://localhost/api/reports/images/content/abc", store.getUrl("abc"));
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.openlmis.report.i18n.JasperMessageKeys.ERROR_JASPER_REPORT_FILL_LIMIT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.exception.TooManyRequestsMessageException;
+import org.openlmis.report.utils.Message;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportJobServiceTest {
+  private static final byte[] REPORT = {1, 2, 3};
+  private static final long TIMEOUT_MILLIS = 5000;
+  private static final Message FILL_LIMIT_MESSAGE = new Message(ERROR_JASPER_REPORT_FILL_LIMIT);
+
+  @Mock
+  private JasperReportsViewService jasperReportsViewService;
+
+  @InjectMocks
+  private ReportJobService reportJobService;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private JasperTemplate template;
+  private Map<String, Object> params;
+
+  @Before
+  public void setUp() throws IOException {
+    ReflectionTestUtils.setField(reportJobService, "clock",
+        Clock.fixed(Instant.parse("2017-01-01T00:00:00Z"), ZoneOffset.UTC));
+    ReflectionTestUtils.setField(reportJobService, "poolSize", 1);
+    ReflectionTestUtils.setField(reportJobService, "queueCapacity", 1);
+    ReflectionTestUtils.setField(reportJobService, "maxWait", TIMEOUT_MILLIS);
+    ReflectionTestUtils.setField(reportJobService, "retryDelay", 10L);
+    ReflectionTestUtils.setField(reportJobService, "retentionMinutes", 0L);
+    ReflectionTestUtils.setField(reportJobService, "directory",
+        temporaryFolder.getRoot().getPath());
+    reportJobService.init();
+
+    template = new JasperTemplate();
+    template.setId(UUID.randomUUID());
+    template.setName("Report");
+
+    params = new HashMap<>();
+    params.put("format", "pdf");
+  }
+
+  @After
+  public void tearDown() {
+    reportJobService.shutdown();
+  }
+
+  @Test
+  public void shouldWriteReportOfCompletedJob() throws Exception {
+    // given
+    givenReportIsGenerated();
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.COMPLETED, job.getStatus());
+    assertEquals("pdf", job.getFormat());
+    assertArrayEquals(REPORT, Files.readAllBytes(job.getOutput()));
+    assertTrue(reportJobService.findJob(job.getId()).isPresent());
+  }
+
+  @Test
+  public void shouldStoreCompressibleReportCompressed() throws Exception {
+    // given
+    params.put("format", "csv");
+    givenReportIsGenerated();
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.COMPLETED, job.getStatus());
+    assertTrue(job.isCompressed());
+    try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(job.getOutput()))) {
+      assertArrayEquals(REPORT, IOUtils.toByteArray(inputStream));
+    }
+  }
+
+  @Test
+  public void shouldMarkJobAsFailedWhenGenerationFails() throws Exception {
+    // given
+    given(jasperReportsViewService.prepareReport(template, params))
+        .willThrow(new IllegalStateException());
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.FAILED, job.getStatus());
+    assertTrue(job.getError() != null);
+  }
+
+  @Test
+  public void shouldRetryFillRejectedByFillLimits() throws Exception {
+    // given
+    given(jasperReportsViewService.prepareReport(template, params))
+        .willThrow(new TooManyRequestsMessageException(FILL_LIMIT_MESSAGE))
+        .willReturn(new PreparedReport(null, outputStream -> outputStream.write(REPORT)));
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.COMPLETED, job.getStatus());
+    assertArrayEquals(REPORT, Files.readAllBytes(job.getOutput()));
+  }
+
+  @Test
+  public void shouldFailJobWhenFillIsRejectedLongerThanMaxWait() throws Exception {
+    // given
+    ReflectionTestUtils.setField(reportJobService, "maxWait", 50L);
+    given(jasperReportsViewService.prepareReport(template, params))
+        .willThrow(new TooManyRequestsMessageException(FILL_LIMIT_MESSAGE));
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.FAILED, job.getStatus());
+    assertEquals(FILL_LIMIT_MESSAGE, job.getError());
+  }
+
+  @Test
+  public void shouldCloseReportWhenOutputCanNotBeWritten() throws Exception {
+    // given
+    AtomicBoolean closed = new AtomicBoolean();
+    given(jasperReportsViewService.prepareReport(template, params)).willReturn(
+        new PreparedReport(null, outputStream -> outputStream.write(REPORT), null,
+            () -> closed.set(true)));
+    ReflectionTestUtils.setField(reportJobService, "directory",
+        temporaryFolder.getRoot().toPath().resolve("missing").toString());
+
+    // when
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.FAILED, job.getStatus());
+    assertTrue(closed.get());
+  }
+
+  @Test
+  public void shouldGenerateReportInLocaleOfCaller() throws Exception {
+    // given
+    AtomicReference<Locale> locale = new AtomicReference<>();
+    given(jasperReportsViewService.prepareReport(template, params)).willAnswer(invocation -> {
+      locale.set(LocaleContextHolder.getLocale());
+      return new PreparedReport(null, outputStream -> outputStream.write(REPORT));
+    });
+    LocaleContextHolder.setLocale(Locale.FRENCH);
+
+    // when
+    ReportJob job;
+    try {
+      job = reportJobService.submit(template, params);
+    } finally {
+      LocaleContextHolder.resetLocaleContext();
+    }
+    awaitFinished(job);
+
+    // then
+    assertEquals(ReportJobStatus.COMPLETED, job.getStatus());
+    assertEquals(Locale.FRENCH, locale.get());
+  }
+
+  @Test(expected = TooManyRequestsMessageException.class)
+  public void shouldRejectJobWhenQueueIsFull() throws Exception {
+    // given
+    CountDownLatch latch = new CountDownLatch(1);
+    given(jasperReportsViewService.prepareReport(any(), any())).willAnswer(invocation -> {
+      latch.await();
+      return new PreparedReport(null, outputStream -> outputStream.write(REPORT));
+    });
+
+    try {
+      reportJobService.submit(template, params);
+      reportJobService.submit(template, params);
+
+      // when
+      reportJobService.submit(template, params);
+    } finally {
+      latch.countDown();
+    }
+  }
+
+  @Test
+  public void shouldRemoveExpiredJobsWithOutput() throws Exception {
+    // given
+    givenReportIsGenerated();
+    ReportJob job = reportJobService.submit(template, params);
+    awaitFinished(job);
+    Path output = job.getOutput();
+
+    // when
+    reportJobService.removeExpiredJobs();
+
+    // then
+    assertFalse(reportJobService.findJob(job.getId()).isPresent());
+    assertFalse(Files.exists(output));
+  }
+
+  private void givenReportIsGenerated() throws Exception {
+    given(jasperReportsViewService.prepareReport(template, params))
+        .willReturn(new PreparedReport(null, outputStream -> outputStream.write(REPORT)));
+  }
+
+  private void awaitFinished(ReportJob job) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!job.isFinished()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("job did not finish");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
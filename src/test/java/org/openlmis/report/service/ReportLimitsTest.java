@@ -0,0 +1,151 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.exception.OutputLimitExceededException;
+import org.openlmis.report.exception.ReportingException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReportLimitsTest {
+  private ReportLimits limits;
+  private JasperReport report;
+
+  @Before
+  public void setUp() throws JRException {
+    limits = new ReportLimits();
+    ReflectionTestUtils.setField(limits, "maxRecords", 1000L);
+    ReflectionTestUtils.setField(limits, "maxPages", 100);
+    ReflectionTestUtils.setField(limits, "maxOutputBytes", 4096L);
+    report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream("/empty-report.jrxml"));
+  }
+
+  @Test
+  public void shouldAcceptValidLimits() throws ReportingException {
+    report.setProperty(ReportLimits.MAX_RECORDS_PROPERTY, "50000");
+    report.setProperty(ReportLimits.MAX_PAGES_PROPERTY, "0");
+    report.setProperty(ReportFiller.TIMEOUT_PROPERTY, " 60 ");
+
+    limits.validateTemplateLimits(report);
+  }
+
+  @Test(expected = ReportingException.class)
+  public void shouldRejectNonNumericLimit() throws ReportingException {
+    report.setProperty(ReportLimits.MAX_PAGES_PROPERTY, "many");
+
+    limits.validateTemplateLimits(report);
+  }
+
+  @Test(expected = ReportingException.class)
+  public void shouldRejectNegativeLimit() throws ReportingException {
+    report.setProperty(ReportFiller.TIMEOUT_PROPERTY, "-1");
+
+    limits.validateTemplateLimits(report);
+  }
+
+  @Test
+  public void shouldUseRecordLimitFromReportProperty() throws SQLException {
+    report.setProperty(ReportLimits.MAX_RECORDS_PROPERTY, "1");
+    ReportLimits.FillLimits fillLimits = limits.getFillLimits(report);
+
+    fillLimits.countRecord();
+    try {
+      fillLimits.countRecord();
+      fail();
+    } catch (SQLException ex) {
+      assertTrue(fillLimits.isExceeded());
+    }
+  }
+
+  @Test(expected = JasperReportViewException.class)
+  public void shouldThrowErrorWhenPageLimitIsExceeded() throws JasperReportViewException {
+    report.setProperty(ReportLimits.MAX_PAGES_PROPERTY, "2");
+    ReportLimits.FillLimits fillLimits = limits.getFillLimits(report);
+
+    assertTrue(fillLimits.countPage());
+    assertTrue(fillLimits.countPage());
+    assertFalse(fillLimits.countPage());
+    fillLimits.throwIfExceeded();
+  }
+
+  @Test
+  public void shouldNotLimitFillWhenLimitsAreZero() throws Exception {
+    ReportLimits.FillLimits fillLimits = new ReportLimits.FillLimits(0, 0);
+
+    for (int i = 0; i < 10; i++) {
+      fillLimits.countRecord();
+      assertTrue(fillLimits.countPage());
+    }
+    fillLimits.throwIfExceeded();
+  }
+
+  @Test
+  public void shouldReturnRecordLimitOfReport() {
+    assertEquals(1000L, limits.getMaxRecords(report));
+
+    report.setProperty(ReportLimits.MAX_RECORDS_PROPERTY, "20");
+    assertEquals(20L, limits.getMaxRecords(report));
+  }
+
+  @Test
+  public void shouldUseDefaultLimitWhenReportPropertyIsInvalid() {
+    report.setProperty(ReportLimits.MAX_OUTPUT_BYTES_PROPERTY, "large");
+
+    assertEquals(4096L, limits.getMaxOutputBytes(report));
+  }
+
+  @Test
+  public void shouldKeepOutputLimitWithFilledReport() {
+    report.setProperty(ReportLimits.MAX_OUTPUT_BYTES_PROPERTY, "10");
+    JasperPrint jasperPrint = new JasperPrint();
+
+    limits.copyOutputLimit(report, jasperPrint);
+
+    assertEquals(10L, limits.getMaxOutputBytes(jasperPrint));
+    assertEquals(4096L, limits.getMaxOutputBytes(new JasperPrint()));
+  }
+
+  @Test
+  public void shouldFailWritesAboveOutputLimit() throws IOException {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    OutputStream outputStream = limits.limitOutput(target, 4);
+
+    outputStream.write(new byte[3]);
+    try {
+      outputStream.write(new byte[2]);
+      fail();
+    } catch (OutputLimitExceededException ex) {
+      assertEquals(4, ex.getLimit());
+      assertEquals(3, target.size());
+    }
+  }
+}
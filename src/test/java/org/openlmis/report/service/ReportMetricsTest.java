@@ -0,0 +1,129 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ReportMetricsTest {
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+  private final ReportMetrics metrics = new ReportMetrics(registry);
+
+  @Test
+  public void shouldRecordCancelledFill() {
+    metrics.fillCancelled("report", ReportFiller.REASON_TIMEOUT,
+        TimeUnit.SECONDS.toNanos(2), 5);
+
+    Timer timer = registry.get(ReportMetrics.FILLS_CANCELLED)
+        .tag(ReportMetrics.TEMPLATE_TAG, "report")
+        .tag(ReportMetrics.REASON_TAG, ReportFiller.REASON_TIMEOUT)
+        .timer();
+    assertEquals(1, timer.count());
+    assertEquals(2, timer.totalTime(TimeUnit.SECONDS), 0);
+    assertEquals(5, registry.get(ReportMetrics.FILLS_CANCELLED_PAGES)
+        .summary().totalAmount(), 0);
+  }
+
+  @Test
+  public void shouldCountAbortedExports() {
+    metrics.exportAborted("report", "pdf");
+    metrics.exportAborted("report", "pdf");
+
+    assertEquals(2, registry.get(ReportMetrics.EXPORTS_ABORTED)
+        .tag(ReportMetrics.FORMAT_TAG, "pdf")
+        .counter().count(), 0);
+  }
+
+  @Test
+  public void shouldCountFillsInFlight() {
+    metrics.fillStarted();
+    metrics.fillStarted();
+    metrics.fillFinished("report", "pdf", 1, 3, true);
+
+    assertEquals(1, registry.get(ReportMetrics.FILLS_IN_FLIGHT).gauge().value(), 0);
+  }
+
+  @Test
+  public void shouldRecordFillWithPages() {
+    metrics.fillStarted();
+    metrics.fillFinished("report", "pdf", TimeUnit.SECONDS.toNanos(3), 7, true);
+
+    Timer timer = registry.get(ReportMetrics.FILL)
+        .tag(ReportMetrics.TEMPLATE_TAG, "report")
+        .tag(ReportMetrics.FORMAT_TAG, "pdf")
+        .tag(ReportMetrics.OUTCOME_TAG, "completed")
+        .timer();
+    assertEquals(3, timer.totalTime(TimeUnit.SECONDS), 0);
+    assertEquals(7, registry.get(ReportMetrics.FILL_PAGES)
+        .tag(ReportMetrics.FORMAT_TAG, "pdf")
+        .summary().totalAmount(), 0);
+  }
+
+  @Test
+  public void shouldNotRecordPagesOfFailedFill() {
+    metrics.fillStarted();
+    metrics.fillFinished("report", "pdf", 1, 0, false);
+
+    assertEquals(1, registry.get(ReportMetrics.FILL)
+        .tag(ReportMetrics.OUTCOME_TAG, "failed")
+        .timer().count());
+    assertNull(registry.find(ReportMetrics.FILL_PAGES).summary());
+  }
+
+  @Test
+  public void shouldRecordExportWithBytes() {
+    metrics.exportFinished("report", "csv", TimeUnit.MILLISECONDS.toNanos(20), 1024);
+
+    assertEquals(20, registry.get(ReportMetrics.EXPORT)
+        .tag(ReportMetrics.FORMAT_TAG, "csv")
+        .timer().totalTime(TimeUnit.MILLISECONDS), 0);
+    assertEquals(1024, registry.get(ReportMetrics.EXPORT_BYTES)
+        .tag(ReportMetrics.TEMPLATE_TAG, "report")
+        .summary().totalAmount(), 0);
+  }
+
+  @Test
+  public void shouldTagUnsupportedFormatsAsOther() {
+    metrics.templateLoaded("report", "docx", 1);
+    metrics.parametersMapped("report", null, 1);
+
+    assertEquals(1, registry.get(ReportMetrics.TEMPLATE_LOAD)
+        .tag(ReportMetrics.FORMAT_TAG, ReportMetrics.OTHER_FORMAT)
+        .timer().count());
+    assertEquals(1, registry.get(ReportMetrics.PARAMETER_MAPPING)
+        .tag(ReportMetrics.FORMAT_TAG, ReportMetrics.OTHER_FORMAT)
+        .timer().count());
+  }
+
+  @Test
+  public void shouldRecordStagesOfGeneration() {
+    metrics.templateLoaded("report", "pdf", 1);
+    metrics.templateDeserialized("report", 1);
+    metrics.parametersMapped("report", "pdf", 1);
+    metrics.imagesDecoded("report", 1);
+
+    assertEquals(1, registry.get(ReportMetrics.TEMPLATE_LOAD).timer().count());
+    assertEquals(1, registry.get(ReportMetrics.TEMPLATE_DESERIALIZATION).timer().count());
+    assertEquals(1, registry.get(ReportMetrics.PARAMETER_MAPPING).timer().count());
+    assertEquals(1, registry.get(ReportMetrics.IMAGE_DECODING).timer().count());
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRGzipVirtualizer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.service.ReportPrintCache.CachedPrint;
+import org.openlmis.report.service.ReportResultCache.ResultKey;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReportPrintCacheTest {
+  private static final String EMPTY_REPORT_RESOURCE = "/empty-report.jrxml";
+  private static final String TEMPLATE_NAME = "Empty report";
+  private static final long MAX_BYTES = 1024 * 1024;
+  private static final int MAX_PAGES = 100;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private JasperReport report;
+  private JasperPrint jasperPrint;
+  private ResultKey key;
+
+  @Before
+  public void setUp() throws JRException {
+    report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream(EMPTY_REPORT_RESOURCE));
+    jasperPrint = JasperFillManager.fillReport(report, new HashMap<>(), new JREmptyDataSource());
+
+    JasperTemplate template = new JasperTemplate();
+    template.setId(UUID.randomUUID());
+    template.setData(new byte[]{1});
+    key = ResultKey.of(template, new HashMap<>(), Locale.ENGLISH);
+  }
+
+  @Test
+  public void shouldKeepFilledReportInMemory() throws IOException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_MEMORY);
+
+    UUID fillId = cache.put(key, TEMPLATE_NAME, jasperPrint).get();
+
+    assertCached(cache, fillId);
+  }
+
+  @Test
+  public void shouldCacheOnlyTemplatesWithPrintCacheProperty() throws IOException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_MEMORY);
+    assertFalse(cache.isEnabled(report));
+
+    report.setProperty(ReportPrintCache.PRINT_CACHE_PROPERTY, "true");
+    assertTrue(cache.isEnabled(report));
+    assertFalse(createCache(0, ReportPrintCache.STORAGE_MEMORY).isEnabled(report));
+  }
+
+  @Test
+  public void shouldKeepFilledReportOnDisk() throws IOException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_DISK);
+
+    UUID fillId = cache.put(key, TEMPLATE_NAME, jasperPrint).get();
+
+    assertCached(cache, fillId);
+    assertEquals(1, temporaryFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void shouldKeepVirtualizedReport() throws IOException, JRException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_MEMORY);
+    JRGzipVirtualizer virtualizer = new JRGzipVirtualizer(1);
+    HashMap<String, Object> params = new HashMap<>();
+    params.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+    JasperPrint virtualized = JasperFillManager
+        .fillReport(report, params, new JREmptyDataSource());
+    virtualizer.setReadOnly(true);
+
+    UUID fillId = cache.put(key, TEMPLATE_NAME, virtualized).get();
+    virtualizer.cleanup();
+
+    assertEquals(virtualized.getPages().size(),
+        cache.get(fillId).get().getJasperPrint().getPages().size());
+  }
+
+  @Test
+  public void shouldNotCacheReportLargerThanMaxBytes() throws IOException {
+    ReportPrintCache cache = createCache(10, ReportPrintCache.STORAGE_DISK);
+
+    assertFalse(cache.put(key, TEMPLATE_NAME, jasperPrint).isPresent());
+    assertFalse(cache.get(key).isPresent());
+    assertEquals(0, temporaryFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void shouldNotCacheReportWithMorePagesThanKeptInMemory() throws IOException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_DISK);
+    ReflectionTestUtils.setField(cache, "maxPages", jasperPrint.getPages().size() - 1);
+
+    assertFalse(cache.put(key, TEMPLATE_NAME, jasperPrint).isPresent());
+    assertFalse(cache.get(key).isPresent());
+    assertEquals(0, temporaryFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void shouldNotCacheWhenDisabled() throws IOException {
+    ReportPrintCache cache = createCache(0, ReportPrintCache.STORAGE_MEMORY);
+
+    assertFalse(cache.put(key, TEMPLATE_NAME, jasperPrint).isPresent());
+  }
+
+  @Test
+  public void shouldEvictFillsOfTemplate() throws IOException {
+    ReportPrintCache cache = createCache(MAX_BYTES, ReportPrintCache.STORAGE_DISK);
+    UUID fillId = cache.put(key, TEMPLATE_NAME, jasperPrint).get();
+
+    cache.evict(key.getTemplate().getTemplateId());
+
+    assertFalse(cache.get(fillId).isPresent());
+    assertFalse(cache.findFillId(key).isPresent());
+    assertEquals(0, cache.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectUnknownStorage() {
+    new ReportPrintCache(MAX_BYTES, 60, "cloud");
+  }
+
+  private void assertCached(ReportPrintCache cache, UUID fillId) {
+    assertEquals(Optional.of(fillId), cache.findFillId(key));
+
+    Optional<CachedPrint> cached = cache.get(key);
+    assertTrue(cached.isPresent());
+    assertEquals(fillId, cached.get().getFillId());
+    assertEquals(TEMPLATE_NAME, cached.get().getTemplateName());
+    assertEquals(jasperPrint.getName(), cached.get().getJasperPrint().getName());
+  }
+
+  private ReportPrintCache createCache(long maxBytes, String storage) throws IOException {
+    ReportPrintCache cache = new ReportPrintCache(maxBytes, 60, storage);
+    ReflectionTestUtils.setField(cache, "directory", temporaryFolder.getRoot().getPath());
+    ReflectionTestUtils.setField(cache, "maxPages", MAX_PAGES);
+    cache.init();
+    return cache;
+  }
+}
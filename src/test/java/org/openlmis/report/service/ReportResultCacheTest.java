@@ -0,0 +1,193 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import net.sf.jasperreports.engine.JasperReport;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.service.ReportResultCache.CachingOutputStream;
+import org.openlmis.report.service.ReportResultCache.ResultKey;
+
+public class ReportResultCacheTest {
+  private static final byte[] REPORT = {1, 2, 3, 4};
+
+  private ReportResultCache cache;
+  private JasperTemplate template;
+  private Map<String, Object> params;
+
+  @Before
+  public void setUp() {
+    cache = new ReportResultCache(10, 6, 60, false);
+
+    template = new JasperTemplate();
+    template.setId(UUID.randomUUID());
+    template.setData(new byte[]{1});
+
+    params = new HashMap<>();
+    params.put("format", "pdf");
+    params.put("program", "family planning");
+  }
+
+  @Test
+  public void shouldCacheCompletelyWrittenReport() throws IOException {
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    write(key, REPORT, true);
+
+    Optional<ReportWriter> cached = cache.get(ResultKey.of(template, new HashMap<>(params),
+        Locale.ENGLISH));
+
+    assertTrue(cached.isPresent());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    cached.get().writeTo(outputStream);
+    assertArrayEquals(REPORT, outputStream.toByteArray());
+  }
+
+  @Test
+  public void shouldNotCacheIncompleteReport() throws IOException {
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    write(key, REPORT, false);
+
+    assertFalse(cache.get(key).isPresent());
+  }
+
+  @Test
+  public void shouldNotCacheReportLargerThanMaxEntrySize() throws IOException {
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    byte[] report = new byte[7];
+    ByteArrayOutputStream outputStream = write(key, report, true);
+
+    assertArrayEquals(report, outputStream.toByteArray());
+    assertFalse(cache.get(key).isPresent());
+  }
+
+  @Test
+  public void shouldKeepReportsWithinMaxBytes() throws IOException {
+    write(ResultKey.of(template, params, Locale.ENGLISH), REPORT, true);
+    write(ResultKey.of(template, params, Locale.FRENCH), REPORT, true);
+    write(ResultKey.of(template, params, Locale.GERMAN), REPORT, true);
+
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void shouldDistinguishTemplateVersionParametersAndLocale() {
+    final ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    Map<String, Object> otherParams = new HashMap<>(params);
+    otherParams.put("format", "csv");
+    JasperTemplate otherVersion = new JasperTemplate();
+    otherVersion.setId(template.getId());
+    otherVersion.setData(new byte[]{2});
+
+    assertNotEquals(key, ResultKey.of(template, otherParams, Locale.ENGLISH));
+    assertNotEquals(key, ResultKey.of(template, params, Locale.FRENCH));
+    assertNotEquals(key, ResultKey.of(otherVersion, params, Locale.ENGLISH));
+  }
+
+  @Test
+  public void shouldEvictReportsOfTemplate() throws IOException {
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    write(key, REPORT, true);
+
+    cache.evict(template.getId());
+
+    assertFalse(cache.get(key).isPresent());
+  }
+
+  @Test
+  public void shouldKeepReportsOffHeap() throws IOException {
+    cache = new ReportResultCache(10, 6, 60, true);
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    write(key, REPORT, true);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    cache.get(key).get().writeTo(outputStream);
+
+    assertArrayEquals(REPORT, outputStream.toByteArray());
+  }
+
+  @Test
+  public void shouldUseTimeToLiveFromReportProperty() {
+    JasperReport report = mock(JasperReport.class);
+    assertEquals(60, cache.getTimeToLive(report));
+
+    when(report.getProperty(ReportResultCache.TIME_TO_LIVE_PROPERTY)).thenReturn("0");
+    assertEquals(0, cache.getTimeToLive(report));
+
+    when(report.getProperty(ReportResultCache.TIME_TO_LIVE_PROPERTY)).thenReturn("600");
+    assertEquals(600, cache.getTimeToLive(report));
+  }
+
+  @Test
+  public void shouldNotCacheWhenDisabled() {
+    cache = new ReportResultCache(0, 6, 60, false);
+
+    assertEquals(0, cache.getTimeToLive(mock(JasperReport.class)));
+  }
+
+  @Test
+  public void shouldKeepCompressedReports() throws IOException {
+    cache = new ReportResultCache(1024, 1024, 60, false);
+    ResultKey key = ResultKey.of(template, params, Locale.ENGLISH);
+    byte[] report = "code,name\nC1,First\nC2,Second\n".getBytes(StandardCharsets.UTF_8);
+    write(key, report, true, true);
+
+    ReportWriter cached = cache.get(key).get();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    cached.writeTo(outputStream);
+    assertArrayEquals(report, outputStream.toByteArray());
+
+    ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+    cached.getCompressedWriter().get().writeTo(compressedStream);
+    assertArrayEquals(report, IOUtils.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(compressedStream.toByteArray()))));
+  }
+
+  private ByteArrayOutputStream write(ResultKey key, byte[] report, boolean complete)
+      throws IOException {
+    return write(key, report, complete, false);
+  }
+
+  private ByteArrayOutputStream write(ResultKey key, byte[] report, boolean complete,
+      boolean compressed) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    CachingOutputStream cachingStream = cache.cache(key, 60, outputStream, compressed);
+    cachingStream.write(report);
+    if (complete) {
+      cachingStream.complete();
+    }
+    return outputStream;
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JasperReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportSchedule;
+import org.openlmis.report.dto.ReportScheduleDto;
+import org.openlmis.report.exception.ReportingException;
+import org.openlmis.report.exception.ValidationMessageException;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.repository.ReportScheduleRepository;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportScheduleServiceTest {
+  private static final String TEMPLATE_NAME = "Facility Assignment Configuration Errors";
+  private static final String NIGHTLY = "0 0 2 * * *";
+  private static final ZonedDateTime NOW =
+      ZonedDateTime.of(2026, 10, 18, 10, 15, 30, 0, ZoneOffset.UTC);
+
+  @Mock
+  private ReportScheduleRepository reportScheduleRepository;
+
+  @Mock
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Mock
+  private ReportSnapshotService reportSnapshotService;
+
+  @Mock
+  private JasperReportCache jasperReportCache;
+
+  @Mock
+  private JasperReport report;
+
+  @InjectMocks
+  private ReportScheduleService reportScheduleService;
+
+  private JasperTemplate template;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(reportScheduleService, "clock",
+        Clock.fixed(Instant.from(NOW), ZoneOffset.UTC));
+    ReflectionTestUtils.setField(reportScheduleService, "defaultLocale", "en");
+
+    template = new JasperTemplate();
+    template.setId(UUID.randomUUID());
+    template.setName(TEMPLATE_NAME);
+    when(jasperReportCache.getReport(template)).thenReturn(report);
+    when(reportScheduleRepository.save(any(ReportSchedule.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+  }
+
+  @Test
+  public void shouldCreateScheduleDueAtNextCheck() {
+    ReportScheduleDto request = createRequest(NIGHTLY, "csv");
+    request.getParameters().put("programId", "program");
+    LocaleContextHolder.setLocale(Locale.FRENCH);
+
+    ReportSchedule schedule;
+    try {
+      schedule = reportScheduleService.createSchedule(template, request);
+    } finally {
+      LocaleContextHolder.resetLocaleContext();
+    }
+
+    assertEquals(TEMPLATE_NAME, schedule.getTemplateName());
+    assertEquals(NIGHTLY, schedule.getCronExpression());
+    assertEquals("csv", schedule.getFormat());
+    assertEquals("fr", schedule.getLocale());
+    assertEquals("program", schedule.getParameters().get("programId"));
+    assertFalse(schedule.isFromTemplate());
+    assertEquals(NOW, schedule.getNextRunDate());
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldRejectInvalidCronExpression() {
+    reportScheduleService.createSchedule(template, createRequest("every night", "pdf"));
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldRejectUnsupportedFormat() {
+    reportScheduleService.createSchedule(template, createRequest(NIGHTLY, "docx"));
+  }
+
+  @Test
+  public void shouldClaimRunAndMoveNextRunDateAccordingToCronExpression() {
+    ReportSchedule schedule = createSchedule(false);
+    ZonedDateTime nextRunDate = ZonedDateTime.of(2026, 10, 19, 2, 0, 0, 0, ZoneOffset.UTC);
+    when(reportScheduleRepository.claimRun(schedule.getId(), schedule.getNextRunDate(),
+        nextRunDate)).thenReturn(1);
+
+    assertTrue(reportScheduleService.claimRun(schedule));
+  }
+
+  @Test
+  public void shouldNotClaimRunClaimedByAnotherInstance() {
+    ReportSchedule schedule = createSchedule(false);
+    when(reportScheduleRepository.claimRun(any(), any(), any())).thenReturn(0);
+
+    assertFalse(reportScheduleService.claimRun(schedule));
+  }
+
+  @Test
+  public void shouldReplaceSchedulesCreatedFromReportProperties() {
+    ReportSchedule templateSchedule = createSchedule(true);
+    ReportSchedule apiSchedule = createSchedule(false);
+    when(reportScheduleRepository.findByTemplateName(TEMPLATE_NAME))
+        .thenReturn(Arrays.asList(templateSchedule, apiSchedule));
+    when(report.getProperty(ReportScheduleService.CRON_PROPERTY)).thenReturn(NIGHTLY);
+    when(report.getProperty(ReportScheduleService.FORMATS_PROPERTY)).thenReturn("pdf, csv");
+
+    reportScheduleService.updateTemplateSchedules(template);
+
+    verify(reportScheduleRepository).delete(templateSchedule);
+    verify(reportSnapshotService)
+        .deleteSnapshot(template, templateSchedule.getParameterMap(), "pdf", Locale.ENGLISH);
+    verifyNoMoreInteractions(reportSnapshotService);
+    assertEquals(NOW, apiSchedule.getNextRunDate());
+
+    ArgumentCaptor<ReportSchedule> captor = ArgumentCaptor.forClass(ReportSchedule.class);
+    verify(reportScheduleRepository, times(3)).save(captor.capture());
+    List<ReportSchedule> saved = captor.getAllValues();
+    assertEquals(apiSchedule, saved.get(0));
+    assertEquals("pdf", saved.get(1).getFormat());
+    assertEquals("csv", saved.get(2).getFormat());
+    for (ReportSchedule schedule : saved.subList(1, 3)) {
+      assertTrue(schedule.isFromTemplate());
+      assertEquals(NIGHTLY, schedule.getCronExpression());
+      assertEquals("en", schedule.getLocale());
+      assertEquals(NOW, schedule.getNextRunDate());
+    }
+  }
+
+  @Test
+  public void shouldNotScheduleTemplateWithoutCronProperty() {
+    when(reportScheduleRepository.findByTemplateName(TEMPLATE_NAME))
+        .thenReturn(Collections.emptyList());
+
+    reportScheduleService.updateTemplateSchedules(template);
+
+    verify(reportScheduleRepository, never()).save(any(ReportSchedule.class));
+  }
+
+  @Test(expected = ReportingException.class)
+  public void shouldRejectInvalidCronProperty() throws ReportingException {
+    when(report.getProperty(ReportScheduleService.CRON_PROPERTY)).thenReturn("0 0 25 * * *");
+
+    reportScheduleService.validateTemplateSchedule(report);
+  }
+
+  @Test
+  public void shouldDeleteScheduleTogetherWithItsReport() {
+    ReportSchedule schedule = createSchedule(false);
+    when(reportScheduleRepository.findById(schedule.getId())).thenReturn(Optional.of(schedule));
+    when(jasperTemplateRepository.findByName(TEMPLATE_NAME)).thenReturn(template);
+
+    reportScheduleService.deleteSchedule(schedule.getId());
+
+    verify(reportScheduleRepository).delete(schedule);
+    verify(reportSnapshotService)
+        .deleteSnapshot(template, schedule.getParameterMap(), "pdf", Locale.ENGLISH);
+  }
+
+  private ReportScheduleDto createRequest(String cronExpression, String format) {
+    ReportScheduleDto request = new ReportScheduleDto();
+    request.setCronExpression(cronExpression);
+    request.setFormat(format);
+    return request;
+  }
+
+  private ReportSchedule createSchedule(boolean fromTemplate) {
+    ReportSchedule schedule = new ReportSchedule();
+    schedule.setId(UUID.randomUUID());
+    schedule.setTemplateName(TEMPLATE_NAME);
+    schedule.setCronExpression(NIGHTLY);
+    schedule.setFormat("pdf");
+    schedule.setLocale("en");
+    schedule.setFromTemplate(fromTemplate);
+    schedule.setNextRunDate(NOW.minusHours(8));
+    return schedule;
+  }
+}
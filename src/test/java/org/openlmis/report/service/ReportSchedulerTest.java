@@ -0,0 +1,194 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRVirtualizer;
+import net.sf.jasperreports.engine.JasperPrint;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.ReportSchedule;
+import org.openlmis.report.exception.JasperReportViewException;
+import org.openlmis.report.repository.JasperTemplateRepository;
+import org.openlmis.report.repository.ReportScheduleRepository;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReportSchedulerTest {
+  private static final String TEMPLATE_NAME = "report";
+  private static final String FORMAT = "csv";
+  private static final ZonedDateTime NOW =
+      ZonedDateTime.of(2026, 10, 18, 10, 0, 0, 0, ZoneOffset.UTC);
+
+  @Mock
+  private ReportScheduleRepository reportScheduleRepository;
+
+  @Mock
+  private ReportScheduleService reportScheduleService;
+
+  @Mock
+  private ReportSnapshotService reportSnapshotService;
+
+  @Mock
+  private JasperTemplateRepository jasperTemplateRepository;
+
+  @Mock
+  private JasperTemplateService jasperTemplateService;
+
+  @Mock
+  private JasperReportsViewService jasperReportsViewService;
+
+  @Spy
+  private ReportLimits reportLimits = new ReportLimits();
+
+  @InjectMocks
+  private ReportScheduler reportScheduler;
+
+  private JasperTemplate template;
+  private ReportSchedule schedule;
+
+  @Before
+  public void setUp() {
+    template = new JasperTemplate();
+    template.setId(UUID.randomUUID());
+    template.setName(TEMPLATE_NAME);
+
+    schedule = new ReportSchedule();
+    schedule.setId(UUID.randomUUID());
+    schedule.setTemplateName(TEMPLATE_NAME);
+    schedule.setFormat(FORMAT);
+    schedule.setLocale("fr");
+    schedule.getParameters().put("programId", "program");
+
+    when(reportScheduleService.now()).thenReturn(NOW);
+  }
+
+  @Test
+  public void shouldStoreGeneratedReport() throws Exception {
+    Map<String, Object> params = new HashMap<>();
+    JRVirtualizer virtualizer = mock(JRVirtualizer.class);
+    FilledReport filledReport = new FilledReport(new JasperPrint(), virtualizer);
+    when(jasperTemplateRepository.findByName(TEMPLATE_NAME)).thenReturn(template);
+    when(jasperTemplateService.mapReportParametersToTemplate(
+        any(Map.class), eq(template), eq(FORMAT))).thenReturn(params);
+    when(jasperReportsViewService.fillReport(template, params)).thenAnswer(invocation -> {
+      assertEquals(Locale.FRENCH, LocaleContextHolder.getLocale());
+      return filledReport;
+    });
+    when(jasperReportsViewService.getJasperExporter(filledReport, FORMAT))
+        .thenReturn(outputStream -> write(outputStream, "report"));
+
+    reportScheduler.generate(schedule);
+
+    ArgumentCaptor<byte[]> data = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<Map> parameters = ArgumentCaptor.forClass(Map.class);
+    verify(reportSnapshotService).saveSnapshot(eq(template), parameters.capture(), eq(FORMAT),
+        eq(Locale.FRENCH), data.capture(), eq(NOW));
+    assertArrayEquals("report".getBytes(StandardCharsets.UTF_8), data.getValue());
+    assertArrayEquals(new String[]{"program"},
+        (String[]) parameters.getValue().get("programId"));
+    verify(virtualizer).cleanup();
+  }
+
+  @Test
+  public void shouldNotStoreReportExceedingOutputLimit() throws Exception {
+    ReflectionTestUtils.setField(reportLimits, "maxOutputBytes", 4L);
+    Map<String, Object> params = new HashMap<>();
+    FilledReport filledReport = new FilledReport(new JasperPrint(), null);
+    when(jasperTemplateRepository.findByName(TEMPLATE_NAME)).thenReturn(template);
+    when(jasperTemplateService.mapReportParametersToTemplate(
+        any(Map.class), eq(template), eq(FORMAT))).thenReturn(params);
+    when(jasperReportsViewService.fillReport(template, params)).thenReturn(filledReport);
+    when(jasperReportsViewService.getJasperExporter(filledReport, FORMAT))
+        .thenReturn(outputStream -> write(outputStream, "report"));
+
+    reportScheduler.generate(schedule);
+
+    verify(reportSnapshotService, never())
+        .saveSnapshot(any(), any(), anyString(), any(), any(), any());
+  }
+
+  @Test
+  public void shouldNotStoreReportIfGenerationFails() throws Exception {
+    when(jasperTemplateRepository.findByName(TEMPLATE_NAME)).thenReturn(template);
+    when(jasperTemplateService.mapReportParametersToTemplate(
+        any(Map.class), eq(template), eq(FORMAT))).thenReturn(new HashMap<>());
+    when(jasperReportsViewService.fillReport(eq(template), any(Map.class)))
+        .thenThrow(new JasperReportViewException(new JRException("error"), "error"));
+
+    reportScheduler.generate(schedule);
+
+    verify(reportSnapshotService, never())
+        .saveSnapshot(any(), any(), anyString(), any(), any(), any());
+  }
+
+  @Test
+  public void shouldSkipScheduleOfMissingTemplate() throws Exception {
+    reportScheduler.generate(schedule);
+
+    verify(jasperReportsViewService, never()).fillReport(any(), any(Map.class));
+  }
+
+  @Test
+  public void shouldGenerateOnlyClaimedRuns() {
+    ReflectionTestUtils.setField(reportScheduler, "poolSize", 1);
+    reportScheduler.init();
+    when(reportScheduleRepository.findByNextRunDateLessThanEqual(NOW))
+        .thenReturn(Collections.singletonList(schedule));
+    when(reportScheduleService.claimRun(schedule)).thenReturn(false);
+
+    reportScheduler.runDueSchedules();
+    reportScheduler.shutdown();
+
+    verify(jasperTemplateRepository, never()).findByName(anyString());
+  }
+
+  private void write(OutputStream outputStream, String content) throws JRException {
+    try {
+      outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException ex) {
+      throw new JRException(ex);
+    }
+  }
+}
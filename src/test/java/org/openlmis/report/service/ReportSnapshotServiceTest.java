@@ -0,0 +1,74 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.openlmis.report.domain.JasperTemplate;
+import org.openlmis.report.domain.JasperTemplateParameter;
+
+public class ReportSnapshotServiceTest {
+
+  private JasperTemplate template;
+
+  @Before
+  public void setUp() {
+    template = new JasperTemplate();
+    template.setTemplateParameters(Arrays.asList(createParameter("programId"),
+        createParameter("facilityId"), createParameter("period")));
+  }
+
+  @Test
+  public void shouldBuildKeyFromTemplateParametersOnly() {
+    Map<String, String[]> parameters = new HashMap<>();
+    parameters.put("programId", new String[]{"program"});
+    parameters.put("facilityId", new String[]{"facility"});
+    parameters.put("access_token", new String[]{"token"});
+
+    assertEquals("facilityId=facility&programId=program",
+        ReportSnapshotService.getParametersKey(template, parameters));
+  }
+
+  @Test
+  public void shouldSkipBlankValuesAndEncodeOthers() {
+    Map<String, String[]> parameters = new HashMap<>();
+    parameters.put("programId", new String[]{"undefined"});
+    parameters.put("facilityId", new String[]{""});
+    parameters.put("period", new String[]{"Jan 2026&Feb"});
+
+    assertEquals("period=Jan+2026%26Feb",
+        ReportSnapshotService.getParametersKey(template, parameters));
+  }
+
+  @Test
+  public void shouldBuildEmptyKeyForTemplateWithoutParameters() {
+    Map<String, String[]> parameters = new HashMap<>();
+    parameters.put("programId", new String[]{"program"});
+
+    assertEquals("", ReportSnapshotService.getParametersKey(new JasperTemplate(), parameters));
+  }
+
+  private JasperTemplateParameter createParameter(String name) {
+    JasperTemplateParameter parameter = new JasperTemplateParameter();
+    parameter.setName(name);
+    return parameter;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openlmis.report.service.Span.Kind;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestOperations;
+
+public class ReportTracerTest {
+  private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+  private static final String PARENT_ID = "00f067aa0ba902b7";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private ReportTracer tracer;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(folder.newFolder(), "traces.jsonl");
+    tracer = new ReportTracer();
+    ReflectionTestUtils.setField(tracer, "objectMapper", objectMapper);
+    ReflectionTestUtils.setField(tracer, "exporter", ReportTracer.EXPORTER_FILE);
+    ReflectionTestUtils.setField(tracer, "file", file.getPath());
+    ReflectionTestUtils.setField(tracer, "otlpEndpoint", "http://collector/v1/traces");
+    ReflectionTestUtils.setField(tracer, "queueCapacity", 10);
+    ReflectionTestUtils.setField(tracer, "exportInterval", 60000L);
+    tracer.init();
+  }
+
+  @After
+  public void tearDown() {
+    tracer.shutdown();
+  }
+
+  @Test
+  public void shouldStartChildOfCurrentSpan() {
+    try (Span server = tracer.startServerSpan("GET /", null)) {
+      try (Span child = tracer.startSpan("report.fill")) {
+        assertEquals(server.getTraceId(), child.getTraceId());
+        assertEquals(server.getSpanId(), child.getParentSpanId());
+        assertSame(child, tracer.getCurrentSpan());
+      }
+      assertSame(server, tracer.getCurrentSpan());
+    }
+    assertNull(tracer.getCurrentSpan());
+  }
+
+  @Test
+  public void shouldContinueTraceOfIncomingRequest() {
+    try (Span span = tracer.startServerSpan("GET /",
+        "00-" + TRACE_ID + "-" + PARENT_ID + "-01")) {
+      assertEquals(TRACE_ID, span.getTraceId());
+      assertEquals(PARENT_ID, span.getParentSpanId());
+      assertTrue(span.getTraceparent().startsWith("00-" + TRACE_ID + "-"));
+    }
+  }
+
+  @Test
+  public void shouldStartNewTraceForInvalidTraceContext() {
+    try (Span span = tracer.startServerSpan("GET /",
+        "00-00000000000000000000000000000000-" + PARENT_ID + "-01")) {
+      assertNotEquals("00000000000000000000000000000000", span.getTraceId());
+      assertNull(span.getParentSpanId());
+    }
+  }
+
+  @Test
+  public void shouldStartSpanWithExplicitParent() {
+    Span parent = tracer.startServerSpan("GET /", null);
+    tracer.detach(parent);
+
+    try (Span span = tracer.startSpan("report.export", parent)) {
+      assertEquals(parent.getTraceId(), span.getTraceId());
+      assertEquals(parent.getSpanId(), span.getParentSpanId());
+    }
+    assertNull(tracer.getCurrentSpan());
+    parent.close();
+  }
+
+  @Test
+  public void shouldWriteSpansToFile() throws IOException {
+    try (Span span = tracer.startSpan("report.fill")) {
+      span.setAttribute(ReportTracer.TEMPLATE_ATTRIBUTE, "Stock")
+          .setAttribute("report.pages", 3)
+          .setError(new IllegalStateException());
+    }
+    tracer.flush();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(1, lines.size());
+    JsonNode span = objectMapper.readTree(lines.get(0));
+    assertEquals("report.fill", span.get("name").asText());
+    assertEquals(Kind.INTERNAL.getCode(), span.get("kind").asInt());
+    assertEquals(ReportTracer.TEMPLATE_ATTRIBUTE, span.at("/attributes/0/key").asText());
+    assertEquals("Stock", span.at("/attributes/0/value/stringValue").asText());
+    assertEquals("3", span.at("/attributes/1/value/intValue").asText());
+    assertEquals(2, span.at("/status/code").asInt());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldPostSpansToCollector() {
+    RestOperations restTemplate = mock(RestOperations.class);
+    tracer.setRestTemplate(restTemplate);
+    ReflectionTestUtils.setField(tracer, "exporter", ReportTracer.EXPORTER_OTLP);
+
+    tracer.startSpan("report.export").close();
+    tracer.flush();
+
+    verify(restTemplate).postForEntity(eq("http://collector/v1/traces"),
+        any(Map.class), eq(Void.class));
+  }
+
+  @Test
+  public void shouldExportSpanOnlyOnce() throws IOException {
+    Span span = tracer.startSpan("report.fill");
+    span.close();
+    span.close();
+    tracer.flush();
+
+    assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectUnknownExporter() {
+    ReportTracer unknown = new ReportTracer();
+    ReflectionTestUtils.setField(unknown, "exporter", "zipkin");
+
+    unknown.init();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRAbstractLRUVirtualizer;
+import net.sf.jasperreports.engine.fill.JRGzipVirtualizer;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReportVirtualizerFactoryTest {
+  private static final String EMPTY_REPORT_RESOURCE = "/empty-report.jrxml";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ReportVirtualizerFactory factory;
+  private JasperReport report;
+
+  @Before
+  public void setUp() throws JRException {
+    factory = new ReportVirtualizerFactory();
+    ReflectionTestUtils.setField(factory, "maxPages", 10);
+    ReflectionTestUtils.setField(factory, "directory", temporaryFolder.getRoot().getPath());
+    ReflectionTestUtils.setField(factory, "swapFileBlockSize", 1024);
+
+    report = JasperCompileManager
+        .compileReport(getClass().getResourceAsStream(EMPTY_REPORT_RESOURCE));
+  }
+
+  @Test
+  public void shouldCreateVirtualizerOfConfiguredType() throws IOException {
+    setType(ReportVirtualizerFactory.TYPE_SWAP_FILE);
+    JRAbstractLRUVirtualizer virtualizer = factory.createVirtualizer(report);
+
+    try {
+      assertTrue(virtualizer instanceof JRSwapFileVirtualizer);
+      assertEquals(10, getMaxPages(virtualizer));
+    } finally {
+      virtualizer.cleanup();
+    }
+  }
+
+  @Test
+  public void shouldUseMaxPagesFromReportProperty() throws IOException {
+    setType(ReportVirtualizerFactory.TYPE_GZIP);
+    report.setProperty(ReportVirtualizerFactory.MAX_PAGES_PROPERTY, "3");
+
+    JRAbstractLRUVirtualizer virtualizer = factory.createVirtualizer(report);
+
+    assertTrue(virtualizer instanceof JRGzipVirtualizer);
+    assertEquals(3, getMaxPages(virtualizer));
+  }
+
+  @Test
+  public void shouldIgnoreInvalidReportProperty() throws IOException {
+    setType(ReportVirtualizerFactory.TYPE_GZIP);
+    report.setProperty(ReportVirtualizerFactory.MAX_PAGES_PROPERTY, "many");
+
+    JRAbstractLRUVirtualizer virtualizer = factory.createVirtualizer(report);
+
+    assertEquals(10, getMaxPages(virtualizer));
+  }
+
+  @Test
+  public void shouldNotCreateVirtualizerWhenDisabled() throws IOException {
+    setType(ReportVirtualizerFactory.TYPE_NONE);
+
+    assertNull(factory.createVirtualizer(report));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectUnknownType() throws IOException {
+    setType("disk");
+  }
+
+  private Object getMaxPages(JRAbstractLRUVirtualizer virtualizer) {
+    Object pagedIn = ReflectionTestUtils.getField(virtualizer, "pagedIn");
+    return ReflectionTestUtils.getField(pagedIn, "maxSize");
+  }
+
+  private void setType(String type) throws IOException {
+    ReflectionTestUtils.setField(factory, "type", type);
+    factory.init();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.report.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+public class TracingRequestInterceptorTest {
+  private final ReportTracer tracer = new ReportTracer();
+  private final TracingRequestInterceptor interceptor = new TracingRequestInterceptor(tracer);
+
+  @Test
+  public void shouldPropagateTraceContextOfClientSpan() throws IOException {
+    MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET,
+        URI.create("http://referencedata/api/users/1/hasRight?rightId=2"));
+
+    try (Span parent = tracer.startServerSpan("GET /", null)) {
+      interceptor.intercept(request, new byte[0], (req, body) -> {
+        Span span = tracer.getCurrentSpan();
+        assertEquals(parent.getSpanId(), span.getParentSpanId());
+        assertEquals(span.getTraceparent(),
+            req.getHeaders().getFirst(ReportTracer.TRACEPARENT_HEADER));
+        assertEquals("http://referencedata/api/users/1/hasRight",
+            span.getAttributes().get("http.url"));
+        return new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+      });
+
+      assertEquals(parent, tracer.getCurrentSpan());
+    }
+  }
+
+  @Test
+  public void shouldMarkFailedCallAsError() {
+    MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST,
+        URI.create("http://auth/api/oauth/token"));
+    Span[] spans = new Span[1];
+
+    try {
+      interceptor.intercept(request, new byte[0], (req, body) -> {
+        spans[0] = tracer.getCurrentSpan();
+        throw new IOException("Connection refused");
+      });
+      fail();
+    } catch (IOException ex) {
+      assertTrue(spans[0].isError());
+      assertTrue(spans[0].isEnded());
+      assertNull(tracer.getCurrentSpan());
+    }
+  }
+}
@@ -21,9 +21,11 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import java.net.URI;
+import java.util.Map;
 import org.junit.Test;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 public class RequestHelperTest {
 
@@ -74,4 +76,14 @@ public class RequestHelperTest {
     assertThat(entity.getHeaders().get(HttpHeaders.AUTHORIZATION),
             is(singletonList("Bearer " + token)));
   }
+
+  @Test
+  public void shouldGetParameterMapOfRequest() {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addParameter("a", "b", "c");
+
+    Map<String, String[]> parameterMap = RequestHelper.getParameterMap(request);
+
+    assertThat(parameterMap.get("a"), is(new String[]{"b", "c"}));
+  }
 }